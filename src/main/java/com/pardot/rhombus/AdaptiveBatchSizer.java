@@ -0,0 +1,61 @@
+package com.pardot.rhombus;
+
+/**
+ * Picks the size of each table scan batch from how long full batches took and how large their rows were. The size
+ * moves towards the number of rows that would take the target time to read, but never past the number of rows that
+ * would exceed the byte limit, and at most doubles or halves per batch so that one slow read does not swing it.
+ * Not thread safe, each scanning thread uses its own.
+ */
+public class AdaptiveBatchSizer {
+
+	private final long minBatchSize;
+	private final long maxBatchSize;
+	private final long targetBatchNanos;
+	private final long maxBatchBytes;
+	private long batchSize;
+
+	/**
+	 * @param initialBatchSize Size of the first batch
+	 * @param minBatchSize Smallest size to shrink to
+	 * @param maxBatchSize Largest size to grow to
+	 * @param targetBatchMillis Time a batch should take to read
+	 * @param maxBatchBytes Estimated bytes a batch should not exceed, 0 for no limit
+	 */
+	public AdaptiveBatchSizer(long initialBatchSize, long minBatchSize, long maxBatchSize, long targetBatchMillis, long maxBatchBytes) {
+		if(minBatchSize < 1 || maxBatchSize < minBatchSize) {
+			throw new IllegalArgumentException("Batch size bounds must satisfy 1 <= min <= max");
+		}
+		this.minBatchSize = minBatchSize;
+		this.maxBatchSize = maxBatchSize;
+		this.targetBatchNanos = targetBatchMillis * 1000000L;
+		this.maxBatchBytes = maxBatchBytes;
+		this.batchSize = clamp(initialBatchSize);
+	}
+
+	public long getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Record a batch read at the current size
+	 * @param rows Number of rows the batch returned
+	 * @param bytes Estimated size of those rows
+	 * @param nanos Time the batch took to read
+	 */
+	public void record(int rows, long bytes, long nanos) {
+		// A batch that came back short reached the end of its range, so its time says little about a full batch
+		if(rows < batchSize || rows == 0) {
+			return;
+		}
+		double nextSize = (nanos > 0) ? (double)batchSize * targetBatchNanos / nanos : Double.MAX_VALUE;
+		if(maxBatchBytes > 0 && bytes > 0) {
+			nextSize = Math.min(nextSize, (double)maxBatchBytes * rows / bytes);
+		}
+		nextSize = Math.max(batchSize / 2.0, Math.min(batchSize * 2.0, nextSize));
+		batchSize = clamp((long)nextSize);
+	}
+
+	private long clamp(long size) {
+		return Math.max(minBatchSize, Math.min(maxBatchSize, size));
+	}
+}
@@ -274,7 +274,7 @@ public class ConnectionManager {
 			CKeyspaceDefinition oldKeyspaceDefinition = hydrateLatestKeyspaceDefinitionFromCassandra(newKeyspaceDefinition);
 			ObjectMapper om = getObjectMapper(newKeyspaceDefinition);
 			boolean oldExecuteAsync = om.getExecuteAsync();
-			om.runMigration(oldKeyspaceDefinition, newKeyspaceDefinition, executeCql);
+			ret.addAll(om.runMigration(oldKeyspaceDefinition, newKeyspaceDefinition, executeCql));
 			if(executeCql) {
 				addKeyspaceDefinitionToCassandra(newKeyspaceDefinition);
 				om.setKeyspaceDefinition(newKeyspaceDefinition);
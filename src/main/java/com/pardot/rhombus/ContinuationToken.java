@@ -0,0 +1,226 @@
+package com.pardot.rhombus;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.pardot.rhombus.cobject.CObjectOrdering;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Where the next page of a list query starts: the shards still to be read, starting with the one the next object is
+ * in, and the id of that next object. Since the shards are carried in the token, resuming a query does not look them
+ * up again. The encoded form is opaque to callers and only valid for the query that produced it, which is checked by a
+ * fingerprint of the criteria that decide which objects the query reads and in what order.
+ */
+public class ContinuationToken implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private static final int VERSION = 2;
+	/**
+	 * Most shard ids a decoded token may carry, more than the shards an hourly strategy has in ten years. Tokens come
+	 * back from callers, so this bounds what a forged token can make decode allocate.
+	 */
+	public static final int MAX_SHARD_IDS = 100000;
+
+	private final String objectType;
+	private final long criteriaFingerprint;
+	private final ImmutableList<Long> shardIds;
+	private final UUID nextId;
+
+	/**
+	 * @param objectType Type of object queried
+	 * @param criteria Criteria of the query
+	 * @param shardIds Shards left to read, in order, starting with the shard of the next object
+	 * @param nextId Id of the next object, which the next page starts from
+	 */
+	public ContinuationToken(String objectType, Criteria criteria, List<Long> shardIds, UUID nextId) {
+		this(objectType, makeCriteriaFingerprint(criteria), shardIds, nextId);
+	}
+
+	private ContinuationToken(String objectType, long criteriaFingerprint, List<Long> shardIds, UUID nextId) {
+		this.objectType = objectType;
+		this.criteriaFingerprint = criteriaFingerprint;
+		this.shardIds = ImmutableList.copyOf(shardIds);
+		this.nextId = nextId;
+	}
+
+	public String getObjectType() {
+		return objectType;
+	}
+
+	/**
+	 * @param criteria Criteria of a query to resume with this token
+	 * @return true if the criteria read the same objects in the same order as the query that produced the token. The
+	 * limit and projection may differ between pages.
+	 */
+	public boolean matches(Criteria criteria) {
+		return criteriaFingerprint == makeCriteriaFingerprint(criteria);
+	}
+
+	public List<Long> getShardIds() {
+		return shardIds;
+	}
+
+	public UUID getNextId() {
+		return nextId;
+	}
+
+	/**
+	 * @return URL safe string form of the token. Runs of consecutive shards are stored as their endpoints, so the
+	 * length does not grow with the number of shards in a bounded range.
+	 */
+	public String encode() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(VERSION);
+			out.writeUTF(objectType);
+			out.writeLong(criteriaFingerprint);
+			out.writeLong(nextId.getMostSignificantBits());
+			out.writeLong(nextId.getLeastSignificantBits());
+			List<long[]> runs = makeRuns(shardIds);
+			out.writeInt(runs.size());
+			for(long[] run : runs) {
+				out.writeLong(run[0]);
+				out.writeLong(run[1]);
+			}
+			out.flush();
+		} catch(IOException e) {
+			// Writing to memory does not fail
+			throw new IllegalStateException(e);
+		}
+		return BaseEncoding.base64Url().omitPadding().encode(bytes.toByteArray());
+	}
+
+	/**
+	 * @param encoded String form of a token from encode
+	 * @return The token
+	 * @throws RhombusException if the string is not an encoded token, or carries more than MAX_SHARD_IDS shards
+	 */
+	public static ContinuationToken decode(String encoded) throws RhombusException {
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(BaseEncoding.base64Url().omitPadding().decode(encoded)));
+			if(in.readByte() != VERSION) {
+				throw new RhombusException("Unsupported continuation token version");
+			}
+			String objectType = in.readUTF();
+			long criteriaFingerprint = in.readLong();
+			UUID nextId = new UUID(in.readLong(), in.readLong());
+			int runCount = in.readInt();
+			if(runCount < 0 || runCount > MAX_SHARD_IDS) {
+				throw new RhombusException("Invalid continuation token");
+			}
+			List<Long> shardIds = Lists.newArrayList();
+			for(int i = 0; i < runCount; i++) {
+				long first = in.readLong();
+				long last = in.readLong();
+				// A span too large for a long wraps negative
+				long span = (first <= last) ? last - first : first - last;
+				if(span < 0 || span >= MAX_SHARD_IDS - shardIds.size()) {
+					throw new RhombusException("Invalid continuation token");
+				}
+				long step = (first <= last) ? 1 : -1;
+				for(long shardId = first; ; shardId += step) {
+					shardIds.add(shardId);
+					if(shardId == last) {
+						break;
+					}
+				}
+			}
+			return new ContinuationToken(objectType, criteriaFingerprint, shardIds, nextId);
+		} catch(IOException e) {
+			throw new RhombusException("Invalid continuation token");
+		} catch(IllegalArgumentException e) {
+			throw new RhombusException("Invalid continuation token");
+		}
+	}
+
+	/**
+	 * Hash the criteria that decide which objects a query reads and in what order, with unset values normalized to
+	 * their defaults. Client side filters are the index keys no index covers, so they are included with the index keys.
+	 */
+	private static long makeCriteriaFingerprint(Criteria criteria) {
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		if(criteria.getIndexKeys() != null) {
+			for(Map.Entry<String, Object> indexKey : criteria.getIndexKeys().entrySet()) {
+				hasher.putString(indexKey.getKey(), Charsets.UTF_8).putByte((byte)0);
+				hasher.putString(String.valueOf(indexKey.getValue()), Charsets.UTF_8).putByte((byte)0);
+			}
+		}
+		hasher.putByte((byte)1);
+		CObjectOrdering ordering = (criteria.getOrdering() == null) ? CObjectOrdering.DESCENDING : criteria.getOrdering();
+		hasher.putString(ordering.name(), Charsets.UTF_8);
+		putUuid(hasher, criteria.getStartUuid());
+		putUuid(hasher, criteria.getEndUuid());
+		hasher.putBoolean(!Boolean.FALSE.equals(criteria.getInclusive()));
+		hasher.putBoolean(Boolean.TRUE.equals(criteria.getAllowFiltering()));
+		return hasher.hash().asLong();
+	}
+
+	private static void putUuid(Hasher hasher, UUID uuid) {
+		hasher.putBoolean(uuid != null);
+		if(uuid != null) {
+			hasher.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+		}
+	}
+
+	/**
+	 * Split the shards into runs of consecutive shard ids, either increasing or decreasing
+	 */
+	private static List<long[]> makeRuns(List<Long> shardIds) {
+		List<long[]> runs = Lists.newArrayList();
+		int i = 0;
+		while(i < shardIds.size()) {
+			int last = i;
+			if(i + 1 < shardIds.size() && Math.abs(shardIds.get(i + 1) - shardIds.get(i)) == 1) {
+				long step = shardIds.get(i + 1) - shardIds.get(i);
+				last = i + 1;
+				while(last + 1 < shardIds.size() && shardIds.get(last + 1) - shardIds.get(last) == step) {
+					last++;
+				}
+			}
+			runs.add(new long[]{shardIds.get(i), shardIds.get(last)});
+			i = last + 1;
+		}
+		return runs;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if(!(other instanceof ContinuationToken)) {
+			return false;
+		}
+		ContinuationToken token = (ContinuationToken)other;
+		return Objects.equal(objectType, token.objectType)
+				&& criteriaFingerprint == token.criteriaFingerprint
+				&& Objects.equal(shardIds, token.shardIds)
+				&& Objects.equal(nextId, token.nextId);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(objectType, criteriaFingerprint, shardIds, nextId);
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("objectType", objectType)
+				.add("shardIds", shardIds)
+				.add("nextId", nextId)
+				.toString();
+	}
+}
@@ -9,6 +9,8 @@ import org.slf4j.LoggerFactory;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.UUID;
 
@@ -27,6 +29,9 @@ public class Criteria {
 	private Long limit = 0L;
 	private Boolean inclusive = true;
 	private Boolean allowFiltering = false;
+	private Set<String> projection;
+	private SortedMap<String, List<Object>> multiValueIndexKeys;
+	private Boolean intersectIndexes = false;
 
 
 	public String toString() {
@@ -38,6 +43,9 @@ public class Criteria {
 				.add("limit", limit)
 				.add("inclusive", inclusive)
 				.add("allowFiltering", allowFiltering)
+				.add("projection", projection)
+				.add("multiValueIndexKeys", multiValueIndexKeys)
+				.add("intersectIndexes", intersectIndexes)
 				.toString();
 	}
 
@@ -118,4 +126,41 @@ public class Criteria {
 	public void setAllowFiltering(Boolean allowFiltering) {
 		this.allowFiltering = allowFiltering;
 	}
+
+	public Set<String> getProjection() {
+		return projection;
+	}
+
+	/**
+	 * @param projection Fields to select and map. id is always included, as are any fields needed to apply
+	 *                   client side filters. Null or empty selects every field.
+	 */
+	public void setProjection(Set<String> projection) {
+		this.projection = projection;
+	}
+
+	public SortedMap<String, List<Object>> getMultiValueIndexKeys() {
+		return multiValueIndexKeys;
+	}
+
+	/**
+	 * @param multiValueIndexKeys Index keys to match any of several values for. Every combination of these values is
+	 *                            combined with indexKeys and queried separately, and the results are merged in id order.
+	 *                            Only supported by list and count.
+	 */
+	public void setMultiValueIndexKeys(SortedMap<String, List<Object>> multiValueIndexKeys) {
+		this.multiValueIndexKeys = multiValueIndexKeys;
+	}
+
+	public Boolean getIntersectIndexes() {
+		return intersectIndexes;
+	}
+
+	/**
+	 * @param intersectIndexes true to answer list and count queries that no single index covers by intersecting the
+	 *                         ids from several indexes, rather than filtering the results of one of them
+	 */
+	public void setIntersectIndexes(Boolean intersectIndexes) {
+		this.intersectIndexes = intersectIndexes;
+	}
 }
@@ -0,0 +1,222 @@
+package com.pardot.rhombus;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.RateLimiter;
+import com.pardot.rhombus.cobject.CIndex;
+import com.pardot.rhombus.cobject.CObjectTokenVisitor;
+import com.pardot.rhombus.cobject.CObjectTokenVisitorFactory;
+import com.pardot.rhombus.cobject.CQLGenerationException;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fills indexes added to an existing object type with the objects already in its static table. The table is scanned
+ * by a TableScanner, and each object is written into the new indexes and the shard index without waiting, up to a
+ * limit of writes in flight per partition. A batch only counts towards the scan's checkpoint once all of its writes
+ * have finished, so a backfill resumed from the savepoint directory never skips an object.
+ *
+ * Run it once every client is writing with the definition that includes the indexes, so objects inserted during the
+ * backfill are indexed by their writers. Updates and deletes of the type must be stopped while it runs. The backfill
+ * writes each object as it was scanned, with the time of the write rather than the time the object was last written,
+ * so an update that lands between the scan and the write is overwritten in the new indexes by the old values, and
+ * the index entry for the old values is written back after the update removed it. Objects deleted in that window are
+ * likewise left in the new indexes.
+ */
+public class IndexBackfill {
+
+	private static Logger logger = LoggerFactory.getLogger(IndexBackfill.class);
+
+	private final ObjectMapper objectMapper;
+	private final String objectType;
+	private final List<CIndex> indexes;
+	private final TableScanner tableScanner;
+	private int maxWritesInFlight = 100;
+	private double maxObjectsPerSecond = 0;
+	private RateLimiter rateLimiter = null;
+	private final AtomicLong objectsWritten = new AtomicLong();
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private final Meter objectsMeter;
+	private final Meter failuresMeter;
+
+	/**
+	 * @param objectMapper Object mapper whose keyspace definition includes the indexes
+	 * @param objectType Type of object to backfill
+	 * @param indexes Indexes of the type to write existing objects into
+	 * @param numPartitions Number of threads to scan the static table with
+	 * @param savepointDirectoryPath Directory to checkpoint the scan in, or null to not checkpoint
+	 */
+	public IndexBackfill(ObjectMapper objectMapper, String objectType, List<CIndex> indexes, int numPartitions, String savepointDirectoryPath) {
+		Preconditions.checkNotNull(objectMapper);
+		Preconditions.checkNotNull(objectType);
+		Preconditions.checkNotNull(indexes);
+		this.objectMapper = objectMapper;
+		this.objectType = objectType;
+		this.indexes = ImmutableList.copyOf(indexes);
+		this.tableScanner = new TableScanner(objectMapper, objectType, numPartitions, new CObjectTokenVisitorFactory() {
+			@Override
+			public CObjectTokenVisitor getInstance(String name) {
+				return new BackfillVisitor(name);
+			}
+		}, savepointDirectoryPath);
+		objectsMeter = Metrics.defaultRegistry().newMeter(IndexBackfill.class, "backfill.objects", objectType, "objects", TimeUnit.SECONDS);
+		failuresMeter = Metrics.defaultRegistry().newMeter(IndexBackfill.class, "backfill.failures", objectType, "failures", TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Scan the whole static table and write every object into the indexes. Can only be run once.
+	 * @throws RhombusException if any write or read of the static table failed. Objects after the last checkpoint of
+	 * the range that failed may not have been written, so run the backfill again with the same savepoint directory to
+	 * finish it.
+	 */
+	public void run() throws RhombusException {
+		if(maxObjectsPerSecond > 0) {
+			rateLimiter = RateLimiter.create(maxObjectsPerSecond);
+		}
+		logger.info("Backfilling {} indexes of {}", indexes.size(), objectType);
+		try {
+			tableScanner.scan();
+		} catch(RuntimeException e) {
+			// A failed write stops the scan by failing its range, in which case the write is what to report
+			if(failure.get() == null) {
+				logger.error("Index backfill read failed, stopping the backfill", e);
+				failure.compareAndSet(null, e);
+			}
+		}
+		Throwable t = failure.get();
+		if(t != null) {
+			throw new RhombusException("Index backfill of " + objectType + " failed after " + objectsWritten.get() + " objects: " + t.getMessage());
+		}
+		logger.info("Backfilled {} objects of {}", objectsWritten.get(), objectType);
+	}
+
+	private void recordFailure(Throwable t) {
+		failuresMeter.mark();
+		if(failure.compareAndSet(null, t)) {
+			logger.error("Index backfill write failed, stopping the backfill", t);
+		}
+	}
+
+	/**
+	 * Visitor for one partition of the scan, which bounds its own writes in flight
+	 */
+	private class BackfillVisitor extends CObjectTokenVisitor {
+		private final Semaphore writesInFlight = new Semaphore(maxWritesInFlight);
+
+		private BackfillVisitor(String name) {
+			super(name);
+		}
+
+		@Override
+		public void applyAction(Map<String, Object> object) {
+			if(rateLimiter != null) {
+				rateLimiter.acquire();
+			}
+			writesInFlight.acquireUninterruptibly();
+			ListenableFuture<Void> future;
+			try {
+				future = objectMapper.backfillIndexesAsync(objectType, object, indexes);
+			} catch(CQLGenerationException e) {
+				writesInFlight.release();
+				recordFailure(e);
+				return;
+			}
+			Futures.addCallback(future, new FutureCallback<Void>() {
+				@Override
+				public void onSuccess(Void result) {
+					objectsWritten.incrementAndGet();
+					objectsMeter.mark();
+					writesInFlight.release();
+				}
+
+				@Override
+				public void onFailure(Throwable t) {
+					recordFailure(t);
+					writesInFlight.release();
+				}
+			});
+		}
+
+		@Override
+		public boolean shouldInclude(Map<String, Object> object) {
+			// Once a write has failed the scan is stopping, so there is no point sending more
+			return failure.get() == null;
+		}
+
+		@Override
+		public void setUp() {
+		}
+
+		@Override
+		public void cleanUp() {
+			awaitWrites();
+		}
+
+		@Override
+		public void flush() {
+			awaitWrites();
+			if(failure.get() != null) {
+				throw new IllegalStateException("Stopping index backfill of " + objectType + " after a failed write", failure.get());
+			}
+		}
+
+		private void awaitWrites() {
+			writesInFlight.acquireUninterruptibly(maxWritesInFlight);
+			writesInFlight.release(maxWritesInFlight);
+		}
+	}
+
+	/**
+	 * @return The scanner reading the static table, to configure its batch size, split mode and savepoint interval
+	 * before the backfill is run. Its progress and ETA gauges report the backfill's progress.
+	 */
+	public TableScanner getTableScanner() {
+		return tableScanner;
+	}
+
+	public List<CIndex> getIndexes() {
+		return indexes;
+	}
+
+	/**
+	 * @return Number of objects whose index writes have finished so far
+	 */
+	public long getObjectsWritten() {
+		return objectsWritten.get();
+	}
+
+	public int getMaxWritesInFlight() {
+		return maxWritesInFlight;
+	}
+
+	/**
+	 * @param maxWritesInFlight Number of objects each partition may be writing at once. Defaults to 100.
+	 */
+	public void setMaxWritesInFlight(int maxWritesInFlight) {
+		this.maxWritesInFlight = maxWritesInFlight;
+	}
+
+	public double getMaxObjectsPerSecond() {
+		return maxObjectsPerSecond;
+	}
+
+	/**
+	 * @param maxObjectsPerSecond Number of objects per second to write across all partitions, 0 for no limit.
+	 *                            Defaults to 0.
+	 */
+	public void setMaxObjectsPerSecond(double maxObjectsPerSecond) {
+		this.maxObjectsPerSecond = maxObjectsPerSecond;
+	}
+}
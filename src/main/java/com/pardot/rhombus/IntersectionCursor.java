@@ -0,0 +1,130 @@
+package com.pardot.rhombus;
+
+import com.pardot.rhombus.cobject.CObjectOrdering;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Merge-joins several cursors that each return objects in id order, returning only the ids every cursor contains.
+ * Cursors are advanced past ids that some other cursor has already moved beyond, so none of them is read further
+ * than the join needs.
+ */
+class IntersectionCursor implements Iterator<Object>, Closeable {
+
+	private final List<ObjectCursor> cursors;
+	private final CObjectOrdering ordering;
+	private final Object[] heads;
+	private Object nextId = null;
+	private boolean closed = false;
+
+	/**
+	 * @param cursors Cursors to intersect, each already in ordering
+	 * @param ordering Order of ids in the cursors and in the intersection
+	 */
+	IntersectionCursor(List<ObjectCursor> cursors, CObjectOrdering ordering) {
+		this.cursors = cursors;
+		this.ordering = ordering;
+		this.heads = new Object[cursors.size()];
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(nextId != null) {
+			return true;
+		}
+		if(closed) {
+			return false;
+		}
+		// Make sure every cursor has a head to compare
+		for(int i = 0; i < heads.length; i++) {
+			if(heads[i] == null && !advance(i)) {
+				close();
+				return false;
+			}
+		}
+		while(true) {
+			Object target = heads[0];
+			for(int i = 1; i < heads.length; i++) {
+				if(compare(heads[i], target) > 0) {
+					target = heads[i];
+				}
+			}
+			boolean allMatch = true;
+			for(int i = 0; i < heads.length; i++) {
+				while(compare(heads[i], target) < 0) {
+					if(!advance(i)) {
+						close();
+						return false;
+					}
+				}
+				if(compare(heads[i], target) > 0) {
+					allMatch = false;
+				}
+			}
+			if(allMatch) {
+				nextId = target;
+				// Every head has been consumed, so the next call starts by reading a new head from each cursor
+				for(int i = 0; i < heads.length; i++) {
+					heads[i] = null;
+				}
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public Object next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Object id = nextId;
+		nextId = null;
+		return id;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Objects cannot be removed through a cursor");
+	}
+
+	/**
+	 * Close every underlying cursor. Safe to call more than once.
+	 */
+	@Override
+	public void close() {
+		if(!closed) {
+			closed = true;
+			for(ObjectCursor cursor : cursors) {
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * @return Number of statements executed so far across every cursor
+	 */
+	public int getStatementCount() {
+		int statementCount = 0;
+		for(ObjectCursor cursor : cursors) {
+			statementCount += cursor.getStatementCount();
+		}
+		return statementCount;
+	}
+
+	private boolean advance(int i) {
+		ObjectCursor cursor = cursors.get(i);
+		if(!cursor.hasNext()) {
+			return false;
+		}
+		heads[i] = cursor.next().get("id");
+		return true;
+	}
+
+	private int compare(Object a, Object b) {
+		int comparison = MergedObjectCursor.compareIds(a, b);
+		return (ordering == CObjectOrdering.DESCENDING) ? -comparison : comparison;
+	}
+}
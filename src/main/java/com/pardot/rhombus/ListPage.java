@@ -0,0 +1,31 @@
+package com.pardot.rhombus;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of a list query, along with the token to pass back for the page after it
+ */
+public class ListPage {
+
+	private final List<Map<String, Object>> results;
+	private final ContinuationToken continuationToken;
+
+	public ListPage(List<Map<String, Object>> results, @Nullable ContinuationToken continuationToken) {
+		this.results = results;
+		this.continuationToken = continuationToken;
+	}
+
+	public List<Map<String, Object>> getResults() {
+		return results;
+	}
+
+	/**
+	 * @return Token for the next page, or null if this is the last page
+	 */
+	@Nullable
+	public ContinuationToken getContinuationToken() {
+		return continuationToken;
+	}
+}
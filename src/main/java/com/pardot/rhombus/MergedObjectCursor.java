@@ -0,0 +1,134 @@
+package com.pardot.rhombus;
+
+import com.pardot.rhombus.cobject.CObjectOrdering;
+
+import java.io.Closeable;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+/**
+ * Merges several cursors that each return objects in id order into a single cursor in that same order. Only the
+ * next object of each cursor is held at a time, so each cursor only fetches as far as the merge has consumed.
+ */
+class MergedObjectCursor implements Iterator<Map<String, Object>>, Closeable {
+
+	private final List<ObjectCursor> cursors;
+	private final PriorityQueue<Head> heads;
+	private final long limit;
+	private long returned = 0;
+	private boolean closed = false;
+
+	/**
+	 * @param cursors Cursors to merge, each already in ordering
+	 * @param ordering Order of ids in the cursors and in the merge
+	 * @param limit Maximum number of objects to return, 0 for no limit
+	 */
+	MergedObjectCursor(List<ObjectCursor> cursors, final CObjectOrdering ordering, long limit) {
+		this.cursors = cursors;
+		this.limit = limit;
+		this.heads = new PriorityQueue<Head>(Math.max(cursors.size(), 1), new Comparator<Head>() {
+			@Override
+			public int compare(Head a, Head b) {
+				int comparison = compareIds(a.object.get("id"), b.object.get("id"));
+				return (ordering == CObjectOrdering.DESCENDING) ? -comparison : comparison;
+			}
+		});
+		for(ObjectCursor cursor : cursors) {
+			advance(cursor);
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(closed) {
+			return false;
+		}
+		if(heads.isEmpty() || (limit > 0 && returned >= limit)) {
+			close();
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public Map<String, Object> next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Head head = heads.poll();
+		advance(head.cursor);
+		returned++;
+		return head.object;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Objects cannot be removed through a cursor");
+	}
+
+	/**
+	 * Close every underlying cursor. Safe to call more than once.
+	 */
+	@Override
+	public void close() {
+		if(!closed) {
+			closed = true;
+			heads.clear();
+			for(ObjectCursor cursor : cursors) {
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * @return Number of statements executed so far across every cursor
+	 */
+	public int getStatementCount() {
+		int statementCount = 0;
+		for(ObjectCursor cursor : cursors) {
+			statementCount += cursor.getStatementCount();
+		}
+		return statementCount;
+	}
+
+	private void advance(ObjectCursor cursor) {
+		if(cursor.hasNext()) {
+			heads.add(new Head(cursor.next(), cursor));
+		}
+	}
+
+	/**
+	 * Time UUIDs are ordered by their timestamp and then by their remaining bytes unsigned, the same way Cassandra
+	 * orders timeuuid columns
+	 */
+	@SuppressWarnings("unchecked")
+	static int compareIds(Object a, Object b) {
+		if(a instanceof UUID && b instanceof UUID && ((UUID)a).version() == 1 && ((UUID)b).version() == 1) {
+			int comparison = compareLongs(((UUID)a).timestamp(), ((UUID)b).timestamp());
+			if(comparison != 0) {
+				return comparison;
+			}
+			return compareLongs(((UUID)a).getLeastSignificantBits() ^ Long.MIN_VALUE, ((UUID)b).getLeastSignificantBits() ^ Long.MIN_VALUE);
+		}
+		return ((Comparable<Object>)a).compareTo(b);
+	}
+
+	private static int compareLongs(long a, long b) {
+		return (a < b) ? -1 : ((a == b) ? 0 : 1);
+	}
+
+	private static class Head {
+		private final Map<String, Object> object;
+		private final ObjectCursor cursor;
+
+		private Head(Map<String, Object> object, ObjectCursor cursor) {
+			this.object = object;
+			this.cursor = cursor;
+		}
+	}
+}
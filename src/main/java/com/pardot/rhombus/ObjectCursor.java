@@ -0,0 +1,101 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.Row;
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.pardot.rhombus.cobject.statement.CQLExecutorIterator;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazily maps the rows of a list query one at a time, fetching pages from Cassandra only as they are consumed.
+ * Must be closed if iteration stops before the cursor is exhausted so outstanding queries can be cancelled.
+ */
+public class ObjectCursor implements Iterator<Map<String, Object>>, Closeable {
+
+	private final CQLExecutorIterator cqlIterator;
+	private final Function<Row, Map<String, Object>> rowMapper;
+	private final Predicate<Map<String, Object>> filter;
+	private final long limit;
+	private long returned = 0;
+	private Map<String, Object> nextResult = null;
+	private boolean closed = false;
+
+	/**
+	 * @param cqlIterator Iterator over the rows of the query
+	 * @param rowMapper Maps a row on to an object
+	 * @param filter Objects not matching this predicate are skipped
+	 * @param limit Maximum number of objects to return, 0 for no limit
+	 */
+	ObjectCursor(CQLExecutorIterator cqlIterator, Function<Row, Map<String, Object>> rowMapper, Predicate<Map<String, Object>> filter, long limit) {
+		this.cqlIterator = cqlIterator;
+		this.rowMapper = rowMapper;
+		this.filter = filter;
+		this.limit = limit;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(nextResult != null) {
+			return true;
+		}
+		if(closed) {
+			return false;
+		}
+		if(limit > 0 && returned >= limit) {
+			close();
+			return false;
+		}
+		while(cqlIterator.hasNext()) {
+			Row row = cqlIterator.next();
+			if(row == null) {
+				continue;
+			}
+			Map<String, Object> result = rowMapper.apply(row);
+			if(filter.apply(result)) {
+				nextResult = result;
+				return true;
+			}
+		}
+		close();
+		return false;
+	}
+
+	@Override
+	public Map<String, Object> next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Map<String, Object> result = nextResult;
+		nextResult = null;
+		returned++;
+		return result;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Objects cannot be removed through a cursor");
+	}
+
+	/**
+	 * Stop iterating and cancel any queries still in flight. Safe to call more than once.
+	 */
+	@Override
+	public void close() {
+		if(!closed) {
+			closed = true;
+			nextResult = null;
+			cqlIterator.close();
+		}
+	}
+
+	/**
+	 * @return Number of statements executed so far
+	 */
+	public int getStatementCount() {
+		return cqlIterator.statementNumber;
+	}
+}
@@ -6,10 +6,18 @@ import com.datastax.driver.core.exceptions.AlreadyExistsException;
 import com.datastax.driver.core.exceptions.InvalidQueryException;
 import com.datastax.driver.core.utils.UUIDs;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.*;
 import com.pardot.rhombus.cobject.*;
+import com.pardot.rhombus.cobject.async.AsyncQueryExecutor;
+import com.pardot.rhombus.cobject.async.ParallelCountExecutor;
 import com.pardot.rhombus.cobject.async.StatementIteratorConsumer;
 import com.pardot.rhombus.cobject.migrations.CKeyspaceDefinitionMigrator;
 import com.pardot.rhombus.cobject.migrations.CObjectMigrationException;
@@ -28,20 +36,53 @@ import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Pardot, an ExactTarget company
  * User: Michael Frank
  * Date: 4/17/13
  */
-public class ObjectMapper implements CObjectShardList {
+public class ObjectMapper implements AsyncCObjectShardList {
 
 	private static Logger logger = LoggerFactory.getLogger(ObjectMapper.class);
 	private static final int reasonableStatementLimit = 50;
+	private static final long MIN_MERGED_CURSOR_PAGE_SIZE = 10L;
+	private static final int VISIT_RANGES_PER_THREAD = 4;
+	// Power of two, so a key's stripe is a mask of its hash
+	private static final int OBJECT_CACHE_GENERATION_STRIPES = 1024;
+	private static final Executor DEFAULT_ASYNC_CALLBACK_EXECUTOR = Executors.newCachedThreadPool(
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rhombus-async-%d").build());
 	private boolean executeAsync = true;
 	private boolean useCqlBatching = false;
 	private boolean logCql = false;
 	private boolean cacheBoundedQueries = true;
+	private int shardPrefetchWindow = 0;
+	private boolean useNativePaging = false;
+	private long cursorPageSize = 200L;
+	private boolean useCompactRows = false;
+	private int countConcurrency = 0;
+	private int getByKeysConcurrency = 50;
+	private int histogramConcurrency = 20;
+	private int visitObjectsConcurrency = 1;
+	private Executor asyncCallbackExecutor = DEFAULT_ASYNC_CALLBACK_EXECUTOR;
+	private ShardIdListCache shardIdListCache = null;
+	private ShardIndexWriteCache shardIndexWriteCache = null;
+	private QueryResultCache queryResultCache = null;
+	private ObjectCache objectCache = null;
+	private final AtomicLongArray objectCacheGenerations = new AtomicLongArray(OBJECT_CACHE_GENERATION_STRIPES);
+	private final Map<String, RowMapper> rowMappers = Maps.newConcurrentMap();
 	private CQLExecutor cqlExecutor;
 	private Session session;
 	private CKeyspaceDefinition keyspaceDefinition;
@@ -64,9 +105,25 @@ public class ObjectMapper implements CObjectShardList {
 	 */
 	public void setKeyspaceDefinition(CKeyspaceDefinition keyspaceDefinition) {
 		this.keyspaceDefinition = keyspaceDefinition;
+		CObjectCQLGenerator.clearListTemplateCache();
 	}
 
 	public void truncateTables() {
+		if(shardIdListCache != null) {
+			shardIdListCache.invalidateAll();
+		}
+		if(shardIndexWriteCache != null) {
+			shardIndexWriteCache.invalidateAll();
+		}
+		if(queryResultCache != null) {
+			queryResultCache.invalidateAll();
+		}
+		if(objectCache != null) {
+			for(int i = 0; i < objectCacheGenerations.length(); i++) {
+				objectCacheGenerations.incrementAndGet(i);
+			}
+			objectCache.invalidateAll();
+		}
 		// Index table
 		CQLStatement truncateCql = cqlGenerator.makeCQLforShardIndexTableTruncate();
 		logger.debug("Truncating shard index table");
@@ -113,6 +170,7 @@ public class ObjectMapper implements CObjectShardList {
 		}
 		//we are about to rework the the keyspaces, so lets clear the bounded query cache
 		cqlExecutor.clearStatementCache();
+		CObjectCQLGenerator.clearListTemplateCache();
 		//First build the shard index
 		CQLStatement cql = cqlGenerator.makeCQLforShardIndexTableCreate();
 		try {
@@ -192,6 +250,15 @@ public class ObjectMapper implements CObjectShardList {
 	}
 
 	public void executeStatements(List<CQLStatementIterator> statementIterators) throws RhombusException {
+		if(shardIdListCache != null) {
+			recordShardIndexInserts(statementIterators);
+		}
+		List<CQLStatement> shardIndexWrites = null;
+		if(shardIndexWriteCache != null) {
+			shardIndexWrites = Lists.newArrayList();
+			statementIterators = skipRecentShardIndexWrites(statementIterators, shardIndexWrites);
+		}
+		boolean allSucceeded = true;
 		boolean canExecuteAsync = true;
 		boolean allPreparable = true;
 		for(CQLStatementIterator statementIterator : statementIterators) {
@@ -216,7 +283,11 @@ public class ObjectMapper implements CObjectShardList {
 					consumers.add(consumer);
 				}
 				for(StatementIteratorConsumer consumer : consumers) {
+					// Throws if interrupted or timed out, so no shard index write is recorded for statements that may not have run
 					consumer.join();
+					if(consumer.hasExecutionExceptions()) {
+						allSucceeded = false;
+					}
 				}
 			}
 			logger.debug("Async execution took {}us", (System.nanoTime() - start) / 1000);
@@ -234,12 +305,149 @@ public class ObjectMapper implements CObjectShardList {
 			}
 			logger.debug("Sync execution took {} ms", (System.nanoTime() - start) / 1000000);
 		}
+		if(shardIndexWrites != null && allSucceeded) {
+			for(CQLStatement statement : shardIndexWrites) {
+				Object[] values = statement.getValues();
+				shardIndexWriteCache.recordWrite((String)values[0], (String)values[1], (Long)values[2]);
+			}
+		}
+	}
+
+	/**
+	 * Send every statement at once without waiting for them to execute. Unlike executeStatements, no batch timeout
+	 * is applied, since the caller decides how long to wait on the returned future.
+	 * @param statementIterators Statements to execute, which must all be bounded
+	 * @return Future that completes once every statement has executed, or fails with the first failure
+	 */
+	private ListenableFuture<Void> executeStatementsAsync(List<CQLStatementIterator> statementIterators) {
+		for(CQLStatementIterator statementIterator : statementIterators) {
+			if(!statementIterator.isBounded()) {
+				return Futures.immediateFailedFuture(new RhombusException("Only bounded statements can be executed asynchronously"));
+			}
+		}
+		if(shardIdListCache != null) {
+			recordShardIndexInserts(statementIterators);
+		}
+		final List<CQLStatement> shardIndexWrites = (shardIndexWriteCache == null) ? null : Lists.<CQLStatement>newArrayList();
+		if(shardIndexWrites != null) {
+			statementIterators = skipRecentShardIndexWrites(statementIterators, shardIndexWrites);
+		}
+		List<ListenableFuture<ResultSet>> futures = Lists.newArrayList();
+		for(CQLStatementIterator statementIterator : statementIterators) {
+			while(statementIterator.hasNext()) {
+				futures.add(executeAsync(statementIterator.next()));
+			}
+		}
+		return Futures.transform(Futures.allAsList(futures), new Function<List<ResultSet>, Void>() {
+			public Void apply(List<ResultSet> resultSets) {
+				if(shardIndexWrites != null) {
+					for(CQLStatement statement : shardIndexWrites) {
+						Object[] values = statement.getValues();
+						shardIndexWriteCache.recordWrite((String)values[0], (String)values[1], (Long)values[2]);
+					}
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @return Future for the result of the statement, failing the same way executeSync would
+	 */
+	private ListenableFuture<ResultSet> executeAsync(CQLStatement statement) {
+		ListenableFuture<ResultSet> future;
+		try {
+			future = cqlExecutor.executeAsync(statement);
+		} catch(RuntimeException e) {
+			return Futures.immediateFailedFuture(e);
+		}
+		return Futures.withFallback(future, new FutureFallback<ResultSet>() {
+			public ListenableFuture<ResultSet> create(Throwable t) {
+				return Futures.immediateFailedFuture(CQLExecutor.translateFailure(t));
+			}
+		});
+	}
+
+	/**
+	 * @param future Future to wait on
+	 * @param action Run once the future completes, whether or not it succeeded
+	 * @param value Value of the returned future if future succeeds
+	 * @return Future that completes once action has run, with value or with the failure of future
+	 */
+	private <T> ListenableFuture<T> afterCompletion(final ListenableFuture<?> future, final Runnable action, final T value) {
+		final SettableFuture<T> result = SettableFuture.create();
+		future.addListener(new Runnable() {
+			public void run() {
+				try {
+					action.run();
+					Uninterruptibles.getUninterruptibly(future);
+					result.set(value);
+				} catch(ExecutionException e) {
+					result.setException(e.getCause());
+				} catch(CancellationException e) {
+					result.cancel(false);
+				} catch(RuntimeException e) {
+					result.setException(e);
+				}
+			}
+		}, MoreExecutors.sameThreadExecutor());
+		return result;
 	}
 
 	@Override
 	public List<Long> getShardIdList(CDefinition def, SortedMap<String, Object> indexValues, CObjectOrdering ordering, @Nullable UUID start, @Nullable UUID end) throws CQLGenerationException {
+		if(shardIdListCache != null) {
+			return getCachedShardIdList(def, indexValues, ordering, start, end);
+		}
 		CQLStatement shardIdGet = CObjectCQLGenerator.makeCQLforGetShardIndexList(this.keyspaceDefinition.getName(), def, indexValues, ordering, start, end);
-		ResultSet resultSet = cqlExecutor.executeSync(shardIdGet);
+		return executeShardIdListQuery(shardIdGet);
+	}
+
+	private List<Long> getCachedShardIdList(CDefinition def, SortedMap<String, Object> indexValues, CObjectOrdering ordering, @Nullable UUID start, @Nullable UUID end) throws CQLGenerationException {
+		CIndex index = def.getIndex(indexValues, false);
+		String tableName = CObjectCQLGenerator.makeTableName(def, index);
+		String indexValuesString = CObjectCQLGenerator.makeIndexValuesString(indexValues.values());
+		NavigableSet<Long> shardIds = shardIdListCache.get(tableName, indexValuesString);
+		if(shardIds == null) {
+			// Cache every shard for these index values so the entry can serve any range
+			CQLStatement shardIdGet = CObjectCQLGenerator.makeCQLforGetShardIndexList(this.keyspaceDefinition.getName(), def, indexValues, CObjectOrdering.ASCENDING, null, null);
+			NavigableSet<Long> recorded = shardIdListCache.beginLoad(tableName, indexValuesString);
+			List<Long> loaded;
+			try {
+				loaded = executeShardIdListQuery(shardIdGet);
+			} catch(RuntimeException e) {
+				shardIdListCache.cancelLoad(tableName, indexValuesString, recorded);
+				throw e;
+			}
+			shardIdListCache.put(tableName, indexValuesString, loaded, recorded);
+			shardIds = shardIdListCache.get(tableName, indexValuesString);
+			if(shardIds == null) {
+				// The entry was evicted as soon as it was added, so just query for what we need
+				shardIdGet = CObjectCQLGenerator.makeCQLforGetShardIndexList(this.keyspaceDefinition.getName(), def, indexValues, ordering, start, end);
+				return executeShardIdListQuery(shardIdGet);
+			}
+		}
+		return filterShardIds(shardIds, index, ordering, start, end);
+	}
+
+	/**
+	 * @return The cached shards of the index that fall between start and end, in the given order
+	 */
+	private static List<Long> filterShardIds(NavigableSet<Long> shardIds, CIndex index, CObjectOrdering ordering, @Nullable UUID start, @Nullable UUID end) {
+		if(start != null) {
+			shardIds = shardIds.tailSet(index.getShardingStrategy().getShardKey(start), true);
+		}
+		if(end != null) {
+			shardIds = shardIds.headSet(index.getShardingStrategy().getShardKey(end), true);
+		}
+		return Lists.newArrayList(ordering == CObjectOrdering.ASCENDING ? shardIds : shardIds.descendingSet());
+	}
+
+	private List<Long> executeShardIdListQuery(CQLStatement shardIdGet) {
+		return readShardIds(cqlExecutor.executeSync(shardIdGet));
+	}
+
+	private static List<Long> readShardIds(ResultSet resultSet) {
 		List<Long> shardIdList = Lists.newArrayList();
 		for(Row row : resultSet) {
 			shardIdList.add(row.getLong("shardid"));
@@ -247,6 +455,106 @@ public class ObjectMapper implements CObjectShardList {
 		return shardIdList;
 	}
 
+	@Override
+	public ListenableFuture<List<Long>> getShardIdListAsync(final CDefinition def, final SortedMap<String, Object> indexValues, final CObjectOrdering ordering, @Nullable final UUID start, @Nullable final UUID end) throws CQLGenerationException {
+		if(shardIdListCache == null) {
+			return executeShardIdListQueryAsync(CObjectCQLGenerator.makeCQLforGetShardIndexList(this.keyspaceDefinition.getName(), def, indexValues, ordering, start, end));
+		}
+		final CIndex index = def.getIndex(indexValues, false);
+		final String tableName = CObjectCQLGenerator.makeTableName(def, index);
+		final String indexValuesString = CObjectCQLGenerator.makeIndexValuesString(indexValues.values());
+		NavigableSet<Long> shardIds = shardIdListCache.get(tableName, indexValuesString);
+		if(shardIds != null) {
+			return Futures.immediateFuture(filterShardIds(shardIds, index, ordering, start, end));
+		}
+		// As with getCachedShardIdList, every shard for these index values is loaded so the entry can serve any range
+		CQLStatement shardIdGet = CObjectCQLGenerator.makeCQLforGetShardIndexList(this.keyspaceDefinition.getName(), def, indexValues, CObjectOrdering.ASCENDING, null, null);
+		final NavigableSet<Long> recorded = shardIdListCache.beginLoad(tableName, indexValuesString);
+		ListenableFuture<List<Long>> loaded;
+		try {
+			loaded = executeShardIdListQueryAsync(shardIdGet);
+		} catch(RuntimeException e) {
+			shardIdListCache.cancelLoad(tableName, indexValuesString, recorded);
+			throw e;
+		}
+		Futures.addCallback(loaded, new FutureCallback<List<Long>>() {
+			public void onSuccess(List<Long> shardIds) {
+				shardIdListCache.put(tableName, indexValuesString, shardIds, recorded);
+			}
+
+			public void onFailure(Throwable t) {
+				shardIdListCache.cancelLoad(tableName, indexValuesString, recorded);
+			}
+		});
+		return Futures.transform(loaded, new AsyncFunction<List<Long>, List<Long>>() {
+			public ListenableFuture<List<Long>> apply(List<Long> loaded) throws CQLGenerationException {
+				NavigableSet<Long> shardIds = shardIdListCache.get(tableName, indexValuesString);
+				if(shardIds == null) {
+					// The entry was evicted as soon as it was added, so just query for what we need
+					return executeShardIdListQueryAsync(CObjectCQLGenerator.makeCQLforGetShardIndexList(keyspaceDefinition.getName(), def, indexValues, ordering, start, end));
+				}
+				return Futures.immediateFuture(filterShardIds(shardIds, index, ordering, start, end));
+			}
+		}, asyncCallbackExecutor);
+	}
+
+	private ListenableFuture<List<Long>> executeShardIdListQueryAsync(CQLStatement shardIdGet) {
+		return Futures.transform(executeAsync(shardIdGet), new Function<ResultSet, List<Long>>() {
+			public List<Long> apply(ResultSet resultSet) {
+				return readShardIds(resultSet);
+			}
+		}, asyncCallbackExecutor);
+	}
+
+	/**
+	 * Append shards that are about to be recorded in the shard index to any cached shard id lists they belong to
+	 * @param statementIterators Statements about to be executed
+	 */
+	private void recordShardIndexInserts(List<CQLStatementIterator> statementIterators) {
+		for(CQLStatementIterator statementIterator : statementIterators) {
+			if(!(statementIterator instanceof BoundedCQLStatementIterator)) {
+				continue;
+			}
+			for(CQLStatement statement : ((BoundedCQLStatementIterator) statementIterator).getStatements()) {
+				if(cqlGenerator.isShardIndexInsert(statement)) {
+					Object[] values = statement.getValues();
+					shardIdListCache.recordShardInsert((String)values[0], (String)values[1], (Long)values[2]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drop shard index inserts that were written recently enough that writing them again would only rewrite the
+	 * same row
+	 * @param statementIterators Statements about to be executed
+	 * @param shardIndexWrites Populated with the shard index inserts that are still going to be executed
+	 * @return The statements to execute
+	 */
+	private List<CQLStatementIterator> skipRecentShardIndexWrites(List<CQLStatementIterator> statementIterators, List<CQLStatement> shardIndexWrites) {
+		List<CQLStatementIterator> ret = Lists.newArrayListWithCapacity(statementIterators.size());
+		for(CQLStatementIterator statementIterator : statementIterators) {
+			if(!(statementIterator instanceof BoundedCQLStatementIterator)) {
+				ret.add(statementIterator);
+				continue;
+			}
+			List<CQLStatement> statements = ((BoundedCQLStatementIterator) statementIterator).getStatements();
+			List<CQLStatement> kept = Lists.newArrayListWithCapacity(statements.size());
+			for(CQLStatement statement : statements) {
+				if(cqlGenerator.isShardIndexInsert(statement)) {
+					Object[] values = statement.getValues();
+					if(shardIndexWriteCache.isRecentlyWritten((String)values[0], (String)values[1], (Long)values[2])) {
+						continue;
+					}
+					shardIndexWrites.add(statement);
+				}
+				kept.add(statement);
+			}
+			ret.add(kept.size() == statements.size() ? statementIterator : new BoundedCQLStatementIterator(kept));
+		}
+		return ret;
+	}
+
 	/**
 	 * Insert a batch of mixed new object with values
 	 * @param objects Objects to insert
@@ -256,8 +564,58 @@ public class ObjectMapper implements CObjectShardList {
 	public Map<String, List<UUID>> insertBatchMixed(Map<String, List<Map<String, Object>>> objects) throws CQLGenerationException, RhombusException {
 		logger.debug("Insert batch mixed");
 		List<CQLStatementIterator> statementIterators = Lists.newArrayList();
+		Map<String, List<UUID>> insertedIds = makeBatchMixedInserts(objects, statementIterators);
+		try {
+			executeStatements(statementIterators);
+		} finally {
+			invalidateInsertedObjects(insertedIds);
+		}
+		return insertedIds;
+	}
+
+	/**
+	 * Like insertBatchMixed, but returns without waiting for the statements to execute
+	 * @param objects Objects to insert
+	 * @return Future for the map of ids of inserted objects
+	 * @throws CQLGenerationException
+	 */
+	public ListenableFuture<Map<String, List<UUID>>> insertBatchMixedAsync(Map<String, List<Map<String, Object>>> objects) throws CQLGenerationException, RhombusException {
+		logger.debug("Insert batch mixed async");
+		List<CQLStatementIterator> statementIterators = Lists.newArrayList();
+		final Map<String, List<UUID>> insertedIds = makeBatchMixedInserts(objects, statementIterators);
+		return afterCompletion(executeStatementsAsync(statementIterators), new Runnable() {
+			public void run() {
+				invalidateInsertedObjects(insertedIds);
+			}
+		}, insertedIds);
+	}
+
+	/**
+	 * Write an existing object into indexes that were added after it was inserted, such as by a migration. Its
+	 * static row and other indexes are left alone.
+	 * @param objectType Type of the object
+	 * @param object The object as read from its static table, including its id
+	 * @param indexes Indexes of the type to write the object into
+	 * @return Future that completes once the index rows and shard index entries are written
+	 * @throws CQLGenerationException
+	 */
+	public ListenableFuture<Void> backfillIndexesAsync(final String objectType, Map<String, Object> object, Collection<CIndex> indexes) throws CQLGenerationException {
+		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforIndexBackfill(objectType, object, indexes);
+		final Object key = object.get("id");
+		return afterCompletion(executeStatementsAsync(Collections.<CQLStatementIterator>singletonList(statementIterator)), new Runnable() {
+			public void run() {
+				invalidateQueryResultsIfBehindHorizon(objectType, key);
+			}
+		}, (Void)null);
+	}
+
+	/**
+	 * @param objects Objects to insert
+	 * @param statementIterators Populated with the statements that insert the objects
+	 * @return Map of ids of the objects to insert
+	 */
+	private Map<String, List<UUID>> makeBatchMixedInserts(Map<String, List<Map<String, Object>>> objects, List<CQLStatementIterator> statementIterators) throws CQLGenerationException, RhombusException {
 		Map<String, List<UUID>> insertedIds = Maps.newHashMap();
-		Integer ttl = null;
 		for(String objectType : objects.keySet()) {
 			List<UUID> ids = Lists.newArrayList();
 			for(Map<String, Object> values : objects.get(objectType)) {
@@ -276,18 +634,8 @@ public class ObjectMapper implements CObjectShardList {
 				}
 
 				// The TTL value can be set on an object-by-object basis.
-				ttl = null;
-				if(values.containsKey("_ttl")) {
-					try {
-						ttl = (Integer)values.get("_ttl");
-					}
-					catch (ClassCastException cce) {
-						ttl = null;
-					}
-				}
-
 				long timestamp = System.currentTimeMillis();
-				CQLStatementIterator statementIterator = cqlGenerator.makeCQLforInsert(objectType, values, uuid, timestamp, ttl);
+				CQLStatementIterator statementIterator = cqlGenerator.makeCQLforInsert(objectType, values, uuid, timestamp, getTtl(values));
 				statementIterators.add(statementIterator);
 				ids.add(uuid);
 			}
@@ -295,10 +643,31 @@ public class ObjectMapper implements CObjectShardList {
 				insertedIds.put(objectType, ids);
 			}
 		}
-		executeStatements(statementIterators);
 		return insertedIds;
 	}
 
+	private void invalidateInsertedObjects(Map<String, List<UUID>> insertedIds) {
+		for(Map.Entry<String, List<UUID>> entry : insertedIds.entrySet()) {
+			for(UUID id : entry.getValue()) {
+				invalidateCachedObject(entry.getKey(), id);
+				invalidateQueryResultsIfBehindHorizon(entry.getKey(), id);
+			}
+		}
+	}
+
+	@Nullable
+	private static Integer getTtl(Map<String, Object> values) {
+		if(values.containsKey("_ttl")) {
+			try {
+				return (Integer)values.get("_ttl");
+			}
+			catch (ClassCastException cce) {
+				return null;
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Insert a new object with values and key and TTL
 	 * @param objectType Type of object to insert
@@ -314,21 +683,53 @@ public class ObjectMapper implements CObjectShardList {
 		}
 		long timestamp = System.currentTimeMillis();
 
-		Integer ttl = null;
-		if (values.containsKey("_ttl")) {
-			try {
-				ttl = (Integer)values.get("_ttl");
-			}
-			catch (ClassCastException cce) {
-				ttl = null;
-			}
+		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforInsert(objectType, values, key, timestamp, getTtl(values));
+		try {
+			executeStatements(statementIterator);
+		} finally {
+			invalidateCachedObject(objectType, key);
+			invalidateQueryResultsIfBehindHorizon(objectType, key);
 		}
-
-		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforInsert(objectType, values, key, timestamp, ttl);
-		executeStatements(statementIterator);
 		return key;
 	}
 
+	/**
+	 * Like insert, but returns without waiting for the statements to execute
+	 * @param objectType Type of object to insert
+	 * @param values Values to insert
+	 * @param key Time UUID to use as key
+	 * @return Future for the ID of the newly inserted object
+	 * @throws CQLGenerationException
+	 */
+	public ListenableFuture<Object> insertAsync(final String objectType, Map<String, Object> values, @Nullable Object key) throws CQLGenerationException {
+		logger.debug("Insert async {}", objectType);
+		final Object insertKey = (key == null) ? UUIDs.timeBased() : key;
+		long timestamp = System.currentTimeMillis();
+		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforInsert(objectType, values, insertKey, timestamp, getTtl(values));
+		return afterCompletion(executeStatementsAsync(Collections.<CQLStatementIterator>singletonList(statementIterator)), new Runnable() {
+			public void run() {
+				invalidateCachedObject(objectType, insertKey);
+				invalidateQueryResultsIfBehindHorizon(objectType, insertKey);
+			}
+		}, insertKey);
+	}
+
+	/**
+	 * Like insert, but returns without waiting for the statements to execute
+	 * @param objectType Type of object to insert
+	 * @param values Values to insert
+	 * @return Future for the UUID of the inserted object
+	 * @throws CQLGenerationException
+	 */
+	public ListenableFuture<Object> insertAsync(String objectType, Map<String, Object> values) throws CQLGenerationException {
+		Object key = null;
+		if(values.containsKey("id")) {
+			key = values.get("id");
+			values.remove("id");
+		}
+		return insertAsync(objectType, values, key);
+	}
+
 	/**
 	 * Insert a new objectType with values
 	 * @param objectType Type of object to insert
@@ -345,148 +746,930 @@ public class ObjectMapper implements CObjectShardList {
 		else{
 			key = UUIDs.timeBased();
 		}
-		return insert(objectType, values, key);
+		return insert(objectType, values, key);
+	}
+
+	/**
+	 * Used to insert an object with a UUID based on the provided timestamp
+	 * Best used for testing, as time resolution collisions are not accounted for
+	 * @param objectType Type of object to insert
+	 * @param values Values to insert
+	 * @param timestamp Timestamp to use to create the object UUID
+	 * @return the UUID of the newly inserted object
+	 */
+	public Object insert(String objectType, Map<String, Object> values, Long timestamp) throws CQLGenerationException, RhombusException {
+		UUID uuid = UUIDs.startOf(timestamp);
+		return insert(objectType, values, uuid);
+	}
+
+
+	/**
+	 * Delete Object of type with id key
+	 * @param objectType Type of object to delete
+	 * @param key Key of object to delete
+	 */
+	public void delete(String objectType, UUID key) throws RhombusException {
+		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		Map<String, Object> values = readByKey(objectType, key);
+		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforDelete(objectType, key, values, null);
+		try {
+			mapResults(statementIterator, def, 0L);
+		} finally {
+			invalidateCachedObject(objectType, key);
+			invalidateQueryResults(objectType);
+		}
+	}
+
+	public void deleteObsoleteIndex(IndexUpdateRow row, CIndex index, Map<String,Object> indexValues){
+		Statement cql = cqlGenerator.makeCQLforDeleteUUIDFromIndex_WorkaroundForUnpreparableTimestamp(
+			this.keyspaceDefinition.getName(),
+			keyspaceDefinition.getDefinitions().get(row.getObjectName()),
+			index,
+			row.getInstanceId(),
+			index.getIndexKeyAndValues(indexValues),
+			row.getTimeStampOfMostCurrentUpdate());
+		cqlExecutor.executeSync(cql);
+	}
+
+	public void deleteObsoleteUpdateIndexColumn(IndexUpdateRowKey rowKey, UUID id){
+		CQLStatement cql = cqlGenerator.makeCQLforDeleteObsoleteUpdateIndexColumn(rowKey, id);
+		cqlExecutor.executeSync(cql);
+	}
+
+	/**
+	 * Update objectType with key using values
+	 * @param objectType Type of object to update
+	 * @param key Key of object to update
+	 * @param values Values to update
+	 * @param timestamp Timestamp to execute update at
+	 * @return new UUID of the object
+	 * @throws CQLGenerationException
+	 */
+	public UUID update(String objectType, UUID key, Map<String, Object> values, Long timestamp) throws CQLGenerationException, RhombusException {
+		//New Version
+		//(1) Get the old version, from the static table since the cache may be behind another writer
+		Map<String, Object> oldversion = readByKey(objectType, key);
+		if(oldversion == null) {
+			// If we couldn't find the old version, the best we can do is an insert
+			logger.debug("Update requested for non-existent object, inserting instead");
+			insert(objectType, values, key);
+			return key;
+		}
+
+		//(2) Pass it all into the cql generator so it can create the right statements
+		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforUpdate(keyspaceDefinition.getName(), def, key, oldversion, values);
+		try {
+			executeStatements(statementIterator);
+		} finally {
+			invalidateCachedObject(objectType, key);
+			invalidateQueryResults(objectType);
+		}
+		return key;
+	}
+
+
+	public UUID update(String objectType, UUID key, Map<String, Object> values) throws CQLGenerationException, RhombusException {
+		return update(objectType, key, values, null);
+	}
+
+	/**
+	 * Like update, but returns without waiting for the old version to be read or the statements to execute
+	 * @param objectType Type of object to update
+	 * @param key Key of object to update
+	 * @param values Values to update
+	 * @return Future for the UUID of the object
+	 */
+	public ListenableFuture<UUID> updateAsync(final String objectType, final UUID key, final Map<String, Object> values) {
+		final CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		return Futures.transform(readByKeyAsync(objectType, key), new AsyncFunction<Map<String, Object>, UUID>() {
+			public ListenableFuture<UUID> apply(Map<String, Object> oldversion) throws Exception {
+				if(oldversion == null) {
+					// If we couldn't find the old version, the best we can do is an insert
+					logger.debug("Update requested for non-existent object, inserting instead");
+					return Futures.transform(insertAsync(objectType, values, key), Functions.constant(key));
+				}
+				CQLStatementIterator statementIterator = cqlGenerator.makeCQLforUpdate(keyspaceDefinition.getName(), def, key, oldversion, values);
+				return afterCompletion(executeStatementsAsync(Collections.<CQLStatementIterator>singletonList(statementIterator)), new Runnable() {
+					public void run() {
+						invalidateCachedObject(objectType, key);
+						invalidateQueryResults(objectType);
+					}
+				}, key);
+			}
+		}, asyncCallbackExecutor);
+	}
+
+
+	/**
+	 *
+	 * @param objectType Type of object to get
+	 * @param key Key of object to get
+	 * @return Object of type with key or null if it does not exist
+	 */
+	public Map<String, Object> getByKey(String objectType, Object key) throws RhombusException {
+		if(objectCache != null) {
+			Map<String, Object> cached = objectCache.get(objectType, key);
+			if(cached != null) {
+				return cached;
+			}
+		}
+		long generation = getObjectCacheGeneration(objectType, key);
+		Map<String, Object> result = readByKey(objectType, key);
+		if(result != null) {
+			putCachedObject(objectType, key, generation, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Read an object from the static table without going through the object cache
+	 */
+	private Map<String, Object> readByKey(String objectType, Object key) throws RhombusException {
+		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforGet(objectType, key);
+		List<Map<String, Object>> results = mapResults(statementIterator, def, 1L);
+		return (results.size() > 0) ? results.get(0) : null;
+	}
+
+	/**
+	 * Like getByKey, but returns without waiting for the object to be read
+	 * @param objectType Type of object to get
+	 * @param key Key of object to get
+	 * @return Future for the object of type with key, or null if it does not exist
+	 */
+	public ListenableFuture<Map<String, Object>> getByKeyAsync(final String objectType, final Object key) {
+		if(objectCache != null) {
+			Map<String, Object> cached = objectCache.get(objectType, key);
+			if(cached != null) {
+				return Futures.immediateFuture(cached);
+			}
+		}
+		final long generation = getObjectCacheGeneration(objectType, key);
+		return Futures.transform(readByKeyAsync(objectType, key), new Function<Map<String, Object>, Map<String, Object>>() {
+			public Map<String, Object> apply(Map<String, Object> result) {
+				if(result != null) {
+					putCachedObject(objectType, key, generation, result);
+				}
+				return result;
+			}
+		}, asyncCallbackExecutor);
+	}
+
+	/**
+	 * Like readByKey, but returns without waiting for the object to be read
+	 */
+	private ListenableFuture<Map<String, Object>> readByKeyAsync(String objectType, Object key) {
+		final CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		CQLStatement statement = cqlGenerator.makeCQLforGet(objectType, key).next();
+		return Futures.transform(executeAsync(statement), new Function<ResultSet, Map<String, Object>>() {
+			public Map<String, Object> apply(ResultSet resultSet) {
+				Row row = resultSet.one();
+				return (row == null) ? null : mapResult(row, def);
+			}
+		}, asyncCallbackExecutor);
+	}
+
+	/**
+	 * Get several objects by key at once. The lookups are sent asynchronously with at most getByKeysConcurrency in flight.
+	 * @param objectType Type of object to get
+	 * @param keys Keys of objects to get
+	 * @return Map of each key to its object, or to null if it does not exist, in the order the keys were given
+	 */
+	public <K> Map<K, Map<String, Object>> getByKeys(String objectType, Collection<K> keys) {
+		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		Map<K, Map<String, Object>> results = Maps.newLinkedHashMap();
+		Map<K, Long> generations = Maps.newHashMap();
+		Deque<Pair<K, ResultSetFuture>> inFlight = new ArrayDeque<Pair<K, ResultSetFuture>>();
+		try {
+			for(K key : Sets.newLinkedHashSet(keys)) {
+				// Every key goes in up front so the results keep the order the keys were given in
+				Map<String, Object> cached = (objectCache == null) ? null : objectCache.get(objectType, key);
+				results.put(key, cached);
+				if(cached != null) {
+					continue;
+				}
+				if(inFlight.size() >= Math.max(getByKeysConcurrency, 1)) {
+					mapKeyResult(inFlight.poll(), def, generations, results);
+				}
+				generations.put(key, getObjectCacheGeneration(objectType, key));
+				CQLStatement statement = cqlGenerator.makeCQLforGet(objectType, key).next();
+				inFlight.add(Pair.create(key, cqlExecutor.executeAsync(statement)));
+			}
+			while(!inFlight.isEmpty()) {
+				mapKeyResult(inFlight.poll(), def, generations, results);
+			}
+		} finally {
+			for(Pair<K, ResultSetFuture> lookup : inFlight) {
+				lookup.right.cancel(true);
+			}
+		}
+		return results;
+	}
+
+	private <K> void mapKeyResult(Pair<K, ResultSetFuture> lookup, CDefinition definition, Map<K, Long> generations, Map<K, Map<String, Object>> results) {
+		ResultSet resultSet = cqlExecutor.awaitResult(lookup.right);
+		Row row = resultSet.one();
+		Map<String, Object> object = (row == null) ? null : mapResult(row, definition);
+		if(object != null) {
+			putCachedObject(definition.getName(), lookup.left, generations.get(lookup.left), object);
+		}
+		results.put(lookup.left, object);
+	}
+
+	/**
+	 *
+	 * @param objectType Type of object to get
+	 * @return Class of the id field for this object
+	 */
+	public Class getTypeOfKey(String objectType){
+		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		return def.getPrimaryKeyClass();
+	}
+
+	/**
+	 * @param objectType Type of object to query
+	 * @param criteria Criteria to query by
+	 * @return List of objects that match the specified type and criteria
+	 * @throws CQLGenerationException
+	 */
+	public List<Map<String, Object>> list(String objectType, Criteria criteria) throws CQLGenerationException, RhombusException {
+		if(queryResultCache != null && isBehindConsistencyHorizon(criteria)) {
+			long generation = queryResultCache.getGeneration(objectType);
+			List<Map<String, Object>> results = queryResultCache.getList(objectType, criteria);
+			if(results == null) {
+				results = executeList(objectType, criteria);
+				queryResultCache.putList(objectType, generation, criteria, results);
+			}
+			return results;
+		}
+		return executeList(objectType, criteria);
+	}
+
+	/**
+	 * Like list, but returns without waiting for the query to execute. The shard index is read and shards are read
+	 * one after another from the callbacks of the statements before them, so no thread waits on the query.
+	 * @param objectType Type of object to query
+	 * @param criteria Criteria to query by. Multi-value index keys and index intersection are not supported.
+	 * @return Future for the list of objects that match the specified type and criteria
+	 * @throws CQLGenerationException If the criteria have multi-value index keys or need an index intersection
+	 */
+	public ListenableFuture<List<Map<String, Object>>> listAsync(final String objectType, final Criteria criteria) throws CQLGenerationException {
+		final CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		checkSingleIndexQuery(def, criteria, "asynchronous queries");
+		final boolean cacheable = queryResultCache != null && isBehindConsistencyHorizon(criteria);
+		final long generation = cacheable ? queryResultCache.getGeneration(objectType) : 0L;
+		if(cacheable) {
+			List<Map<String, Object>> results = queryResultCache.getList(objectType, criteria);
+			if(results != null) {
+				return Futures.immediateFuture(results);
+			}
+		}
+		final long limit = (criteria.getLimit() == null || criteria.getLimit() <= 0) ? CObjectCQLGenerator.MAX_CQL_STATEMENT_LIMIT : criteria.getLimit();
+		ListenableFuture<CQLStatementIterator> statements = cqlGenerator.makeCQLforListAsync(objectType, criteria, false, this, asyncCallbackExecutor);
+		ListenableFuture<List<Map<String, Object>>> results = Futures.transform(statements, new AsyncFunction<CQLStatementIterator, List<Map<String, Object>>>() {
+			public ListenableFuture<List<Map<String, Object>>> apply(CQLStatementIterator statementIterator) {
+				AsyncQueryExecutor queryExecutor = new AsyncQueryExecutor(cqlExecutor, statementIterator, asyncCallbackExecutor, reasonableStatementLimit);
+				return queryExecutor.list(makeRowMapper(def), makeClientFilter(statementIterator.getClientFilters()), limit);
+			}
+		});
+		if(!cacheable) {
+			return results;
+		}
+		return Futures.transform(results, new Function<List<Map<String, Object>>, List<Map<String, Object>>>() {
+			public List<Map<String, Object>> apply(List<Map<String, Object>> results) {
+				queryResultCache.putList(objectType, generation, criteria, results);
+				return results;
+			}
+		});
+	}
+
+	/**
+	 * @param queryKind Kind of query that can only read a single index, for the error message
+	 * @throws CQLGenerationException If the criteria have multi-value index keys or need an index intersection
+	 */
+	private void checkSingleIndexQuery(CDefinition def, Criteria criteria, String queryKind) throws CQLGenerationException {
+		if(hasMultiValueIndexKeys(criteria) || getIntersectingIndexes(def, criteria) != null) {
+			throw new CQLGenerationException("Multi-value index keys and index intersection are not supported by " + queryKind);
+		}
+	}
+
+	/**
+	 * Like list, but the page comes with a token that resumes the query exactly where the page stopped. The next page
+	 * continues from the shard and object the token names without looking up the shards again, so reading deep
+	 * pages costs no more than reading the first. Pages are not served from the query result cache.
+	 * @param objectType Type of object to query
+	 * @param criteria Criteria to query by, which must be the same for every page. The limit is the page size.
+	 * @param continuationToken Token from the previous page, or null for the first page
+	 * @return Page of objects that match the specified type and criteria
+	 * @throws CQLGenerationException If the criteria have multi-value index keys or need an index intersection
+	 * @throws RhombusException If the token is from a query of another object type or with different criteria
+	 */
+	public ListPage listPage(String objectType, Criteria criteria, @Nullable ContinuationToken continuationToken) throws CQLGenerationException, RhombusException {
+		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		checkSingleIndexQuery(def, criteria, "paged queries");
+		if(continuationToken != null && !continuationToken.getObjectType().equals(objectType)) {
+			throw new RhombusException("Continuation token is for " + continuationToken.getObjectType() + " rather than " + objectType);
+		}
+		if(continuationToken != null && !continuationToken.matches(criteria)) {
+			throw new RhombusException("Continuation token is for a query with different criteria");
+		}
+		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforList(objectType, criteria, false,
+				(continuationToken == null) ? null : continuationToken.getShardIds());
+		long limit = (criteria.getLimit() == null || criteria.getLimit() <= 0) ? CObjectCQLGenerator.MAX_CQL_STATEMENT_LIMIT : criteria.getLimit();
+		CQLExecutorIterator cqlIterator = makeListExecutorIterator(statementIterator, limit);
+		if(continuationToken != null) {
+			cqlIterator.setResumeUuid(continuationToken.getNextId());
+		}
+		try {
+			List<Map<String, Object>> results = mapResults(cqlIterator, def, limit);
+			// The next page starts from the next row, inclusive, the same way pages within a shard are read
+			UUID nextId = cqlIterator.peekNextId();
+			ContinuationToken nextToken = null;
+			if(nextId != null) {
+				nextToken = new ContinuationToken(objectType, criteria, cqlIterator.getRemainingShardIds(), nextId);
+			}
+			return new ListPage(results, nextToken);
+		} finally {
+			cqlIterator.close();
+		}
+	}
+
+	private List<Map<String, Object>> executeList(String objectType, Criteria criteria) throws CQLGenerationException, RhombusException {
+		if(hasMultiValueIndexKeys(criteria)) {
+			return listMultiValue(objectType, criteria);
+		}
+		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		List<CIndex> intersectingIndexes = getIntersectingIndexes(def, criteria);
+		if(intersectingIndexes != null) {
+			return listIntersected(objectType, criteria, intersectingIndexes);
+		}
+		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforList(objectType, criteria, false);
+		return mapResults(statementIterator, def, criteria.getLimit());
+	}
+
+	/**
+	 * @return The indexes to intersect to answer the criteria, or null if it should be answered from a single index
+	 */
+	@Nullable
+	private List<CIndex> getIntersectingIndexes(CDefinition def, Criteria criteria) {
+		if(!Boolean.TRUE.equals(criteria.getIntersectIndexes()) || criteria.getIndexKeys() == null) {
+			return null;
+		}
+		if(def.getIndex(criteria.getIndexKeys(), false) != null) {
+			// An index covers every key exactly, so there is nothing to intersect
+			return null;
+		}
+		return def.getIntersectingIndexes(criteria.getIndexKeys());
+	}
+
+	/**
+	 * Stream the ids matching each index in id order, merge-join them, and only get the objects whose ids are in
+	 * every index
+	 */
+	private List<Map<String, Object>> listIntersected(String objectType, Criteria criteria, List<CIndex> indexes) throws CQLGenerationException {
+		long limit = (criteria.getLimit() == null) ? 0L : criteria.getLimit();
+		Map<String, Object> clientFilters = getIntersectionClientFilters(criteria, indexes);
+		List<Map<String, Object>> results = Lists.newArrayList();
+		IntersectionCursor ids = openIntersection(objectType, criteria, indexes);
+		try {
+			List<Object> batch = Lists.newArrayList();
+			while((limit <= 0 || results.size() < limit) && ids.hasNext()) {
+				batch.add(ids.next());
+				long batchSize = Math.max(getByKeysConcurrency, 1);
+				if(limit > 0 && clientFilters.isEmpty()) {
+					// Every id will make it into the results, so do not get more than the limit needs
+					batchSize = Math.min(batchSize, limit - results.size());
+				}
+				if(batch.size() >= batchSize || !ids.hasNext()) {
+					for(Map<String, Object> object : getByKeys(objectType, batch).values()) {
+						if(object != null && resultMatchesFilters(object, clientFilters) && (limit <= 0 || results.size() < limit)) {
+							results.add(applyProjection(object, criteria.getProjection()));
+						}
+					}
+					batch.clear();
+				}
+			}
+			logger.debug("Intersected {} indexes with {} statements", indexes.size(), ids.getStatementCount());
+		} finally {
+			ids.close();
+		}
+		return results;
+	}
+
+	private long countIntersected(String objectType, Criteria criteria, List<CIndex> indexes) throws CQLGenerationException {
+		if(!getIntersectionClientFilters(criteria, indexes).isEmpty()) {
+			// The objects are needed to apply the filters
+			return listIntersected(objectType, criteria, indexes).size();
+		}
+		long limit = (criteria.getLimit() == null) ? 0L : criteria.getLimit();
+		long count = 0;
+		IntersectionCursor ids = openIntersection(objectType, criteria, indexes);
+		try {
+			while((limit <= 0 || count < limit) && ids.hasNext()) {
+				ids.next();
+				count++;
+			}
+		} finally {
+			ids.close();
+		}
+		return count;
+	}
+
+	private IntersectionCursor openIntersection(String objectType, Criteria criteria, List<CIndex> indexes) throws CQLGenerationException {
+		List<ObjectCursor> cursors = Lists.newArrayListWithCapacity(indexes.size());
+		try {
+			for(CIndex index : indexes) {
+				SortedMap<String, Object> indexKeys = Maps.newTreeMap();
+				for(String key : index.getCompositeKeyList()) {
+					indexKeys.put(key, criteria.getIndexKeys().get(key));
+				}
+				Criteria single = copyCriteria(criteria);
+				single.setIndexKeys(indexKeys);
+				single.setProjection(Sets.newHashSet("id"));
+				single.setLimit(0L);
+				single.setAllowFiltering(false);
+				single.setIntersectIndexes(false);
+				cursors.add(iterate(objectType, single, cursorPageSize));
+			}
+		} catch(CQLGenerationException e) {
+			for(ObjectCursor cursor : cursors) {
+				cursor.close();
+			}
+			throw e;
+		}
+		CObjectOrdering ordering = (criteria.getOrdering() == null) ? CObjectOrdering.DESCENDING : criteria.getOrdering();
+		return new IntersectionCursor(cursors, ordering);
+	}
+
+	/**
+	 * @return The criteria index keys that none of the intersected indexes cover, which have to be checked on the objects
+	 */
+	private Map<String, Object> getIntersectionClientFilters(Criteria criteria, List<CIndex> indexes) {
+		Map<String, Object> clientFilters = Maps.newHashMap(criteria.getIndexKeys());
+		for(CIndex index : indexes) {
+			clientFilters.keySet().removeAll(index.getCompositeKeyList());
+		}
+		return clientFilters;
+	}
+
+	private Map<String, Object> applyProjection(Map<String, Object> object, @Nullable Set<String> projection) {
+		if(projection == null || projection.isEmpty()) {
+			return object;
+		}
+		Map<String, Object> projected = Maps.newHashMap();
+		projected.put("id", object.get("id"));
+		for(String field : projection) {
+			if(object.containsKey(field)) {
+				projected.put(field, object.get(field));
+			}
+		}
+		return projected;
+	}
+
+	/**
+	 * Open a cursor for every combination of the multi-value index keys and merge them in id order, so each cursor
+	 * only pages through as many objects as make it into the results
+	 */
+	private List<Map<String, Object>> listMultiValue(String objectType, Criteria criteria) throws CQLGenerationException {
+		List<Criteria> expanded = expandMultiValueIndexKeys(criteria);
+		long limit = (criteria.getLimit() == null) ? 0L : criteria.getLimit();
+		// Most of the limit usually comes from a few of the cursors, so start them all with a share of it
+		long pageSize = cursorPageSize;
+		if(limit > 0) {
+			pageSize = Math.min(Math.min(limit, cursorPageSize), Math.max(MIN_MERGED_CURSOR_PAGE_SIZE, limit / expanded.size() + 1));
+		}
+		List<ObjectCursor> cursors = Lists.newArrayListWithCapacity(expanded.size());
+		MergedObjectCursor merged = null;
+		try {
+			for(Criteria single : expanded) {
+				cursors.add(iterate(objectType, single, pageSize));
+			}
+			CObjectOrdering ordering = (criteria.getOrdering() == null) ? CObjectOrdering.DESCENDING : criteria.getOrdering();
+			merged = new MergedObjectCursor(cursors, ordering, limit);
+			List<Map<String, Object>> results = Lists.newArrayList();
+			while(merged.hasNext()) {
+				results.add(merged.next());
+			}
+			logger.debug("Merged {} index value combinations with {} statements", expanded.size(), merged.getStatementCount());
+			return results;
+		} finally {
+			if(merged != null) {
+				merged.close();
+			} else {
+				for(ObjectCursor cursor : cursors) {
+					cursor.close();
+				}
+			}
+		}
+	}
+
+	private boolean hasMultiValueIndexKeys(Criteria criteria) {
+		return criteria.getMultiValueIndexKeys() != null && !criteria.getMultiValueIndexKeys().isEmpty();
+	}
+
+	/**
+	 * @return A copy of the criteria for every combination of its multi-value index keys, with that combination added
+	 * to its index keys
+	 */
+	private List<Criteria> expandMultiValueIndexKeys(Criteria criteria) throws CQLGenerationException {
+		List<String> keys = Lists.newArrayList(criteria.getMultiValueIndexKeys().keySet());
+		List<Set<Object>> valueSets = Lists.newArrayListWithCapacity(keys.size());
+		for(String key : keys) {
+			List<Object> values = criteria.getMultiValueIndexKeys().get(key);
+			if(values == null || values.isEmpty()) {
+				throw new CQLGenerationException(String.format("No values given for multi-value index key %s", key));
+			}
+			valueSets.add(Sets.newLinkedHashSet(values));
+		}
+		List<Criteria> expanded = Lists.newArrayList();
+		for(List<Object> combination : Sets.cartesianProduct(valueSets)) {
+			SortedMap<String, Object> indexKeys = Maps.newTreeMap();
+			if(criteria.getIndexKeys() != null) {
+				indexKeys.putAll(criteria.getIndexKeys());
+			}
+			for(int i = 0; i < keys.size(); i++) {
+				indexKeys.put(keys.get(i), combination.get(i));
+			}
+			Criteria single = copyCriteria(criteria);
+			single.setIndexKeys(indexKeys);
+			single.setMultiValueIndexKeys(null);
+			expanded.add(single);
+		}
+		return expanded;
+	}
+
+	/**
+	 * Like list, but objects are mapped one at a time as the returned cursor is consumed and pages are fetched on demand,
+	 * so memory use does not grow with the limit. The statement limit applied to list does not apply here since the
+	 * caller decides how far to read.
+	 * @param objectType Type of object to query
+	 * @param criteria Criteria to query by. A limit of 0 returns every matching object.
+	 * @return Cursor over the objects that match the specified type and criteria. Should be closed if not read to the end.
+	 * @throws CQLGenerationException
+	 */
+	public ObjectCursor iterate(String objectType, Criteria criteria) throws CQLGenerationException {
+		if(hasMultiValueIndexKeys(criteria)) {
+			throw new CQLGenerationException("Multi-value index keys are only supported by list and count");
+		}
+		long limit = (criteria.getLimit() == null) ? 0L : criteria.getLimit();
+		return iterate(objectType, criteria, limit > 0 ? Math.min(limit, cursorPageSize) : cursorPageSize);
+	}
+
+	private ObjectCursor iterate(String objectType, Criteria criteria, long pageSize) throws CQLGenerationException {
+		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		long limit = (criteria.getLimit() == null) ? 0L : criteria.getLimit();
+		Criteria pagedCriteria = criteria;
+		if(limit <= 0) {
+			// Statements are only generated with a LIMIT clause when the criteria has one, and we need it to page
+			pagedCriteria = copyCriteria(criteria);
+			pagedCriteria.setLimit(cursorPageSize);
+		}
+		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforList(objectType, pagedCriteria, false);
+		Map<String, Object> clientFilters = statementIterator.getClientFilters();
+		CQLExecutorIterator cqlIterator = new CQLExecutorIterator(cqlExecutor, statementIterator);
+		cqlIterator.setPageSize(pageSize);
+		cqlIterator.setShardPrefetchWindow(shardPrefetchWindow);
+		cqlIterator.setNativePaging(useNativePaging);
+
+		return new ObjectCursor(cqlIterator, makeRowMapper(def), makeClientFilter(clientFilters), limit);
+	}
+
+	/**
+	 * @param def The definition rows will be mapped on to
+	 * @return Function mapping rows on to the definition, which looks up the row mapper once per result set rather
+	 * than once per row
+	 */
+	private Function<Row, Map<String, Object>> makeRowMapper(final CDefinition def) {
+		return new Function<Row, Map<String, Object>>() {
+			private volatile Pair<ColumnDefinitions, RowMapper> last = null;
+
+			public Map<String, Object> apply(Row row) {
+				ColumnDefinitions columns = row.getColumnDefinitions();
+				Pair<ColumnDefinitions, RowMapper> resolved = last;
+				// Rows of the same result set share their column definitions
+				if(resolved == null || resolved.left != columns) {
+					resolved = Pair.create(columns, getRowMapper(def, columns));
+					last = resolved;
+				}
+				return useCompactRows ? resolved.right.mapCompact(row) : resolved.right.map(row);
+			}
+		};
+	}
+
+	private Predicate<Map<String, Object>> makeClientFilter(@Nullable final Map<String, Object> clientFilters) {
+		if(clientFilters == null) {
+			return Predicates.alwaysTrue();
+		}
+		return new Predicate<Map<String, Object>>() {
+			public boolean apply(Map<String, Object> result) {
+				return resultMatchesFilters(result, clientFilters);
+			}
+		};
+	}
+
+	private Criteria copyCriteria(Criteria criteria) {
+		Criteria copy = new Criteria();
+		copy.setIndexKeys(criteria.getIndexKeys());
+		copy.setOrdering(criteria.getOrdering());
+		copy.setStartUuid(criteria.getStartUuid());
+		copy.setEndUuid(criteria.getEndUuid());
+		copy.setLimit(criteria.getLimit());
+		copy.setInclusive(criteria.getInclusive());
+		copy.setAllowFiltering(criteria.getAllowFiltering());
+		copy.setProjection(criteria.getProjection());
+		copy.setMultiValueIndexKeys(criteria.getMultiValueIndexKeys());
+		copy.setIntersectIndexes(criteria.getIntersectIndexes());
+		return copy;
+	}
+
+	/**
+	 * @param objectType Type of object to count
+	 * @param criteria Criteria to count by
+	 * @return number of items matching the criteria
+	 * @throws CQLGenerationException
+	 */
+	public long count(String objectType, Criteria criteria) throws CQLGenerationException, RhombusException {
+		if(queryResultCache != null && isBehindConsistencyHorizon(criteria)) {
+			long generation = queryResultCache.getGeneration(objectType);
+			Long count = queryResultCache.getCount(objectType, criteria);
+			if(count == null) {
+				count = executeCount(objectType, criteria);
+				queryResultCache.putCount(objectType, generation, criteria, count);
+			}
+			return count;
+		}
+		return executeCount(objectType, criteria);
+	}
+
+	private long executeCount(String objectType, Criteria criteria) throws CQLGenerationException, RhombusException {
+		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		if(hasMultiValueIndexKeys(criteria)) {
+			// Each combination matches different objects, so their counts add up
+			long limit = (criteria.getLimit() == null) ? 0L : criteria.getLimit();
+			long count = 0;
+			for(Criteria single : expandMultiValueIndexKeys(criteria)) {
+				if(limit > 0) {
+					single.setLimit(limit - count);
+				}
+				CQLStatementIterator statementIterator = cqlGenerator.makeCQLforList(objectType, single, true);
+				count += mapCount(statementIterator, def, single.getLimit());
+				if(limit > 0 && count >= limit) {
+					return limit;
+				}
+			}
+			return count;
+		}
+		List<CIndex> intersectingIndexes = getIntersectingIndexes(def, criteria);
+		if(intersectingIndexes != null) {
+			return countIntersected(objectType, criteria, intersectingIndexes);
+		}
+		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforList(objectType, criteria, true);
+		return mapCount(statementIterator, def, criteria.getLimit());
+	}
+
+	/**
+	 * Like count, but returns without waiting for the query to execute. The shard index is read and shard counts are
+	 * sent from the callbacks of the statements before them, with up to countConcurrency in flight, so no thread waits on the query.
+	 * @param objectType Type of object to count
+	 * @param criteria Criteria to count by. Multi-value index keys and index intersection are not supported.
+	 * @return Future for the number of items matching the criteria
+	 * @throws CQLGenerationException If the criteria have multi-value index keys or need an index intersection
+	 */
+	public ListenableFuture<Long> countAsync(final String objectType, final Criteria criteria) throws CQLGenerationException {
+		final CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		checkSingleIndexQuery(def, criteria, "asynchronous queries");
+		final boolean cacheable = queryResultCache != null && isBehindConsistencyHorizon(criteria);
+		final long generation = cacheable ? queryResultCache.getGeneration(objectType) : 0L;
+		if(cacheable) {
+			Long count = queryResultCache.getCount(objectType, criteria);
+			if(count != null) {
+				return Futures.immediateFuture(count);
+			}
+		}
+		ListenableFuture<CQLStatementIterator> statements = cqlGenerator.makeCQLforListAsync(objectType, criteria, true, this, asyncCallbackExecutor);
+		ListenableFuture<Long> count = Futures.transform(statements, new AsyncFunction<CQLStatementIterator, Long>() {
+			public ListenableFuture<Long> apply(CQLStatementIterator statementIterator) {
+				long limit = (criteria.getLimit() == null) ? 0L : criteria.getLimit();
+				if(statementIterator.getClientFilters() == null) {
+					// As with count, shards counted concurrently are not subject to the statement limit
+					int statementLimit = (countConcurrency > 0) ? 0 : reasonableStatementLimit;
+					AsyncQueryExecutor queryExecutor = new AsyncQueryExecutor(cqlExecutor, statementIterator, asyncCallbackExecutor, statementLimit);
+					return queryExecutor.count(limit, countConcurrency);
+				}
+				if(limit <= 0) {
+					limit = CObjectCQLGenerator.MAX_CQL_STATEMENT_LIMIT;
+				}
+				AsyncQueryExecutor queryExecutor = new AsyncQueryExecutor(cqlExecutor, statementIterator, asyncCallbackExecutor, reasonableStatementLimit);
+				ListenableFuture<List<Map<String, Object>>> matching = queryExecutor.list(makeRowMapper(def), makeClientFilter(statementIterator.getClientFilters()), limit);
+				return Futures.transform(matching, new Function<List<Map<String, Object>>, Long>() {
+					public Long apply(List<Map<String, Object>> results) {
+						return (long)results.size();
+					}
+				});
+			}
+		});
+		if(!cacheable) {
+			return count;
+		}
+		return Futures.transform(count, new Function<Long, Long>() {
+			public Long apply(Long count) {
+				queryResultCache.putCount(objectType, generation, criteria, count);
+				return count;
+			}
+		});
+	}
+
+	/**
+	 * Count the objects matching the criteria in consecutive time buckets. The count statements for every shard of
+	 * every bucket are planned up front and executed concurrently in a single pass.
+	 * @param objectType Type of object to count
+	 * @param criteria Criteria to count by. Requires a start uuid, the end defaults to now, and limit is ignored.
+	 * @param bucketSize Width of each bucket in milliseconds, starting from the start of the criteria
+	 * @return Count of matching objects in each bucket, in time order
+	 * @throws CQLGenerationException If the histogram would need more than CObjectCQLGenerator.MAX_HISTOGRAM_BUCKETS
+	 * buckets or CObjectCQLGenerator.MAX_HISTOGRAM_STATEMENTS count statements
+	 */
+	public long[] histogram(String objectType, Criteria criteria, long bucketSize) throws CQLGenerationException, RhombusException {
+		if(hasMultiValueIndexKeys(criteria)) {
+			throw new CQLGenerationException("Histograms cannot be computed over multi-value index keys");
+		}
+		List<List<CQLStatement>> buckets = cqlGenerator.makeCQLforHistogram(objectType, criteria, bucketSize);
+		List<CQLStatement> statements = Lists.newArrayList();
+		for(List<CQLStatement> bucket : buckets) {
+			statements.addAll(bucket);
+		}
+		ParallelCountExecutor countExecutor = new ParallelCountExecutor(cqlExecutor, new BoundedCQLStatementIterator(statements), histogramConcurrency);
+		long[] statementCounts = countExecutor.countEach();
+
+		long[] counts = new long[buckets.size()];
+		int statementIndex = 0;
+		for(int bucketIndex = 0; bucketIndex < buckets.size(); bucketIndex++) {
+			for(int i = 0; i < buckets.get(bucketIndex).size(); i++) {
+				counts[bucketIndex] += statementCounts[statementIndex++];
+			}
+		}
+		return counts;
 	}
 
 	/**
-	 * Used to insert an object with a UUID based on the provided timestamp
-	 * Best used for testing, as time resolution collisions are not accounted for
-	 * @param objectType Type of object to insert
-	 * @param values Values to insert
-	 * @param timestamp Timestamp to use to create the object UUID
-	 * @return the UUID of the newly inserted object
+	 * @param criteria Criteria of a list or count query
+	 * @return true if the query can only return objects from behind the consistency horizon
 	 */
-	public Object insert(String objectType, Map<String, Object> values, Long timestamp) throws CQLGenerationException, RhombusException {
-		UUID uuid = UUIDs.startOf(timestamp);
-		return insert(objectType, values, uuid);
+	private boolean isBehindConsistencyHorizon(Criteria criteria) {
+		UUID end = criteria.getEndUuid();
+		return end != null && end.version() == 1
+				&& UUIDs.unixTimestamp(end) < UUIDs.unixTimestamp(getTimeUUIDAtEndOfConsistencyHorizion());
 	}
 
+	private void invalidateCachedObject(String objectType, Object key) {
+		if(objectCache != null) {
+			objectCacheGenerations.incrementAndGet(getObjectCacheStripe(objectType, key));
+			objectCache.invalidate(objectType, key);
+		}
+	}
 
 	/**
-	 * Delete Object of type with id key
-	 * @param objectType Type of object to delete
-	 * @param key Key of object to delete
+	 * @return Generation of the object's stripe, to be passed to putCachedObject once the object has been read
 	 */
-	public void delete(String objectType, UUID key) throws RhombusException {
-		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
-		Map<String, Object> values = getByKey(objectType, key);
-		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforDelete(objectType, key, values, null);
-		mapResults(statementIterator, def, 0L);
-	}
-
-	public void deleteObsoleteIndex(IndexUpdateRow row, CIndex index, Map<String,Object> indexValues){
-		Statement cql = cqlGenerator.makeCQLforDeleteUUIDFromIndex_WorkaroundForUnpreparableTimestamp(
-			this.keyspaceDefinition.getName(),
-			keyspaceDefinition.getDefinitions().get(row.getObjectName()),
-			index,
-			row.getInstanceId(),
-			index.getIndexKeyAndValues(indexValues),
-			row.getTimeStampOfMostCurrentUpdate());
-		cqlExecutor.executeSync(cql);
-	}
-
-	public void deleteObsoleteUpdateIndexColumn(IndexUpdateRowKey rowKey, UUID id){
-		CQLStatement cql = cqlGenerator.makeCQLforDeleteObsoleteUpdateIndexColumn(rowKey, id);
-		cqlExecutor.executeSync(cql);
+	private long getObjectCacheGeneration(String objectType, Object key) {
+		return objectCacheGenerations.get(getObjectCacheStripe(objectType, key));
 	}
 
 	/**
-	 * Update objectType with key using values
-	 * @param objectType Type of object to update
-	 * @param key Key of object to update
-	 * @param values Values to update
-	 * @param timestamp Timestamp to execute update at
-	 * @return new UUID of the object
-	 * @throws CQLGenerationException
+	 * Cache an object read from the static table, unless it was invalidated since the read was started. The generation
+	 * is checked again after the put, so an invalidation racing with the put cannot leave the stale object cached.
 	 */
-	public UUID update(String objectType, UUID key, Map<String, Object> values, Long timestamp) throws CQLGenerationException, RhombusException {
-		//New Version
-		//(1) Get the old version
-		Map<String, Object> oldversion = getByKey(objectType, key);
-		if(oldversion == null) {
-			// If we couldn't find the old version, the best we can do is an insert
-			logger.debug("Update requested for non-existent object, inserting instead");
-			insert(objectType, values, key);
-			return key;
+	private void putCachedObject(String objectType, Object key, long generation, Map<String, Object> object) {
+		if(objectCache == null || getObjectCacheGeneration(objectType, key) != generation) {
+			return;
+		}
+		objectCache.put(objectType, key, object);
+		if(getObjectCacheGeneration(objectType, key) != generation) {
+			objectCache.invalidate(objectType, key);
 		}
-
-		//(2) Pass it all into the cql generator so it can create the right statements
-		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
-		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforUpdate(keyspaceDefinition.getName(), def, key, oldversion, values);
-		executeStatements(statementIterator);
-		return key;
 	}
 
-
-	public UUID update(String objectType, UUID key, Map<String, Object> values) throws CQLGenerationException, RhombusException {
-		return update(objectType, key, values, null);
+	private static int getObjectCacheStripe(String objectType, Object key) {
+		return (31 * objectType.hashCode() + key.hashCode()) & (OBJECT_CACHE_GENERATION_STRIPES - 1);
 	}
 
-
 	/**
-	 *
-	 * @param objectType Type of object to get
-	 * @param key Key of object to get
-	 * @return Object of type with key or null if it does not exist
+	 * Stop serving cached query results for the object type. Called once a write has executed, so a query that
+	 * raced with the write cannot cache what it read under the new generation.
 	 */
-	public Map<String, Object> getByKey(String objectType, Object key) throws RhombusException {
-		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
-		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforGet(objectType, key);
-		List<Map<String, Object>> results = mapResults(statementIterator, def, 1L);
-		if(results.size() > 0) {
-			return results.get(0);
-		} else {
-			return null;
+	private void invalidateQueryResults(String objectType) {
+		if(queryResultCache != null) {
+			queryResultCache.invalidate(objectType);
 		}
 	}
 
 	/**
-	 *
-	 * @param objectType Type of object to get
-	 * @return Class of the id field for this object
+	 * An object inserted with a time UUID from behind the consistency horizon can change the results of queries we
+	 * have cached for its type, so stop serving them
 	 */
-	public Class getTypeOfKey(String objectType){
-		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
-		return def.getPrimaryKeyClass();
+	private void invalidateQueryResultsIfBehindHorizon(String objectType, Object key) {
+		if(queryResultCache == null || !(key instanceof UUID)) {
+			return;
+		}
+		UUID uuid = (UUID)key;
+		if(uuid.version() == 1 && UUIDs.unixTimestamp(uuid) < UUIDs.unixTimestamp(getTimeUUIDAtEndOfConsistencyHorizion())) {
+			invalidateQueryResults(objectType);
+		}
 	}
 
 	/**
-	 * @param objectType Type of object to query
-	 * @param criteria Criteria to query by
-	 * @return List of objects that match the specified type and criteria
-	 * @throws CQLGenerationException
+	 * Visit every object of a type. With visitObjectsConcurrency above 1 the token ring is split into ranges that are
+	 * scanned on that many threads at once, and the visitor is called from all of them, so it must be thread safe.
+	 * @param objectType Type of object to visit
+	 * @param visitor Called with each object, visit only if shouldInclude returns true
 	 */
-	public List<Map<String, Object>> list(String objectType, Criteria criteria) throws CQLGenerationException, RhombusException {
-		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
-		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforList(objectType, criteria, false);
-		return mapResults(statementIterator, def, criteria.getLimit());
+	public void visitObjects(String objectType, final CObjectVisitor visitor){
+		visitObjects(objectType, new CObjectTokenVisitorFactory() {
+			@Override
+			public CObjectTokenVisitor getInstance(String name) {
+				return new CObjectTokenVisitor(name) {
+					@Override
+					public void applyAction(Map<String, Object> object) {
+						visitor.visit(object);
+					}
+
+					@Override
+					public boolean shouldInclude(Map<String, Object> object) {
+						return visitor.shouldInclude(object);
+					}
+
+					@Override
+					public void setUp() {
+					}
+
+					@Override
+					public void cleanUp() {
+					}
+				};
+			}
+		});
 	}
 
 	/**
-	 * @param objectType Type of object to count
-	 * @param criteria Criteria to count by
-	 * @return number of items matching the criteria
-	 * @throws CQLGenerationException
+	 * Visit every object of a type with a visitor per token range. Each range gets its own visitor from the factory,
+	 * which is set up before the range is scanned and cleaned up after, and is only ever called from one thread. If a
+	 * range fails, the other ranges stop at their next object and the failure is thrown.
+	 * @param objectType Type of object to visit
+	 * @param visitorFactory Makes the visitor for each range, named by the range number
 	 */
-	public long count(String objectType, Criteria criteria) throws CQLGenerationException, RhombusException {
-		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
-		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforList(objectType, criteria, true);
-		return mapCount(statementIterator, def, criteria.getLimit());
+	public void visitObjects(final String objectType, CObjectTokenVisitorFactory visitorFactory){
+		final CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		int threads = Math.max(visitObjectsConcurrency, 1);
+		// Split into more ranges than threads so that a thread finishing a sparse range moves on to another
+		List<Map.Entry<Long, Long>> ranges = TableScanner.makeRanges(threads == 1 ? 1 : threads * VISIT_RANGES_PER_THREAD);
+		// Set once a range fails, so the other ranges stop at their next row rather than scanning to the end
+		final AtomicBoolean cancelled = new AtomicBoolean(false);
+		if(threads == 1) {
+			visitRange(def, ranges.get(0), visitorFactory.getInstance("0"), cancelled);
+			return;
+		}
+
+		ExecutorService executorService = Executors.newFixedThreadPool(threads,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rhombus-visit-" + objectType + "-%d").build());
+		BlockingQueue<Future<Object>> completed = new LinkedBlockingQueue<Future<Object>>();
+		CompletionService<Object> completionService = new ExecutorCompletionService<Object>(executorService, completed);
+		try {
+			for(int i = 0; i < ranges.size(); i++) {
+				final Map.Entry<Long, Long> range = ranges.get(i);
+				final CObjectTokenVisitor visitor = visitorFactory.getInstance(String.valueOf(i));
+				completionService.submit(new Runnable() {
+					@Override
+					public void run() {
+						visitRange(def, range, visitor, cancelled);
+					}
+				}, null);
+			}
+			// Ranges are checked as they finish, so the first failure is thrown without waiting on the ranges before it
+			for(int i = 0; i < ranges.size(); i++) {
+				Futures.getUnchecked(Uninterruptibles.takeUninterruptibly(completed));
+			}
+		} finally {
+			cancelled.set(true);
+			executorService.shutdownNow();
+		}
 	}
 
-	public void visitObjects(String objectType, CObjectVisitor visitor){
-		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
-		CQLStatement statement = this.cqlGenerator.makeCQLforTableScan(objectType);
-		Statement s = new SimpleStatement(statement.getQuery());
+	private void visitRange(CDefinition def, Map.Entry<Long, Long> range, CObjectTokenVisitor visitor, AtomicBoolean cancelled) {
+		CQLStatement statement = cqlGenerator.makeCQLforTableScan(def.getName(), range.getKey(), range.getValue());
+		Statement s = new SimpleStatement(statement.getQuery(), statement.getValues());
 		s.setFetchSize(200);
-		ResultSet resultSet = session.execute(s);
-
-		Iterator<Row> it = resultSet.iterator();
-		while(it.hasNext()){
-			Map<String,Object> obj = this.mapResult(it.next(),def);
-			if(visitor.shouldInclude(obj)){
-				visitor.visit(obj);
+		Function<Row, Map<String, Object>> rowMapper = makeRowMapper(def);
+		visitor.setUp();
+		try {
+			for(Row row : session.execute(s)) {
+				if(cancelled.get()) {
+					return;
+				}
+				visitor.visit(rowMapper.apply(row));
 			}
+		} finally {
+			visitor.cleanUp();
 		}
 	}
 
@@ -497,8 +1680,16 @@ public class ObjectMapper implements CObjectShardList {
 	}
 
 	public List<Map<String, Object>> scanTableWithStartId(String objectType, String startId, Long endToken, Long limit) throws CQLGenerationException, RhombusException {
+		return scanTableAfterId(objectType, JsonUtil.typedObjectFromValueAndFieldType(startId, this.getDefinition(objectType).getPrimaryKeyCDataType()), endToken, limit);
+	}
+
+	/**
+	 * Same as scanTableWithStartId, for an id that is already of the primary key type, such as one taken from a
+	 * previous page of results
+	 */
+	public List<Map<String, Object>> scanTableAfterId(String objectType, Object startId, Long endToken, Long limit) throws CQLGenerationException, RhombusException {
 		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
-		CQLStatementIterator statementIterator = cqlGenerator.makeCQLForScanTableMinId(objectType, JsonUtil.typedObjectFromValueAndFieldType(startId, this.getDefinition(objectType).getPrimaryKeyCDataType()), endToken, limit);
+		CQLStatementIterator statementIterator = cqlGenerator.makeCQLForScanTableMinId(objectType, startId, endToken, limit);
 		return mapResults(statementIterator, def, limit);
 	}
 
@@ -559,16 +1750,35 @@ public class ObjectMapper implements CObjectShardList {
 	 * @return Ordered resultset concatenating results from statements in statement iterator.
 	 */
 	private List<Map<String, Object>> mapResults(CQLStatementIterator statementIterator, CDefinition definition, Long limit) throws RhombusException {
-		List<Map<String, Object>> results = Lists.newArrayList();
-		int resultNumber = 0;
-		Map<String, Object> clientFilters = statementIterator.getClientFilters();
-		CQLExecutorIterator cqlIterator = new CQLExecutorIterator(cqlExecutor, statementIterator);
 		if(limit <= 0) {
 			limit = CObjectCQLGenerator.MAX_CQL_STATEMENT_LIMIT;
 		}
-		cqlIterator.setPageSize(limit);
+		CQLExecutorIterator cqlIterator = makeListExecutorIterator(statementIterator, limit);
+		try {
+			return mapResults(cqlIterator, definition, limit);
+		} finally {
+			cqlIterator.close();
+		}
+	}
+
+	private CQLExecutorIterator makeListExecutorIterator(CQLStatementIterator statementIterator, long pageSize) {
+		CQLExecutorIterator cqlIterator = new CQLExecutorIterator(cqlExecutor, statementIterator);
+		cqlIterator.setPageSize(pageSize);
+		cqlIterator.setShardPrefetchWindow(shardPrefetchWindow);
+		cqlIterator.setNativePaging(useNativePaging);
+		return cqlIterator;
+	}
+
+	/**
+	 * Map results from the executor iterator until limit is reached, leaving the iterator open
+	 */
+	private List<Map<String, Object>> mapResults(CQLExecutorIterator cqlIterator, CDefinition definition, long limit) throws RhombusException {
+		List<Map<String, Object>> results = Lists.newArrayList();
+		int resultNumber = 0;
+		Map<String, Object> clientFilters = cqlIterator.getClientFilters();
 		long nonMatching = 0;
 		long matching = 0;
+		Function<Row, Map<String, Object>> rowMapper = makeRowMapper(definition);
 
 		while (cqlIterator.hasNext()){
 
@@ -577,7 +1787,7 @@ public class ObjectMapper implements CObjectShardList {
 			if (row == null){
 				continue;
 			}
-			Map<String, Object> result = mapResult(row, definition);
+			Map<String, Object> result = rowMapper.apply(row);
 
 			boolean resultMatchesFilters = true;
 
@@ -631,7 +1841,10 @@ public class ObjectMapper implements CObjectShardList {
 		Long resultCount = 0L;
 		Map<String, Object> clientFilters = statementIterator.getClientFilters();
 
-		if (clientFilters == null){
+		if (clientFilters == null && countConcurrency > 0){
+			ParallelCountExecutor countExecutor = new ParallelCountExecutor(cqlExecutor, statementIterator, countConcurrency);
+			resultCount = countExecutor.count(limit);
+		} else if (clientFilters == null){
 			int statementNumber = 0;
 			while (statementIterator.hasNext()){
 				statementIterator.nextShard();
@@ -656,27 +1869,34 @@ public class ObjectMapper implements CObjectShardList {
 				limit = CObjectCQLGenerator.MAX_CQL_STATEMENT_LIMIT;
 			}
 			cqlIterator.setPageSize(limit);
-			while (cqlIterator.hasNext()){
-				Row row = cqlIterator.next();
-				if (row == null){
-					continue;
-				}
+			cqlIterator.setShardPrefetchWindow(shardPrefetchWindow);
+			cqlIterator.setNativePaging(useNativePaging);
+			Function<Row, Map<String, Object>> rowMapper = makeRowMapper(definition);
+			try {
+				while (cqlIterator.hasNext()){
+					Row row = cqlIterator.next();
+					if (row == null){
+						continue;
+					}
 
-				Map<String, Object> result = mapResult(row, definition);
-				boolean resultMatchesFilters = this.resultMatchesFilters(result, clientFilters);
+					Map<String, Object> result = rowMapper.apply(row);
+					boolean resultMatchesFilters = this.resultMatchesFilters(result, clientFilters);
 
-				if(resultMatchesFilters) {
-					resultCount++;
-				}
+					if(resultMatchesFilters) {
+						resultCount++;
+					}
 
-				if((limit > 0 && resultCount >= limit)) {
-					logger.debug("Breaking from mapping count query results");
-					break;
-				}
+					if((limit > 0 && resultCount >= limit)) {
+						logger.debug("Breaking from mapping count query results");
+						break;
+					}
 
-				if(cqlIterator.statementNumber > reasonableStatementLimit) {
-					throw new RhombusException("Query attempted to execute more than " + reasonableStatementLimit + " statements.");
+					if(cqlIterator.statementNumber > reasonableStatementLimit) {
+						throw new RhombusException("Query attempted to execute more than " + reasonableStatementLimit + " statements.");
+					}
 				}
+			} finally {
+				cqlIterator.close();
 			}
 		}
 		return resultCount;
@@ -708,17 +1928,24 @@ public class ObjectMapper implements CObjectShardList {
 	 * @return Data contained in a row mapped to the object described in definition.
 	 */
 	private Map<String, Object> mapResult(Row row, CDefinition definition) {
-		Map<String, Object> result = Maps.newHashMap();
-		if(definition.getFields().containsKey("id")){
-			result.put("id",getFieldValue(row,definition.getField("id")));
-		}
-		else {
-			result.put("id", row.getUUID("id"));
-		}
-		for(CField field : definition.getFields().values()) {
-			result.put(field.getName(), getFieldValue(row, field));
+		RowMapper rowMapper = getRowMapper(definition, row.getColumnDefinitions());
+		return useCompactRows ? rowMapper.mapCompact(row) : rowMapper.map(row);
+	}
+
+	/**
+	 * @param definition The definition rows will be mapped on to
+	 * @param columns Columns of the result set the rows come from
+	 * @return Row mapper compiled for the definition and columns. Each set of columns selected from a definition,
+	 * such as a projection, keeps its own mapper, which is reused until the definition changes.
+	 */
+	private RowMapper getRowMapper(CDefinition definition, ColumnDefinitions columns) {
+		String key = definition.getName() + ":" + RowMapper.columnsKey(columns);
+		RowMapper rowMapper = rowMappers.get(key);
+		if(rowMapper == null || !rowMapper.isCompiledFor(definition, columns)) {
+			rowMapper = new RowMapper(definition, columns);
+			rowMappers.put(key, rowMapper);
 		}
-		return result;
+		return rowMapper;
 	}
 
 	public void prePrepareInsertStatements() throws CQLGenerationException {
@@ -742,55 +1969,6 @@ public class ObjectMapper implements CObjectShardList {
 		}
 	}
 
-	private Object getFieldValue(Row row, CField field) {
-		if(row.isNull(field.getName())){
-			return null;
-		}
-		Object fieldValue;
-		switch(field.getType()) {
-			case ASCII:
-			case VARCHAR:
-			case TEXT:
-				fieldValue = row.getString(field.getName());
-				break;
-			case BIGINT:
-			case COUNTER:
-				fieldValue = row.getLong(field.getName());
-				break;
-			case BLOB:
-				fieldValue = row.getBytes(field.getName());
-				break;
-			case BOOLEAN:
-				fieldValue = row.getBool(field.getName());
-				break;
-			case DECIMAL:
-				fieldValue = row.getDecimal(field.getName());
-				break;
-			case DOUBLE:
-				fieldValue = row.getDouble(field.getName());
-				break;
-			case FLOAT:
-				fieldValue = row.getFloat(field.getName());
-				break;
-			case INT:
-				fieldValue = row.getInt(field.getName());
-				break;
-			case TIMESTAMP:
-				fieldValue = row.getDate(field.getName());
-				break;
-			case UUID:
-			case TIMEUUID:
-				fieldValue = row.getUUID(field.getName());
-				break;
-			case VARINT:
-				fieldValue = row.getVarint(field.getName());
-				break;
-			default:
-				fieldValue = null;
-		}
-		return (fieldValue == null ? null : fieldValue);
-	}
-
 	public Map<String, Object> coerceRhombusValuesFromJsonMap(String objectType, Map<String, Object> values) {
 		return JsonUtil.rhombusMapFromJsonMap(values, keyspaceDefinition.getDefinitions().get(objectType));
 	}
@@ -1050,6 +2228,190 @@ public class ObjectMapper implements CObjectShardList {
 		this.cacheBoundedQueries = cacheBoundedQueries;
 	}
 
+	public int getShardPrefetchWindow() {
+		return shardPrefetchWindow;
+	}
+
+	/**
+	 * @param shardPrefetchWindow Number of shards to query ahead asynchronously while the current shard of a list query
+	 *                            is being consumed. 0 (the default) walks shards one at a time.
+	 */
+	public void setShardPrefetchWindow(int shardPrefetchWindow) {
+		this.shardPrefetchWindow = shardPrefetchWindow;
+	}
+
+	public long getCursorPageSize() {
+		return cursorPageSize;
+	}
+
+	/**
+	 * @param cursorPageSize Number of rows fetched at a time by cursors returned from iterate
+	 */
+	public void setCursorPageSize(long cursorPageSize) {
+		this.cursorPageSize = cursorPageSize;
+	}
+
+	public ShardIdListCache getShardIdListCache() {
+		return shardIdListCache;
+	}
+
+	/**
+	 * @param shardIdListCache Cache to serve shard id lists for unbounded list queries from instead of querying the
+	 *                         shard index every time, or null (the default) to always query the shard index
+	 */
+	public void setShardIdListCache(@Nullable ShardIdListCache shardIdListCache) {
+		this.shardIdListCache = shardIdListCache;
+	}
+
+	public boolean isBindListLimit() {
+		return cqlGenerator.isBindListLimit();
+	}
+
+	/**
+	 * @param bindListLimit true to bind the LIMIT of list and count queries as a value instead of writing it into the
+	 *                      query text, so paging through results does not prepare a statement for every limit
+	 */
+	public void setBindListLimit(boolean bindListLimit) {
+		cqlGenerator.setBindListLimit(bindListLimit);
+	}
+
+	public boolean isSkipEmptyShards() {
+		return cqlGenerator.isSkipEmptyShards();
+	}
+
+	/**
+	 * @param skipEmptyShards true to have list and count queries bounded by both a start and an end look up the shards
+	 *                        recorded in the shard index and only query those, instead of every shard in the range.
+	 *                        Lookups are served from the shard id list cache when one is set.
+	 */
+	public void setSkipEmptyShards(boolean skipEmptyShards) {
+		cqlGenerator.setSkipEmptyShards(skipEmptyShards);
+	}
+
+	public ObjectCache getObjectCache() {
+		return objectCache;
+	}
+
+	/**
+	 * @param objectCache Cache for getByKey and getByKeys to read through, which inserts, updates and deletes made
+	 *                    through this mapper invalidate, or null (the default) to always read the static table.
+	 *                    Updates and deletes read the object they replace from the static table, not the cache.
+	 */
+	public void setObjectCache(@Nullable ObjectCache objectCache) {
+		this.objectCache = objectCache;
+	}
+
+	public QueryResultCache getQueryResultCache() {
+		return queryResultCache;
+	}
+
+	/**
+	 * @param queryResultCache Cache for the results of list and count queries that end behind the consistency horizon,
+	 *                         or null (the default) to always execute them. Cached objects are shared between callers.
+	 */
+	public void setQueryResultCache(@Nullable QueryResultCache queryResultCache) {
+		this.queryResultCache = queryResultCache;
+	}
+
+	public ShardIndexWriteCache getShardIndexWriteCache() {
+		return shardIndexWriteCache;
+	}
+
+	/**
+	 * @param shardIndexWriteCache Cache of recently written shard index rows used to skip rewriting them on every
+	 *                             insert, or null (the default) to always write them
+	 */
+	public void setShardIndexWriteCache(@Nullable ShardIndexWriteCache shardIndexWriteCache) {
+		this.shardIndexWriteCache = shardIndexWriteCache;
+	}
+
+	public int getGetByKeysConcurrency() {
+		return getByKeysConcurrency;
+	}
+
+	/**
+	 * @param getByKeysConcurrency Maximum number of lookups getByKeys has in flight at once. Defaults to 50.
+	 */
+	public void setGetByKeysConcurrency(int getByKeysConcurrency) {
+		this.getByKeysConcurrency = getByKeysConcurrency;
+	}
+
+	public int getCountConcurrency() {
+		return countConcurrency;
+	}
+
+	/**
+	 * @param countConcurrency If greater than 0, count queries without client filters send their per shard count
+	 *                         statements asynchronously with up to this many in flight at once. Since shards are no
+	 *                         longer counted one round trip at a time, these counts are not subject to the statement
+	 *                         limit applied to serial queries. 0 (the default) counts one shard at a time.
+	 */
+	public void setCountConcurrency(int countConcurrency) {
+		this.countConcurrency = countConcurrency;
+	}
+
+	public Executor getAsyncCallbackExecutor() {
+		return asyncCallbackExecutor;
+	}
+
+	/**
+	 * @param asyncCallbackExecutor Runs the callbacks of the asynchronous methods, which map results and send any
+	 *                              statements that follow. Callbacks never wait on a statement, but may prepare one,
+	 *                              so this should not be a driver thread. Defaults to a shared cached thread pool.
+	 */
+	public void setAsyncCallbackExecutor(Executor asyncCallbackExecutor) {
+		this.asyncCallbackExecutor = asyncCallbackExecutor;
+	}
+
+	public int getHistogramConcurrency() {
+		return histogramConcurrency;
+	}
+
+	/**
+	 * @param histogramConcurrency Maximum number of histogram count statements in flight at once. Defaults to 20.
+	 */
+	public void setHistogramConcurrency(int histogramConcurrency) {
+		this.histogramConcurrency = histogramConcurrency;
+	}
+
+	public int getVisitObjectsConcurrency() {
+		return visitObjectsConcurrency;
+	}
+
+	/**
+	 * @param visitObjectsConcurrency Number of threads visitObjects scans token ranges on. Above 1, a visitor passed to
+	 *                                visitObjects is called concurrently and must be thread safe. Defaults to 1.
+	 */
+	public void setVisitObjectsConcurrency(int visitObjectsConcurrency) {
+		this.visitObjectsConcurrency = visitObjectsConcurrency;
+	}
+
+	public boolean isUseCompactRows() {
+		return useCompactRows;
+	}
+
+	/**
+	 * @param useCompactRows If true, objects returned from list, iterate, getByKey and table scans are CompactRows,
+	 *                       which store their values in an array against a schema shared per definition instead of a
+	 *                       HashMap per object. CompactRows allow existing fields to be changed but not added or removed.
+	 *                       Defaults to false.
+	 */
+	public void setUseCompactRows(boolean useCompactRows) {
+		this.useCompactRows = useCompactRows;
+	}
+
+	public boolean isUseNativePaging() {
+		return useNativePaging;
+	}
+
+	/**
+	 * @param useNativePaging If true, list queries read each shard with one statement and let the driver page through it,
+	 *                        instead of re-querying from the last id seen. Defaults to false.
+	 */
+	public void setUseNativePaging(boolean useNativePaging) {
+		this.useNativePaging = useNativePaging;
+	}
+
 	public void setCompaction(String strategy, Map<String,Object> options) throws CQLGenerationException, RhombusException {
 		CQLStatementIterator cql = cqlGenerator.makeCQLforCompaction(keyspaceDefinition, strategy, options);
 		executeStatements(cql);
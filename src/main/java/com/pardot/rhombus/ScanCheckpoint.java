@@ -0,0 +1,163 @@
+package com.pardot.rhombus;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How far a table scan has got through each of its ranges, kept as the token to resume each range from so that
+ * resuming needs no lookups. Saved as a small binary file that is written to a temporary file and renamed over the
+ * last one, so a scan stopped part way through a save still has the previous checkpoint.
+ */
+public class ScanCheckpoint {
+
+	private static final int MAGIC = 0x52534350;
+	private static final int VERSION = 1;
+
+	private final List<Map.Entry<Long, Long>> ranges;
+	private final long[] startTokens;
+	private final boolean[] complete;
+	private boolean dirty = false;
+
+	/**
+	 * @param ranges Inclusive start and end tokens of the ranges being scanned, none of them started yet
+	 */
+	public ScanCheckpoint(List<Map.Entry<Long, Long>> ranges) {
+		this.ranges = ImmutableList.copyOf(ranges);
+		this.startTokens = new long[ranges.size()];
+		this.complete = new boolean[ranges.size()];
+		for(int i = 0; i < ranges.size(); i++) {
+			startTokens[i] = ranges.get(i).getKey();
+		}
+	}
+
+	/**
+	 * @param ranges Ranges of a scan
+	 * @return Whether this checkpoint was taken from a scan of exactly those ranges
+	 */
+	public boolean matches(List<Map.Entry<Long, Long>> ranges) {
+		return this.ranges.equals(ranges);
+	}
+
+	public int getRangeCount() {
+		return ranges.size();
+	}
+
+	/**
+	 * @param rangeId Index of the range
+	 * @return Token to resume the range from, or null if the range is complete
+	 */
+	public synchronized Long getStartToken(int rangeId) {
+		return complete[rangeId] ? null : startTokens[rangeId];
+	}
+
+	/**
+	 * @param rangeId Index of the range
+	 * @param lastToken Token of the last object visited, which the range resumes from
+	 */
+	public synchronized void recordProgress(int rangeId, long lastToken) {
+		startTokens[rangeId] = lastToken;
+		dirty = true;
+	}
+
+	public synchronized void recordComplete(int rangeId) {
+		complete[rangeId] = true;
+		dirty = true;
+	}
+
+	/**
+	 * @return Whether anything has been recorded since the checkpoint was last read or saved
+	 */
+	public synchronized boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Save the checkpoint, replacing the file only once the new contents are synced to disk
+	 * @param file File to save to
+	 * @throws IOException if the checkpoint could not be written
+	 */
+	public void write(File file) throws IOException {
+		long[] tokens;
+		boolean[] completed;
+		synchronized (this) {
+			tokens = Arrays.copyOf(startTokens, startTokens.length);
+			completed = Arrays.copyOf(complete, complete.length);
+			dirty = false;
+		}
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream fileOut = new FileOutputStream(temp);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(ranges.size());
+			for(int i = 0; i < ranges.size(); i++) {
+				out.writeLong(ranges.get(i).getKey());
+				out.writeLong(ranges.get(i).getValue());
+				out.writeLong(tokens[i]);
+				out.writeBoolean(completed[i]);
+			}
+			out.flush();
+			fileOut.getFD().sync();
+		} catch(IOException e) {
+			synchronized (this) {
+				dirty = true;
+			}
+			throw e;
+		} finally {
+			fileOut.close();
+		}
+		// Renaming over an existing file is atomic on POSIX, elsewhere it fails and the old file has to go first
+		if(!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+			synchronized (this) {
+				dirty = true;
+			}
+			throw new IOException("Unable to rename " + temp + " to " + file);
+		}
+	}
+
+	/**
+	 * @param file File a checkpoint was saved to
+	 * @return The checkpoint, or null if there is no file
+	 * @throws IOException if the file could not be read or is not a checkpoint
+	 */
+	public static ScanCheckpoint read(File file) throws IOException {
+		if(!file.exists()) {
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(file + " is not a scan checkpoint");
+			}
+			int rangeCount = in.readInt();
+			List<Map.Entry<Long, Long>> ranges = Lists.newArrayList();
+			long[] tokens = new long[rangeCount];
+			boolean[] completed = new boolean[rangeCount];
+			for(int i = 0; i < rangeCount; i++) {
+				ranges.add(new AbstractMap.SimpleEntry<Long, Long>(in.readLong(), in.readLong()));
+				tokens[i] = in.readLong();
+				completed[i] = in.readBoolean();
+			}
+			ScanCheckpoint checkpoint = new ScanCheckpoint(ranges);
+			System.arraycopy(tokens, 0, checkpoint.startTokens, 0, rangeCount);
+			System.arraycopy(completed, 0, checkpoint.complete, 0, rangeCount);
+			return checkpoint;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -1,25 +1,30 @@
 package com.pardot.rhombus;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.pardot.rhombus.cobject.CObjectTokenVisitor;
 import com.pardot.rhombus.cobject.CObjectTokenVisitorFactory;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.input.ReversedLinesFileReader;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * User: Michael Frank
@@ -29,11 +34,31 @@ public class TableScanner {
 
 	private static Logger logger = LoggerFactory.getLogger(TableScanner.class);
 
+	/**
+	 * How scan() divides the token ring between partitions
+	 */
+	public enum SplitMode {
+		/** One range of equal length per partition */
+		UNIFORM,
+		/** Splits along the ranges each host owns, dealt out to the partitions in turn */
+		RING
+	}
+
 	public static final long minToken = Long.MIN_VALUE;
 	public static final long maxToken = Long.MAX_VALUE;
-	public final int maxSavepointLinesToCheck = 10;
+	public static final String CHECKPOINT_FILENAME = "checkpoint.bin";
 	private long batchSize = 200;
 	private int statementRetries = 5;
+	private SplitMode splitMode = SplitMode.UNIFORM;
+	private int splitsPerPartition = 1;
+	private boolean adaptiveBatchSize = false;
+	private long minBatchSize = 50;
+	private long maxBatchSize = 5000;
+	private long targetBatchMillis = 500;
+	private long maxBatchBytes = 8L * 1024 * 1024;
+	private double totalTokens = 0;
+	private double completedTokens = 0;
+	private long scanStartNanos = 0;
 
 	private ObjectMapper objectMapper;
 	private String objectType;
@@ -41,8 +66,11 @@ public class TableScanner {
 	CObjectTokenVisitorFactory visitorFactory;
 	private ExecutorService executorService;
 	private File savepointDirectory;
-	private PrintWriter[] savepointWriters = null;
+	private long savepointIntervalMillis = 10000;
+	private ScanCheckpoint checkpoint = null;
+	private final Object checkpointLock = new Object();
 	private final CountDownLatch shutdownLatch;
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
 
 	public TableScanner(ObjectMapper objectMapper, String objectType, int numPartitions, CObjectTokenVisitorFactory visitorFactory, String savepointDirectoryPath) {
 		Preconditions.checkNotNull(objectMapper);
@@ -61,21 +89,53 @@ public class TableScanner {
 		}
 	}
 
+	/**
+	 * Scan every range of the table, resuming from the checkpoint in the savepoint directory if there is one. Once a
+	 * range fails the partitions stop taking new ranges and stop the ranges they are scanning at their next batch.
+	 * @throws RuntimeException the first failure of any range, once every partition has stopped. Ranges that did not
+	 * finish are left in the checkpoint, so scanning again with the same savepoint directory picks them up.
+	 */
 	public void scan() {
 		List<Map.Entry<Long, Long>> ranges = makeRanges();
 		if (this.savepointDirectory != null) {
-			this.savepointWriters = this.makeSavepointWriters(this.numPartitions);
+			this.checkpoint = this.loadCheckpoint(ranges);
+		}
+
+		// Resume each range from its checkpoint, leaving out ranges already finished
+		final List<Map.Entry<Long, Long>> startRanges = Lists.newArrayList();
+		final Queue<Integer> rangeIds = new ConcurrentLinkedQueue<Integer>();
+		List<Map.Entry<Long, Long>> remainingRanges = Lists.newArrayList();
+		for(int rangeId = 0; rangeId < ranges.size(); rangeId++) {
+			Map.Entry<Long, Long> range = ranges.get(rangeId);
+			Long startToken = (checkpoint == null) ? range.getKey() : checkpoint.getStartToken(rangeId);
+			startRanges.add(new AbstractMap.SimpleEntry<Long, Long>(startToken, range.getValue()));
+			if (startToken != null) {
+				// Partitions take the next range from the shared queue as they finish one, so a dense range only
+				// holds up the partition scanning it. In ring mode consecutive ranges belong to different hosts.
+				rangeIds.add(rangeId);
+				remainingRanges.add(startRanges.get(rangeId));
+			}
 		}
+		startProgress(remainingRanges);
 
-		int rangeNum = 0;
-		for(final Map.Entry<Long, Long> range : ranges) {
-			final Integer partitionId = rangeNum;
-			rangeNum++;
-			final CObjectTokenVisitor visitor = visitorFactory.getInstance("" + rangeNum);
+		ScheduledExecutorService checkpointExecutor = null;
+		if (this.checkpoint != null) {
+			checkpointExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rhombus-scan-checkpoint-%d").build());
+			checkpointExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					saveCheckpoint();
+				}
+			}, savepointIntervalMillis, savepointIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+
+		for(int partitionId = 0; partitionId < numPartitions; partitionId++) {
+			final CObjectTokenVisitor visitor = visitorFactory.getInstance("" + (partitionId + 1));
+			final Integer finalPartitionId = partitionId;
 			Runnable r = new Runnable() {
 				@Override
 				public void run() {
-					handle(range.getKey(), range.getValue(), visitor, partitionId);
+					handle(rangeIds, startRanges, visitor, finalPartitionId);
 				}
 			};
 			executorService.execute(r);
@@ -85,152 +145,167 @@ public class TableScanner {
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		} finally {
-			if (this.savepointWriters != null) {
-				for(int i = 0; i < numPartitions; i++) {
-					this.savepointWriters[i].close();
-				}
+			executorService.shutdown();
+			if (checkpointExecutor != null) {
+				checkpointExecutor.shutdown();
+				saveCheckpoint();
 			}
 		}
+		Throwable t = failure.get();
+		if (t != null) {
+			throw Throwables.propagate(t);
+		}
 	}
 
 	public List<Map.Entry<Long, Long>> makeRanges() {
-		Long[] savedStartTokens = this.readSavepoints();
+		if (splitMode == SplitMode.RING) {
+			try {
+				TokenRing ring = TokenRing.read(objectMapper.getCqlExecutor());
+				return ring.split(TokenRing.targetSplitSize(numPartitions * splitsPerPartition));
+			} catch (RhombusException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return makeRanges(numPartitions * splitsPerPartition);
+	}
+
+	/**
+	 * Split the full token ring into contiguous ranges of equal length
+	 * @param numRanges Number of ranges to split the ring into
+	 * @return Inclusive start and end tokens of each range, in token order
+	 */
+	public static List<Map.Entry<Long, Long>> makeRanges(int numRanges) {
 		List<Map.Entry<Long, Long>> ranges = Lists.newArrayList();
 		BigInteger fullRange = BigInteger.valueOf(maxToken).subtract(BigInteger.valueOf(minToken)).add(BigInteger.ONE);
-		BigInteger rangeLength = fullRange.divide(BigInteger.valueOf(numPartitions));
+		BigInteger rangeLength = fullRange.divide(BigInteger.valueOf(numRanges));
 		BigInteger rangeStart = BigInteger.valueOf(minToken);
-		for(int i = 0 ; i < numPartitions - 1 ; i++) {
+		for(int i = 0 ; i < numRanges - 1 ; i++) {
 			BigInteger rangeEnd = rangeStart.add(rangeLength).subtract(BigInteger.ONE);
-			// If we have a savepoint for this partition, use that start token instead of the default
-			if (savedStartTokens != null) {
-				rangeStart = BigInteger.valueOf(savedStartTokens[i]);
-			}
-			AbstractMap.SimpleEntry<Long, Long> range = new AbstractMap.SimpleEntry<Long, Long>(rangeStart.longValue(), rangeEnd.longValue());
-			ranges.add(range);
+			ranges.add(new AbstractMap.SimpleEntry<Long, Long>(rangeStart.longValue(), rangeEnd.longValue()));
 			rangeStart = rangeEnd.add(BigInteger.ONE);
 		}
-		BigInteger rangeEnd = BigInteger.valueOf(maxToken);
-		if (savedStartTokens != null) {
-			rangeStart = BigInteger.valueOf(savedStartTokens[numPartitions - 1]);
-		}
-		AbstractMap.SimpleEntry<Long, Long> range = new AbstractMap.SimpleEntry<Long, Long>(rangeStart.longValue(), rangeEnd.longValue());
-		ranges.add(range);
+		ranges.add(new AbstractMap.SimpleEntry<Long, Long>(rangeStart.longValue(), maxToken));
 		return ranges;
 	}
 
-	private Long[] readSavepoints() {
-		Long[] out = null;
-		if (this.savepointDirectory != null) {
-			File[] existingSavepoints = this.savepointDirectory.listFiles();
-			// Ensure we have the right number of existing savepoint files
-			if (existingSavepoints == null) {
-				logger.info("No savepoint files found in savepoint directory.");
-			} else if (existingSavepoints.length != numPartitions) {
-				logger.info("Found " + existingSavepoints.length + " files in savepoint directory, expected " + numPartitions);
+	/**
+	 * @param ranges Ranges the scan is split into
+	 * @return The saved checkpoint if it was taken from a scan of the same ranges, otherwise a new one
+	 */
+	private ScanCheckpoint loadCheckpoint(List<Map.Entry<Long, Long>> ranges) {
+		File checkpointFile = new File(this.savepointDirectory, CHECKPOINT_FILENAME);
+		try {
+			ScanCheckpoint saved = ScanCheckpoint.read(checkpointFile);
+			if (saved == null) {
+				logger.info("No checkpoint found in savepoint directory, starting from the beginning.");
+			} else if (!saved.matches(ranges)) {
+				logger.info("Checkpoint in savepoint directory is for different ranges, starting from the beginning.");
 			} else {
-				// We have the right number of files, let's parse them
-				Map<String, File> files = Maps.newHashMap();
-				for (File savepoint : existingSavepoints) {
-					files.put(savepoint.getName(), savepoint);
-				}
-				out = new Long[numPartitions];
-				for(int partitionId = 0; partitionId < numPartitions; partitionId++) {
-					// If any of the savepoints are missing for our partitions, fail out from restoring from savepoints
-					if (!files.keySet().contains(TableScanner.getSavepointFilename(partitionId))) {
-						return null;
-					}
-					File savepointFile = files.get(TableScanner.getSavepointFilename(partitionId));
-					UUID lastUuid = null;
-					try {
-						ReversedLinesFileReader reader = new ReversedLinesFileReader(savepointFile);
-						int lineCounter = 0;
-						while (lastUuid == null && lineCounter < this.maxSavepointLinesToCheck) {
-							try {
-								lastUuid = UUID.fromString(reader.readLine());
-							} catch (IllegalArgumentException e) {
-								// Do nothing here, just let the line counter get incremented
-							}
-							lineCounter++;
-						}
-						if (lastUuid == null) {
-							logger.warn("Unable to parse UUID from the last " + this.maxSavepointLinesToCheck + " lines of savepoint file " + TableScanner.getSavepointFilename(partitionId));
-							return null;
-						}
-						reader.close();
-					} catch (IOException e) {
-						logger.error("Error reading savepoint file", e);
-						return null;
-					}
-					out[partitionId] = this.objectMapper.getTokenForId(this.objectType, lastUuid);
-				}
+				logger.info("Resuming from checkpoint in savepoint directory.");
+				return saved;
 			}
+		} catch (IOException e) {
+			logger.warn("Unable to read checkpoint, starting from the beginning", e);
 		}
-		logger.info("Read savepoints successfully: " + Arrays.toString(out));
-		return out;
+		return new ScanCheckpoint(ranges);
 	}
 
-	/**
-	 * @param partitionId 0-based partition id
-	 * @return Savepoint filename
-	 */
-	public static String getSavepointFilename(Integer partitionId) {
-		return "savepoint-" + partitionId.toString() + ".txt";
+	private void saveCheckpoint() {
+		synchronized (checkpointLock) {
+			if (checkpoint == null || !checkpoint.isDirty()) {
+				return;
+			}
+			try {
+				checkpoint.write(new File(this.savepointDirectory, CHECKPOINT_FILENAME));
+			} catch (IOException e) {
+				logger.error("Unable to save checkpoint", e);
+			}
+		}
 	}
 
-	private PrintWriter[] makeSavepointWriters(Integer partitionCount) {
-		PrintWriter[] out = new PrintWriter[partitionCount];
+	public void handle(Long minToken, Long maxToken, CObjectTokenVisitor visitor, Integer partitionId) {
+		PartitionScan partitionScan = new PartitionScan(partitionId);
+		visitor.setUp();
 		try {
-			this.readySafepointDirectory(partitionCount);
-			for(int i = 0; i < partitionCount; i++) {
-				// Build a writer for each partition thread
-				out[i] = new PrintWriter(new FileOutputStream(this.savepointDirectory.getName() + "/" + TableScanner.getSavepointFilename(i), true));
-			}
-		} catch (IOException e) {
-			return null;
+			scanRange(minToken, maxToken, visitor, null, partitionScan);
+		} catch (RuntimeException e) {
+			recordFailure(e);
+			throw e;
+		} finally {
+			visitor.cleanUp();
+			shutdownLatch.countDown();
 		}
-		return out;
 	}
 
-	private void readySafepointDirectory(Integer partitionCount) throws IOException {
-		File[] fileArray = this.savepointDirectory.listFiles();
-		// If there are already files in the savepoint directory...
-		if (fileArray != null) {
-			// Let's find out if they match our config or not (i.e. probably from the same command run previously)
-			Map<String, File> files = Maps.newHashMap();
-			for (File savepoint : fileArray) {
-				files.put(savepoint.getName(), savepoint);
-			}
-			Set<String> requiredFilenames = Sets.newHashSet();
-			for(int i = 0; i < partitionCount; i++) {
-				requiredFilenames.add(TableScanner.getSavepointFilename(i));
+	private void handle(Queue<Integer> rangeIds, List<Map.Entry<Long, Long>> ranges, CObjectTokenVisitor visitor, Integer partitionId) {
+		PartitionScan partitionScan = new PartitionScan(partitionId);
+		visitor.setUp();
+		try {
+			Integer rangeId;
+			while(failure.get() == null && (rangeId = rangeIds.poll()) != null) {
+				Map.Entry<Long, Long> range = ranges.get(rangeId);
+				scanRange(range.getKey(), range.getValue(), visitor, rangeId, partitionScan);
 			}
+		} catch (Throwable t) {
+			// The executor would drop the failure, so keep it for scan to throw
+			recordFailure(t);
+		} finally {
+			visitor.cleanUp();
+			shutdownLatch.countDown();
+		}
+	}
 
-			// If they don't have the right filenames, clean the directory out
-			if (!files.keySet().equals(requiredFilenames)) {
-				logger.info("Existing savepoint files don't match what we're looking for, clearing them out and starting over.");
-				FileUtils.cleanDirectory(this.savepointDirectory);
-			}
-			logger.info("Appending savepoints to existing files.");
-			// Otherwise leave the files there, we can append to them
+	private void recordFailure(Throwable t) {
+		if (failure.compareAndSet(null, t)) {
+			logger.error("Scan of " + objectType + " failed, stopping the scan", t);
 		}
 	}
 
-	public void handle(Long minToken, Long maxToken, CObjectTokenVisitor visitor, Integer partitionId) {
-		visitor.setUp();
-		List<Map<String, Object>> results = executeStatement(objectType, minToken, maxToken, batchSize);
-		while(results != null && results.size() > 0) {
+	/**
+	 * @param rangeId Index of the range in the checkpoint, or null if progress is not being checkpointed
+	 */
+	private void scanRange(Long minToken, Long maxToken, CObjectTokenVisitor visitor, Integer rangeId, PartitionScan partitionScan) {
+		ScanCheckpoint checkpoint = (rangeId == null) ? null : this.checkpoint;
+		Object lastId = null;
+		while(true) {
+			if (failure.get() != null) {
+				// Another range failed, so leave this one to be resumed from its checkpoint
+				return;
+			}
+			long batchSize = partitionScan.batchSizer.getBatchSize();
+			long startNanos = System.nanoTime();
+			List<Map<String, Object>> results;
+			if (lastId == null) {
+				results = executeStatement(objectType, minToken, true, maxToken, batchSize);
+			} else {
+				// Page on from the id as returned, rather than round tripping it through a string
+				results = executeStatement(objectType, lastId, false, maxToken, batchSize);
+			}
+			long nanos = System.nanoTime() - startNanos;
+			if (results == null || results.isEmpty()) {
+				break;
+			}
+			long bytes = 0;
+			for(Map<String, Object> result : results) {
+				bytes += estimateSize(result);
+			}
+			partitionScan.batchSizer.record(results.size(), bytes, nanos);
+			partitionScan.rows.mark(results.size());
+			partitionScan.bytes.mark(bytes);
+
 			visitResults(results, visitor);
-			String minUuid = String.valueOf(results.get(results.size() - 1).get("id"));
-			results = executeStatement(objectType, minUuid, maxToken, batchSize);
-			if (this.savepointWriters != null) {
-				// We've processed this range, so save our progress for later
-				this.savepointWriters[partitionId].append(minUuid);
-				this.savepointWriters[partitionId].append("\n");
-				this.savepointWriters[partitionId].flush();
+			visitor.flush();
+			lastId = results.get(results.size() - 1).get("id");
+			Long lastToken = TokenRing.getToken(lastId);
+			if (checkpoint != null && lastToken != null) {
+				// Resuming from the last token visits its objects again, rather than risk skipping any sharing it
+				checkpoint.recordProgress(rangeId, lastToken);
 			}
 		}
-		visitor.cleanUp();
-		shutdownLatch.countDown();
+		if (checkpoint != null) {
+			checkpoint.recordComplete(rangeId);
+		}
+		completeRange(minToken, maxToken);
 	}
 
 	private void visitResults(List<Map<String, Object>> results, CObjectTokenVisitor visitor) {
@@ -239,15 +314,15 @@ public class TableScanner {
 		}
 	}
 
-	private List<Map<String, Object>> executeStatement(String objectType, Object minToken, Long maxToken, long batchSize) {
+	private List<Map<String, Object>> executeStatement(String objectType, Object start, boolean startIsToken, Long maxToken, long batchSize) {
 		int retries = 0;
 		while(retries < statementRetries) {
 			try {
 				List<Map<String, Object>> results;
-				if(Long.class.isAssignableFrom(minToken.getClass())) {
-					results = objectMapper.scanTableWithStartToken(objectType, (Long)minToken, maxToken, batchSize);
+				if(startIsToken) {
+					results = objectMapper.scanTableWithStartToken(objectType, (Long)start, maxToken, batchSize);
 				} else {
-					results = objectMapper.scanTableWithStartId(objectType, (String)minToken, maxToken, batchSize);
+					results = objectMapper.scanTableAfterId(objectType, start, maxToken, batchSize);
 				}
 				return results;
 			} catch(Exception e) {
@@ -261,14 +336,218 @@ public class TableScanner {
 		throw new RuntimeException("Bad logic in statement retry");
 	}
 
+	/**
+	 * Rough size of a value as stored, used to estimate scan throughput in bytes and keep batches under maxBatchBytes
+	 */
+	static long estimateSize(Object value) {
+		if (value == null) {
+			return 0;
+		} else if (value instanceof String) {
+			return ((String)value).length();
+		} else if (value instanceof UUID) {
+			return 16;
+		} else if (value instanceof Number || value instanceof Date) {
+			return 8;
+		} else if (value instanceof Boolean) {
+			return 1;
+		} else if (value instanceof ByteBuffer) {
+			return ((ByteBuffer)value).remaining();
+		} else if (value instanceof Collection) {
+			long size = 0;
+			for(Object element : (Collection<?>)value) {
+				size += estimateSize(element);
+			}
+			return size;
+		} else if (value instanceof Map) {
+			long size = 0;
+			for(Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+				size += estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+			}
+			return size;
+		}
+		return value.toString().length();
+	}
+
+	/**
+	 * Reset progress for a scan of the ranges, and register the gauges that report it
+	 */
+	private void startProgress(List<Map.Entry<Long, Long>> ranges) {
+		double total = 0;
+		for(Map.Entry<Long, Long> range : ranges) {
+			total += (double)range.getValue() - (double)range.getKey() + 1;
+		}
+		synchronized (this) {
+			totalTokens = total;
+			completedTokens = 0;
+			scanStartNanos = System.nanoTime();
+		}
+		MetricsRegistry registry = Metrics.defaultRegistry();
+		registry.removeMetric(TableScanner.class, "scan.progress", objectType);
+		registry.newGauge(TableScanner.class, "scan.progress", objectType, new Gauge<Double>() {
+			@Override
+			public Double value() {
+				return getProgress();
+			}
+		});
+		registry.removeMetric(TableScanner.class, "scan.eta", objectType);
+		registry.newGauge(TableScanner.class, "scan.eta", objectType, new Gauge<Long>() {
+			@Override
+			public Long value() {
+				return getEtaSeconds();
+			}
+		});
+	}
+
+	private synchronized void completeRange(Long minToken, Long maxToken) {
+		completedTokens += (double)maxToken - (double)minToken + 1;
+	}
+
+	/**
+	 * @return Fraction of the tokens being scanned that are in ranges already finished
+	 */
+	public synchronized double getProgress() {
+		return (totalTokens > 0) ? Math.min(1.0, completedTokens / totalTokens) : 0.0;
+	}
+
+	/**
+	 * Progress only counts finished ranges, so the estimate is coarse unless there are several ranges per partition
+	 * @return Estimated seconds until the scan finishes at the rate ranges have finished so far, or -1 if no range
+	 * has finished yet
+	 */
+	public synchronized long getEtaSeconds() {
+		double progress = getProgress();
+		if (progress <= 0) {
+			return -1;
+		}
+		double elapsedSeconds = (System.nanoTime() - scanStartNanos) / 1e9;
+		return (long)(elapsedSeconds * (1 - progress) / progress);
+	}
+
+	/**
+	 * Batch sizing and throughput meters of one partition thread, which are only ever touched by that thread
+	 */
+	private class PartitionScan {
+		private final AdaptiveBatchSizer batchSizer;
+		private final Meter rows;
+		private final Meter bytes;
+
+		private PartitionScan(Integer partitionId) {
+			if (adaptiveBatchSize) {
+				batchSizer = new AdaptiveBatchSizer(batchSize, minBatchSize, maxBatchSize, targetBatchMillis, maxBatchBytes);
+			} else {
+				batchSizer = new AdaptiveBatchSizer(batchSize, batchSize, batchSize, targetBatchMillis, 0);
+			}
+			String scope = objectType + ".partition" + partitionId;
+			MetricsRegistry registry = Metrics.defaultRegistry();
+			rows = registry.newMeter(TableScanner.class, "scan.rows", scope, "rows", TimeUnit.SECONDS);
+			bytes = registry.newMeter(TableScanner.class, "scan.bytes", scope, "bytes", TimeUnit.SECONDS);
+			registry.removeMetric(TableScanner.class, "scan.batchSize", scope);
+			registry.newGauge(TableScanner.class, "scan.batchSize", scope, new Gauge<Long>() {
+				@Override
+				public Long value() {
+					return batchSizer.getBatchSize();
+				}
+			});
+		}
+	}
+
 	public long getBatchSize() {
 		return batchSize;
 	}
 
+	/**
+	 * @param batchSize Number of rows read per statement, or the starting number with adaptive batch sizing. Defaults
+	 *                  to 200.
+	 */
 	public void setBatchSize(int batchSize) {
 		this.batchSize = batchSize;
 	}
 
+	public boolean isAdaptiveBatchSize() {
+		return adaptiveBatchSize;
+	}
+
+	/**
+	 * @param adaptiveBatchSize If true, each partition grows or shrinks its batch size, between minBatchSize and
+	 *                          maxBatchSize, towards batches that take targetBatchMillis to read and stay under
+	 *                          maxBatchBytes. Defaults to false.
+	 */
+	public void setAdaptiveBatchSize(boolean adaptiveBatchSize) {
+		this.adaptiveBatchSize = adaptiveBatchSize;
+	}
+
+	public long getMinBatchSize() {
+		return minBatchSize;
+	}
+
+	public void setMinBatchSize(long minBatchSize) {
+		this.minBatchSize = minBatchSize;
+	}
+
+	public long getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public void setMaxBatchSize(long maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public long getTargetBatchMillis() {
+		return targetBatchMillis;
+	}
+
+	public void setTargetBatchMillis(long targetBatchMillis) {
+		this.targetBatchMillis = targetBatchMillis;
+	}
+
+	public long getMaxBatchBytes() {
+		return maxBatchBytes;
+	}
+
+	/**
+	 * @param maxBatchBytes Estimated size of rows an adaptive batch should not exceed, 0 for no limit. Defaults to 8MB.
+	 */
+	public void setMaxBatchBytes(long maxBatchBytes) {
+		this.maxBatchBytes = maxBatchBytes;
+	}
+
+	public long getSavepointIntervalMillis() {
+		return savepointIntervalMillis;
+	}
+
+	/**
+	 * @param savepointIntervalMillis How often the checkpoint is saved to the savepoint directory while scanning. It
+	 *                                is always saved once more when the scan ends. Defaults to 10 seconds.
+	 */
+	public void setSavepointIntervalMillis(long savepointIntervalMillis) {
+		this.savepointIntervalMillis = savepointIntervalMillis;
+	}
+
+	public SplitMode getSplitMode() {
+		return splitMode;
+	}
+
+	/**
+	 * @param splitMode How the token ring is divided between partitions. Defaults to UNIFORM.
+	 */
+	public void setSplitMode(SplitMode splitMode) {
+		this.splitMode = splitMode;
+	}
+
+	public int getSplitsPerPartition() {
+		return splitsPerPartition;
+	}
+
+	/**
+	 * @param splitsPerPartition Number of ranges to cut the ring into per partition. Partitions take ranges from a
+	 *                           shared queue, so more ranges than partitions keeps a dense range from holding up the
+	 *                           scan. In RING mode, owned ranges are sub-split to a size that divides the ring into
+	 *                           about this many ranges per partition. Progress is checkpointed per range. Defaults to 1.
+	 */
+	public void setSplitsPerPartition(int splitsPerPartition) {
+		this.splitsPerPartition = splitsPerPartition;
+	}
+
 	public int getStatementRetries() {
 		return statementRetries;
 	}
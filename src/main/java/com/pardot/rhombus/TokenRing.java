@@ -0,0 +1,179 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.CQLExecutor;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.UUID;
+
+/**
+ * The tokens of a Murmur3 partitioned cluster and the host that owns each, read from the system tables. Each token
+ * ends a range of the ring that starts just past the token before it, and the range below the first token wraps
+ * around to the last.
+ */
+public class TokenRing {
+
+	private static final String MURMUR3_PARTITIONER = "org.apache.cassandra.dht.Murmur3Partitioner";
+	private static final BigInteger RING_SIZE = BigInteger.valueOf(Long.MAX_VALUE).subtract(BigInteger.valueOf(Long.MIN_VALUE)).add(BigInteger.ONE);
+
+	private static final Murmur3Partitioner PARTITIONER = new Murmur3Partitioner();
+
+	private final SortedMap<Long, UUID> tokenOwners;
+
+	/**
+	 * @param tokenOwners Host id of the owner of each token, must not be empty
+	 */
+	public TokenRing(SortedMap<Long, UUID> tokenOwners) {
+		if(tokenOwners.isEmpty()) {
+			throw new IllegalArgumentException("Token ring has no tokens");
+		}
+		this.tokenOwners = ImmutableSortedMap.copyOfSorted(tokenOwners);
+	}
+
+	/**
+	 * Read the ring from the system tables of the host the executor is connected to
+	 * @param cqlExecutor Executor for the cluster
+	 * @return The ring
+	 * @throws RhombusException if the cluster is not Murmur3 partitioned or reports no tokens
+	 */
+	public static TokenRing read(CQLExecutor cqlExecutor) throws RhombusException {
+		SortedMap<Long, UUID> tokenOwners = Maps.newTreeMap();
+		Row local = cqlExecutor.executeSync(CQLStatement.make("SELECT partitioner, host_id, tokens FROM system.local;", "local")).one();
+		if(local == null || !MURMUR3_PARTITIONER.equals(local.getString("partitioner"))) {
+			throw new RhombusException("Token ring splits require the Murmur3Partitioner");
+		}
+		addTokens(tokenOwners, local);
+		ResultSet peers = cqlExecutor.executeSync(CQLStatement.make("SELECT host_id, tokens FROM system.peers;", "peers"));
+		for(Row peer : peers) {
+			addTokens(tokenOwners, peer);
+		}
+		if(tokenOwners.isEmpty()) {
+			throw new RhombusException("Cluster reported no tokens");
+		}
+		return new TokenRing(tokenOwners);
+	}
+
+	private static void addTokens(SortedMap<Long, UUID> tokenOwners, Row row) {
+		for(String token : row.getSet("tokens", String.class)) {
+			tokenOwners.put(Long.parseLong(token), row.getUUID("host_id"));
+		}
+	}
+
+	/**
+	 * @param key Value of a partition key
+	 * @return The key serialized the way Cassandra stores it, or null if its type is not one Rhombus uses for keys
+	 */
+	public static ByteBuffer serializeKey(Object key) {
+		ByteBuffer serialized;
+		if(key instanceof UUID) {
+			serialized = ByteBuffer.allocate(16);
+			serialized.putLong(((UUID)key).getMostSignificantBits());
+			serialized.putLong(((UUID)key).getLeastSignificantBits());
+		} else if(key instanceof Long) {
+			serialized = ByteBuffer.allocate(8);
+			serialized.putLong((Long)key);
+		} else if(key instanceof Integer) {
+			serialized = ByteBuffer.allocate(4);
+			serialized.putInt((Integer)key);
+		} else if(key instanceof String) {
+			return ByteBuffer.wrap(((String)key).getBytes(Charsets.UTF_8));
+		} else {
+			return null;
+		}
+		serialized.flip();
+		return serialized;
+	}
+
+	/**
+	 * @param key Value of a partition key
+	 * @return Murmur3 token of the key, or null if it cannot be serialized
+	 */
+	public static Long getToken(Object key) {
+		ByteBuffer serialized = serializeKey(key);
+		return (serialized == null) ? null : PARTITIONER.getToken(serialized).token;
+	}
+
+	public SortedMap<Long, UUID> getTokenOwners() {
+		return tokenOwners;
+	}
+
+	/**
+	 * Split the ring along the owned ranges, sub-splitting any range longer than the target size into equal parts.
+	 * Every split lies inside one owned range, so all of it is stored on the same replicas. The splits are ordered
+	 * round robin across owners, so scanning consecutive splits at once spreads the reads over the cluster.
+	 * @param targetSplitSize Number of tokens a split should not exceed, apart from the last split of a range also
+	 *                        taking the few tokens left over from dividing the range
+	 * @return Inclusive start and end tokens of each split, covering the whole ring
+	 */
+	public List<Map.Entry<Long, Long>> split(BigInteger targetSplitSize) {
+		Map<UUID, List<Map.Entry<Long, Long>>> splitsByOwner = Maps.newLinkedHashMap();
+		Long previousToken = null;
+		for(Map.Entry<Long, UUID> tokenOwner : tokenOwners.entrySet()) {
+			long start = (previousToken == null) ? Long.MIN_VALUE : previousToken + 1;
+			addSplits(splitsByOwner, tokenOwner.getValue(), start, tokenOwner.getKey(), targetSplitSize);
+			previousToken = tokenOwner.getKey();
+		}
+		// The range past the last token wraps around to the first, so is owned by the owner of the first token
+		if(previousToken != Long.MAX_VALUE) {
+			addSplits(splitsByOwner, tokenOwners.get(tokenOwners.firstKey()), previousToken + 1, Long.MAX_VALUE, targetSplitSize);
+		}
+
+		List<Map.Entry<Long, Long>> splits = Lists.newArrayList();
+		List<Iterator<Map.Entry<Long, Long>>> ownerIterators = Lists.newArrayList();
+		for(List<Map.Entry<Long, Long>> ownerSplits : splitsByOwner.values()) {
+			ownerIterators.add(ownerSplits.iterator());
+		}
+		while(!ownerIterators.isEmpty()) {
+			Iterator<Iterator<Map.Entry<Long, Long>>> it = ownerIterators.iterator();
+			while(it.hasNext()) {
+				Iterator<Map.Entry<Long, Long>> ownerIterator = it.next();
+				if(ownerIterator.hasNext()) {
+					splits.add(ownerIterator.next());
+				} else {
+					it.remove();
+				}
+			}
+		}
+		return splits;
+	}
+
+	/**
+	 * @param numSplits Approximate number of splits wanted across the whole ring
+	 * @return Split size that divides the ring into about that many splits
+	 */
+	public static BigInteger targetSplitSize(int numSplits) {
+		return RING_SIZE.divide(BigInteger.valueOf(Math.max(numSplits, 1)));
+	}
+
+	private static void addSplits(Map<UUID, List<Map.Entry<Long, Long>>> splitsByOwner, UUID owner, long start, long end, BigInteger targetSplitSize) {
+		List<Map.Entry<Long, Long>> ownerSplits = splitsByOwner.get(owner);
+		if(ownerSplits == null) {
+			ownerSplits = Lists.newArrayList();
+			splitsByOwner.put(owner, ownerSplits);
+		}
+		BigInteger length = BigInteger.valueOf(end).subtract(BigInteger.valueOf(start)).add(BigInteger.ONE);
+		BigInteger[] quotientAndRemainder = length.divideAndRemainder(targetSplitSize.max(BigInteger.ONE));
+		BigInteger numSplits = quotientAndRemainder[0].add(quotientAndRemainder[1].signum() > 0 ? BigInteger.ONE : BigInteger.ZERO);
+		BigInteger splitLength = length.divide(numSplits);
+		BigInteger splitStart = BigInteger.valueOf(start);
+		for(long i = 0; i < numSplits.longValue() - 1; i++) {
+			BigInteger splitEnd = splitStart.add(splitLength).subtract(BigInteger.ONE);
+			ownerSplits.add(new AbstractMap.SimpleEntry<Long, Long>(splitStart.longValue(), splitEnd.longValue()));
+			splitStart = splitEnd.add(BigInteger.ONE);
+		}
+		ownerSplits.add(new AbstractMap.SimpleEntry<Long, Long>(splitStart.longValue(), end));
+	}
+}
@@ -1,8 +1,13 @@
 package com.pardot.rhombus.cli.commands;
 
 import com.pardot.rhombus.ConnectionManager;
+import com.pardot.rhombus.IndexBackfill;
+import com.pardot.rhombus.ObjectMapper;
+import com.pardot.rhombus.RhombusException;
+import com.pardot.rhombus.cobject.CIndex;
 import com.pardot.rhombus.cobject.CKeyspaceDefinition;
 import com.pardot.rhombus.cobject.statement.CQLStatement;
+import com.pardot.rhombus.cobject.migrations.CKeyspaceDefinitionMigrator;
 import com.pardot.rhombus.cobject.migrations.CObjectMigrationException;
 import com.pardot.rhombus.util.JsonUtil;
 import org.apache.commons.cli.CommandLine;
@@ -12,8 +17,10 @@ import org.apache.commons.cli.Options;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * User: Rob Righter
@@ -34,8 +41,31 @@ public class RunMigration extends RcliWithExistingKeyspace {
 				.withDescription("Resource filename of the new keyspace definition")
 				.create( "newkeyspaceresource" );
 		Option list = new Option( "l", "Only list the cql for the migration (does not run the migration)" );
+		Option backfill = new Option( "backfill", "After the migration, fill indexes added to existing objects with the objects already stored" );
+		Option backfillThreads = OptionBuilder.withArgName("threads")
+				.hasArg()
+				.withDescription("Number of threads to scan each object type with while backfilling (default 1)")
+				.create( "backfillthreads" );
+		Option backfillRate = OptionBuilder.withArgName("objects")
+				.hasArg()
+				.withDescription("Maximum objects per second to backfill (default unlimited)")
+				.create( "backfillrate" );
+		Option savepointDir = OptionBuilder.withArgName("directory")
+				.hasArg()
+				.withDescription("Directory to checkpoint the backfill in, so that it resumes where it stopped when run again")
+				.create( "savepointdir" );
+		Option backfillFrom = OptionBuilder.withArgName("filename")
+				.hasArg()
+				.withDescription("Filename of the keyspace definition to backfill the indexes added since, instead of the stored one. Use it to resume a backfill after its migration has run")
+				.create( "backfillfrom" );
 		ret.addOption(keyspaceFile);
 		ret.addOption(keyspaceResource);
+		ret.addOption(list);
+		ret.addOption(backfill);
+		ret.addOption(backfillThreads);
+		ret.addOption(backfillRate);
+		ret.addOption(savepointDir);
+		ret.addOption(backfillFrom);
 		return ret;
 	}
 
@@ -77,7 +107,24 @@ public class RunMigration extends RcliWithExistingKeyspace {
 		//now run the migration
 		try{
 			boolean printOnly = cl.hasOption("l");
-			return runMigration(this.getConnectionManager(), NewkeyDef, printOnly);
+			if(!cl.hasOption("backfill") || printOnly){
+				return runMigration(this.getConnectionManager(), NewkeyDef, printOnly);
+			}
+			//work out what needs backfilling before the migration replaces the stored definition
+			CKeyspaceDefinition oldKeyDef = cl.hasOption("backfillfrom") ?
+					JsonUtil.objectFromJsonFile(CKeyspaceDefinition.class, CKeyspaceDefinition.class.getClassLoader(), cl.getOptionValue("backfillfrom")) :
+					this.getConnectionManager().hydrateLatestKeyspaceDefinitionFromCassandra(NewkeyDef);
+			Map<String, List<CIndex>> newIndexes = (oldKeyDef == null) ? null : new CKeyspaceDefinitionMigrator(oldKeyDef, NewkeyDef).getNewIndexes();
+			if(!runMigration(this.getConnectionManager(), NewkeyDef, printOnly)){
+				return false;
+			}
+			if(newIndexes == null || newIndexes.isEmpty()){
+				System.out.println("No new indexes to backfill");
+				return true;
+			}
+			int threads = cl.hasOption("backfillthreads") ? Integer.parseInt(cl.getOptionValue("backfillthreads")) : 1;
+			double rate = cl.hasOption("backfillrate") ? Double.parseDouble(cl.getOptionValue("backfillrate")) : 0;
+			return runBackfill(this.getConnectionManager().getObjectMapper(NewkeyDef), newIndexes, threads, rate, cl.getOptionValue("savepointdir"));
 		}
 		catch (Exception e){
 			System.out.println("Error encountered while attempting to run migration");
@@ -89,13 +136,31 @@ public class RunMigration extends RcliWithExistingKeyspace {
 	public boolean runMigration(ConnectionManager cm, CKeyspaceDefinition oldDefinition, boolean printOnly) throws CObjectMigrationException {
 		if(printOnly){
 			//just print out a list of CQL statements for the migration
-			List<CQLStatement> torun = cm.runMigration(oldDefinition, printOnly);
+			List<CQLStatement> torun = cm.runMigration(oldDefinition, false);
 			for(CQLStatement c:torun){
 				System.out.println(c.getQuery());
 			}
 		} else {
 			//actually run the migration
-			cm.runMigration(oldDefinition, printOnly);
+			cm.runMigration(oldDefinition, true);
+		}
+		return true;
+	}
+
+	public boolean runBackfill(ObjectMapper om, Map<String, List<CIndex>> newIndexes, int threads, double objectsPerSecond, String savepointDirectory) throws RhombusException {
+		for(Map.Entry<String, List<CIndex>> entry : newIndexes.entrySet()){
+			String objectSavepointDirectory = null;
+			if(savepointDirectory != null){
+				//each object type is scanned separately, so keeps its own checkpoint
+				File directory = new File(savepointDirectory, entry.getKey());
+				directory.mkdirs();
+				objectSavepointDirectory = directory.getPath();
+			}
+			System.out.println("Backfilling " + entry.getValue().size() + " new indexes of " + entry.getKey());
+			IndexBackfill backfill = new IndexBackfill(om, entry.getKey(), entry.getValue(), threads, objectSavepointDirectory);
+			backfill.setMaxObjectsPerSecond(objectsPerSecond);
+			backfill.run();
+			System.out.println("Backfilled " + backfill.getObjectsWritten() + " objects of " + entry.getKey());
 		}
 		return true;
 	}
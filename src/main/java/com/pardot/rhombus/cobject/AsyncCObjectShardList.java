@@ -0,0 +1,21 @@
+package com.pardot.rhombus.cobject;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.UUID;
+
+/**
+ * Shard list that can be read without blocking the calling thread, for generating the statements of asynchronous
+ * queries
+ */
+public interface AsyncCObjectShardList extends CObjectShardList {
+
+	/**
+	 * Like getShardIdList, but returns without waiting for the shard index to be read
+	 * @return Future for the shard ids recorded in the shard index, in the given order
+	 */
+	ListenableFuture<List<Long>> getShardIdListAsync(CDefinition def, SortedMap<String,Object> indexValues, CObjectOrdering ordering, @Nullable UUID start, @Nullable UUID end) throws CQLGenerationException;
+}
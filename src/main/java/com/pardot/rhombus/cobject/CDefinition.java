@@ -6,6 +6,7 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.pardot.rhombus.util.MapToListSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -135,6 +136,39 @@ public class CDefinition {
 		return null;
 	}
 
+	/**
+	 * Pick indexes that can be intersected on id to cover the index keys, for when no single index covers them.
+	 * Indexes on more fields are preferred, then indexes by name so the choice does not depend on map order, and an
+	 * index is only picked if it covers a key not yet covered.
+	 * @param indexValues Index values from a query to get list of keys from
+	 * @return The indexes to intersect, or null if fewer than two indexes would be used
+	 */
+	public List<CIndex> getIntersectingIndexes(SortedMap<String,Object> indexValues) {
+		final Set<String> keys = indexValues.keySet();
+		List<CIndex> candidates = Lists.newArrayList();
+		for(CIndex index : indexesIndexedByFields.values()) {
+			if(keys.containsAll(index.getCompositeKeyList())) {
+				candidates.add(index);
+			}
+		}
+		Collections.sort(candidates, new Comparator<CIndex>() {
+			@Override
+			public int compare(CIndex a, CIndex b) {
+				int bySize = b.getCompositeKeyList().size() - a.getCompositeKeyList().size();
+				return (bySize != 0) ? bySize : a.getName().compareTo(b.getName());
+			}
+		});
+		Set<String> uncovered = Sets.newHashSet(keys);
+		List<CIndex> intersecting = Lists.newArrayList();
+		for(CIndex index : candidates) {
+			if(!Collections.disjoint(uncovered, index.getCompositeKeyList())) {
+				intersecting.add(index);
+				uncovered.removeAll(index.getCompositeKeyList());
+			}
+		}
+		return (intersecting.size() < 2) ? null : intersecting;
+	}
+
 	/**
 	 * @param field Name of field to check
 	 * @return true if the supplied field is used in any index
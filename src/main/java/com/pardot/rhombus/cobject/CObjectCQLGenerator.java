@@ -6,12 +6,22 @@ import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.datastax.driver.core.utils.UUIDs;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.pardot.rhombus.Criteria;
+import com.pardot.rhombus.TokenRing;
 import com.pardot.rhombus.cobject.shardingstrategy.ShardStrategyException;
 import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyNone;
+import com.pardot.rhombus.cobject.shardingstrategy.TimebasedShardingStrategy;
 import com.pardot.rhombus.cobject.statement.*;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.joda.time.DateTime;
@@ -22,6 +32,7 @@ import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.Executor;
 
 /**
  * Pardot, An ExactTarget Company
@@ -35,6 +46,14 @@ public class CObjectCQLGenerator {
 	protected static final String KEYSPACE_DEFINITIONS_TABLE_NAME = "__keyspace_definitions";
 	protected static final String INDEX_UPDATES_TABLE_NAME = "__index_updates";
 	public static final Long MAX_CQL_STATEMENT_LIMIT = 1000l;
+	/** Most buckets a single histogram may be split into */
+	public static final long MAX_HISTOGRAM_BUCKETS = 10000L;
+	/** Most count statements a single histogram may plan across all of its buckets */
+	public static final int MAX_HISTOGRAM_STATEMENTS = 100000;
+
+	// List query text only depends on the shape of the query, so it is built once per shape rather than once per query.
+	// Shapes are keyed by definition name, so the cache is cleared whenever definitions change.
+	private static final Cache<List<Object>, String> LIST_TEMPLATE_CACHE = CacheBuilder.newBuilder().maximumSize(1000).build();
 
 	protected static final String TEMPLATE_CREATE_STATIC = "CREATE TABLE \"%s\".\"%s\" (id %s PRIMARY KEY, %s);";
 	protected static final String TEMPLATE_CREATE_WIDE = "CREATE TABLE \"%s\".\"%s\" (id %s, shardid bigint, %s, PRIMARY KEY ((shardid, %s),id) );";
@@ -64,10 +83,13 @@ public class CObjectCQLGenerator {
 	protected static final String TEMPLATE_SCAN_TABLE_MIN_ID = "SELECT * FROM \"%s\".\"%s\" WHERE token(id) > token(?) AND token(id) <= ? LIMIT %d;";
 	protected static final String TEMPLATE_SELECT_TOKEN = "SELECT token(id) FROM \"%s\".\"%s\" WHERE id = ? LIMIT 1;";
 	protected static final String TEMPLATE_TABLE_SCAN = "SELECT * FROM \"%s\".\"%s\";";
+	protected static final String TEMPLATE_TABLE_SCAN_TOKEN_RANGE = "SELECT * FROM \"%s\".\"%s\" WHERE token(id) >= ? AND token(id) <= ?;";
 	protected static final String TEMPLATE_ADD_FIELD = "ALTER TABLE \"%s\".\"%s\" add %s %s";
 
 	protected Map<String, CDefinition> definitions;
 	protected CObjectShardList shardList;
+	private boolean skipEmptyShards = false;
+	private boolean bindListLimit = false;
 	private Integer consistencyHorizon;
 	private String keyspace;
 
@@ -100,6 +122,15 @@ public class CObjectCQLGenerator {
 	 */
 	public void setDefinitions(Map<String, CDefinition> objectDefinitions){
 		this.definitions = objectDefinitions;
+		clearListTemplateCache();
+	}
+
+	/**
+	 * Forget the query text built for list queries, which has to be done when a definition is replaced by one of the
+	 * same name
+	 */
+	public static void clearListTemplateCache() {
+		LIST_TEMPLATE_CACHE.invalidateAll();
 	}
 
 	/**
@@ -244,6 +275,42 @@ public class CObjectCQLGenerator {
 		return makeCQLforInsert(this.keyspace, this.definitions.get(objType), data, key, timestamp, ttl);
 	}
 
+	/**
+	 * Make the statements that write an existing object into some of its indexes, without touching its static row or
+	 * its other indexes. Indexes the object has no values for are left out. The statements carry no timestamp, like
+	 * every other write, so they win over any update made to the object since it was read. Only backfill while
+	 * updates and deletes of the type are stopped.
+	 * @param objType - The name of the Object type aka CDefinition.name
+	 * @param data - The object as read from its static table
+	 * @param indexes - The indexes to write the object into
+	 * @return Iterator of CQL statements that need to be executed for this task.
+	 * @throws CQLGenerationException
+	 */
+	@NotNull
+	public CQLStatementIterator makeCQLforIndexBackfill(String objType, Map<String,Object> data, Collection<CIndex> indexes) throws CQLGenerationException {
+		CDefinition def = this.definitions.get(objType);
+		Object key = data.get("id");
+		if(key == null){
+			throw new CQLGenerationException("Cannot backfill indexes for an object without an id");
+		}
+		// Only write the values the object has, as an insert of it would
+		Map<String,Object> values = Maps.newHashMap();
+		for(Map.Entry<String,Object> entry : data.entrySet()){
+			if(entry.getValue() != null){
+				values.put(entry.getKey(), entry.getValue());
+			}
+		}
+		Map<String,ArrayList> fieldsAndValues = makeFieldAndValueList(def, values);
+		List<CQLStatement> ret = Lists.newArrayList();
+		for(CIndex i : indexes){
+			if(!i.validateIndexKeys(i.getIndexKeyAndValues(values))){
+				continue;
+			}
+			addCQLStatmentsForIndexInsert(this.keyspace, true, ret, def, values, i, key, fieldsAndValues, null, null);
+		}
+		return new BoundedCQLStatementIterator(ret);
+	}
+
 	/**
 	 *
 	 * @param objType - The name of the Object type aka CDefinition.name
@@ -271,6 +338,18 @@ public class CObjectCQLGenerator {
 		return makeCQLforTableScan(this.keyspace, this.definitions.get(objType));
 	}
 
+	/**
+	 * @param objType - The name of the Object type aka CDefinition.name
+	 * @param startToken - First token of the range, inclusive
+	 * @param endToken - Last token of the range, inclusive
+	 * @return Statement selecting every object whose id token falls in the range, for the driver to page through
+	 */
+	public CQLStatement makeCQLforTableScan(String objType, long startToken, long endToken){
+		String cql = String.format(TEMPLATE_TABLE_SCAN_TOKEN_RANGE, this.keyspace, objType);
+		Object[] values = {startToken, endToken};
+		return CQLStatement.make(cql, objType, values);
+	}
+
 	/**
 	 *
 	 * @param objType - The name of the Object type aka CDefinition.name
@@ -280,17 +359,118 @@ public class CObjectCQLGenerator {
 	 */
 	@NotNull
 	public CQLStatementIterator makeCQLforList(String objType, Criteria criteria, boolean countOnly) throws CQLGenerationException {
+		return makeCQLforList(objType, criteria, countOnly, null);
+	}
+
+	/**
+	 * @param objType - The name of the Object type aka CDefinition.name
+	 * @param criteria - The criteria object describing which rows to retrieve
+	 * @param countOnly - true means you want a count of rows, false means you want the rows themselves
+	 * @param resumeShardIds - Shards left to query when resuming an earlier query, in order, or null to find the shards from the criteria
+	 * @return Iterator of CQL statements that need to be executed for this task.
+	 */
+	@NotNull
+	public CQLStatementIterator makeCQLforList(String objType, Criteria criteria, boolean countOnly, @Nullable List<Long> resumeShardIds) throws CQLGenerationException {
+		UUID endUuid = (criteria.getEndUuid() == null ? UUIDs.startOf(DateTime.now().getMillis()) : criteria.getEndUuid());
+		return makeCQLforList(objType, criteria, endUuid, countOnly, resumeShardIds, shardList);
+	}
+
+	/**
+	 * Like makeCQLforList, but the shard index is read without blocking, and the statements are generated once it has
+	 * been read. Criteria the statements cannot be generated for are still rejected before this returns.
+	 * @param objType - The name of the Object type aka CDefinition.name
+	 * @param criteria - The criteria object describing which rows to retrieve
+	 * @param countOnly - true means you want a count of rows, false means you want the rows themselves
+	 * @param asyncShardList - Shard list to read the shard index from
+	 * @param executor - Executor to generate the statements on once the shard index has been read
+	 * @return Future for the iterator of CQL statements that need to be executed for this task.
+	 */
+	@NotNull
+	public ListenableFuture<CQLStatementIterator> makeCQLforListAsync(final String objType, final Criteria criteria, final boolean countOnly,
+																	  AsyncCObjectShardList asyncShardList, Executor executor) throws CQLGenerationException {
+		// The end is fixed up front so both passes generate statements for the same range
+		final UUID endUuid = (criteria.getEndUuid() == null ? UUIDs.startOf(DateTime.now().getMillis()) : criteria.getEndUuid());
+		// The first pass only finds out which shard index lookup the statements need, if any
+		ShardListLookup lookup = new ShardListLookup();
+		CQLStatementIterator statementIterator = makeCQLforList(objType, criteria, endUuid, countOnly, null, lookup);
+		if(lookup.def == null) {
+			return Futures.immediateFuture(statementIterator);
+		}
+		ListenableFuture<List<Long>> shardIds = asyncShardList.getShardIdListAsync(lookup.def, lookup.indexValues, lookup.ordering, lookup.start, lookup.end);
+		return Futures.transform(shardIds, new AsyncFunction<List<Long>, CQLStatementIterator>() {
+			public ListenableFuture<CQLStatementIterator> apply(final List<Long> shardIds) throws Exception {
+				return Futures.immediateFuture(makeCQLforList(objType, criteria, endUuid, countOnly, null, new CObjectShardList() {
+					public List<Long> getShardIdList(CDefinition def, SortedMap<String, Object> indexValues, CObjectOrdering ordering, @Nullable UUID start, @Nullable UUID end) {
+						return shardIds;
+					}
+				}));
+			}
+		}, executor);
+	}
+
+	private CQLStatementIterator makeCQLforList(String objType, Criteria criteria, UUID endUuid, boolean countOnly,
+												@Nullable List<Long> resumeShardIds, CObjectShardList shardList) throws CQLGenerationException {
 		CDefinition definition = this.definitions.get(objType);
 		CObjectOrdering ordering = (criteria.getOrdering() != null ? criteria.getOrdering(): CObjectOrdering.DESCENDING);
-		UUID endUuid = (criteria.getEndUuid() == null ? UUIDs.startOf(DateTime.now().getMillis()) : criteria.getEndUuid());
 		return makeCQLforList(this.keyspace, shardList, definition, criteria.getIndexKeys(), ordering, criteria.getStartUuid(),
-				endUuid, criteria.getLimit(), criteria.getInclusive(), countOnly, criteria.getAllowFiltering());
+				endUuid, criteria.getLimit(), criteria.getInclusive(), countOnly, criteria.getAllowFiltering(), criteria.getProjection(),
+				skipEmptyShards, bindListLimit, resumeShardIds);
+	}
+
+	/**
+	 * Shard list that records the lookup it was asked for instead of reading the shard index
+	 */
+	private static class ShardListLookup implements CObjectShardList {
+		private CDefinition def;
+		private SortedMap<String, Object> indexValues;
+		private CObjectOrdering ordering;
+		private UUID start;
+		private UUID end;
+
+		public List<Long> getShardIdList(CDefinition def, SortedMap<String, Object> indexValues, CObjectOrdering ordering, @Nullable UUID start, @Nullable UUID end) {
+			this.def = def;
+			this.indexValues = indexValues;
+			this.ordering = ordering;
+			this.start = start;
+			this.end = end;
+			return Collections.emptyList();
+		}
 	}
 
 	@NotNull
 	protected static CQLStatementIterator makeCQLforList(String keyspace, CObjectShardList shardList, CDefinition def, SortedMap<String,Object> indexValues,
 														 CObjectOrdering ordering, @Nullable UUID start, @Nullable UUID end, Long limit,
 														 boolean inclusive, boolean countOnly, boolean allowFiltering) throws CQLGenerationException {
+		return makeCQLforList(keyspace, shardList, def, indexValues, ordering, start, end, limit, inclusive, countOnly, allowFiltering, null);
+	}
+
+	@NotNull
+	protected static CQLStatementIterator makeCQLforList(String keyspace, CObjectShardList shardList, CDefinition def, SortedMap<String,Object> indexValues,
+														 CObjectOrdering ordering, @Nullable UUID start, @Nullable UUID end, Long limit,
+														 boolean inclusive, boolean countOnly, boolean allowFiltering, @Nullable Collection<String> projection) throws CQLGenerationException {
+		return makeCQLforList(keyspace, shardList, def, indexValues, ordering, start, end, limit, inclusive, countOnly, allowFiltering, projection, false, false);
+	}
+
+	/**
+	 * @param skipEmptyShards - true to look up which shards in a bounded range are recorded in the shard index, and only query those
+	 * @param bindLimit - true to leave the LIMIT as a bind marker rather than writing it into the query text
+	 */
+	@NotNull
+	protected static CQLStatementIterator makeCQLforList(String keyspace, CObjectShardList shardList, CDefinition def, SortedMap<String,Object> indexValues,
+														 CObjectOrdering ordering, @Nullable UUID start, @Nullable UUID end, Long limit,
+														 boolean inclusive, boolean countOnly, boolean allowFiltering, @Nullable Collection<String> projection,
+														 boolean skipEmptyShards, boolean bindLimit) throws CQLGenerationException {
+		return makeCQLforList(keyspace, shardList, def, indexValues, ordering, start, end, limit, inclusive, countOnly, allowFiltering, projection, skipEmptyShards, bindLimit, null);
+	}
+
+	/**
+	 * @param resumeShardIds - Shards left to query when resuming an earlier query, in order, or null to find the shards from the other arguments
+	 */
+	@NotNull
+	protected static CQLStatementIterator makeCQLforList(String keyspace, CObjectShardList shardList, CDefinition def, SortedMap<String,Object> indexValues,
+														 CObjectOrdering ordering, @Nullable UUID start, @Nullable UUID end, Long limit,
+														 boolean inclusive, boolean countOnly, boolean allowFiltering, @Nullable Collection<String> projection,
+														 boolean skipEmptyShards, boolean bindLimit, @Nullable List<Long> resumeShardIds) throws CQLGenerationException {
 		// Get matching index from definition
 		CIndex i = def.getIndex(indexValues, allowFiltering);
 		if(i == null){
@@ -320,15 +500,12 @@ public class CObjectCQLGenerator {
 			throw new CQLGenerationException(String.format("Cannot query index %s on CDefinition %s with the provided list of index values",i.getName(),def.getName()));
 		}
 
-		CQLStatement whereCQL = makeAndedEqualList(def,indexValues);
-		String whereQuery = whereCQL.getQuery();
-		List<Object> values = new ArrayList<Object>(Arrays.asList(whereCQL.getValues()));
+		// Index values are bound in key order, the same order makeAndedEqualList writes them into the where clause
+		List<Object> values = new ArrayList<Object>(indexValues.values());
 		if(start != null){
-			whereQuery += " AND id >" + (inclusive ? "= " : " ") + "?";
 			values.add(start);
 		}
 		if(end != null){
-			whereQuery += " AND id <" + (inclusive ? "= " : " ") + "?";
 			values.add(end);
 		}
 
@@ -338,34 +515,38 @@ public class CObjectCQLGenerator {
 			if(limit <= 0 || limit > MAX_CQL_STATEMENT_LIMIT) {
 				limit = MAX_CQL_STATEMENT_LIMIT;
 			}
-			limitCQL = "LIMIT %d";
+			limitCQL = bindLimit ? "LIMIT ?" : "LIMIT %d";
 		}
 
-		// TODO: if we feel like it's worth the trouble, for count queries with client side filters, only select the fields needed to satisfy the filters
-		// note that doing so will also require modifying ObjectMapper.mapResult() so it only maps fields that exist in the row
-		String CQLTemplate = String.format(
-				TEMPLATE_SELECT_WIDE,
-				// If this was a count query and filtering was allowed and client filters weren't defined, just do a count query because we don't need to apply filters
-				// Otherwise if this was a count query, but allowFiltering was true and we have client-side filters to apply, do a full row query so we can apply the filters
-				countOnly && !(allowFiltering && hasClientFilters) ? "count(*)":"*",
-				keyspace,
-				makeTableName(def, i),
-				"?",
-				whereQuery,
-				ordering,
-				limitCQL);
+		String tableName = makeTableName(def, i);
+		List<Object> templateKey = Arrays.<Object>asList(keyspace, def.getName(), tableName, ordering, start != null, end != null, inclusive,
+				countOnly, limitCQL, hasClientFilters ? ImmutableSet.copyOf(clientFilters.keySet()) : null,
+				projection == null ? null : ImmutableSet.copyOf(projection));
+		String CQLTemplate = LIST_TEMPLATE_CACHE.getIfPresent(templateKey);
+		if(CQLTemplate == null) {
+			CQLTemplate = makeListTemplate(keyspace, def, i, indexValues, ordering, start != null, end != null, inclusive,
+					countOnly, clientFilters, projection, limitCQL);
+			LIST_TEMPLATE_CACHE.put(templateKey, CQLTemplate);
+		}
 
-		CQLStatement templateCQLStatement = CQLStatement.make(CQLTemplate, makeTableName(def, i), values.toArray());
+		CQLStatement templateCQLStatement = CQLStatement.make(CQLTemplate, tableName, values.toArray());
 
 		Long startTime = (start == null) ? null : UUIDs.unixTimestamp(start);
 		Long endTime = (end == null) ? null : UUIDs.unixTimestamp(end);
 
-		CQLStatementIterator returnIterator = null;
-		if((startTime != null && endTime != null) || (i.getShardingStrategy() instanceof ShardingStrategyNone)) {
+		BaseCQLStatementIterator returnIterator = null;
+		if(resumeShardIds != null) {
+			//the shards were already found by the query being resumed
+			returnIterator = new BoundedLazyCQLStatementIterator(resumeShardIds, templateCQLStatement, limit, ordering, def.getName());
+		} else if((startTime != null && endTime != null) || (i.getShardingStrategy() instanceof ShardingStrategyNone)) {
 			//the query is either bounded or unsharded, so we do not need to check the shardindex
 			try {
 				Range<Long> shardIdRange = i.getShardingStrategy().getShardKeyRange(startTime,endTime);
-				returnIterator = new UnboundableCQLStatementIterator(shardIdRange, limit, ordering, templateCQLStatement, def.getName());
+				List<Long> occupiedShards = null;
+				if(skipEmptyShards && !(i.getShardingStrategy() instanceof ShardingStrategyNone)) {
+					occupiedShards = shardList.getShardIdList(def, indexValues, CObjectOrdering.ASCENDING, start, end);
+				}
+				returnIterator = new UnboundableCQLStatementIterator(shardIdRange, occupiedShards, limit, ordering, templateCQLStatement, def.getName());
 			}
 			catch(ShardStrategyException e){
 				throw new CQLGenerationException(e.getMessage());
@@ -376,15 +557,152 @@ public class CObjectCQLGenerator {
 					shardList.getShardIdList(def,indexValues,ordering,start,end),
 					templateCQLStatement,
 					limit,
+					ordering,
 					def.getName()
 			);
 		}
 
 		// Set the client filters on the returned iterator so the client can take care of them
 		returnIterator.setClientFilters(clientFilters);
+		returnIterator.setBindLimit(bindLimit && !limitCQL.isEmpty());
 		return returnIterator;
 	}
 
+	/**
+	 * Build the query text for a list or count, with the shard id as the first bind marker and the limit left
+	 * for the statement iterator to fill in
+	 */
+	private static String makeListTemplate(String keyspace, CDefinition def, CIndex i, SortedMap<String,Object> indexValues,
+										   CObjectOrdering ordering, boolean hasStart, boolean hasEnd, boolean inclusive, boolean countOnly,
+										   @Nullable Map<String, Object> clientFilters, @Nullable Collection<String> projection,
+										   String limitCQL) throws CQLGenerationException {
+		boolean hasClientFilters = clientFilters != null && !clientFilters.isEmpty();
+		String whereQuery = makeAndedEqualList(def,indexValues).getQuery();
+		if(hasStart){
+			whereQuery += " AND id >" + (inclusive ? "= " : " ") + "?";
+		}
+		if(hasEnd){
+			whereQuery += " AND id <" + (inclusive ? "= " : " ") + "?";
+		}
+
+		String selectCQL;
+		if(countOnly && !hasClientFilters) {
+			// If this was a count query and client filters weren't defined, just do a count query because we don't need to apply filters
+			selectCQL = "count(*)";
+		} else if(countOnly) {
+			// Otherwise if this was a count query, but we have client-side filters to apply, only select what the filters need
+			selectCQL = makeSelectList(def, Collections.<String>emptyList(), clientFilters.keySet());
+		} else if(projection != null && !projection.isEmpty()) {
+			selectCQL = makeSelectList(def, projection, hasClientFilters ? clientFilters.keySet() : Collections.<String>emptySet());
+		} else {
+			selectCQL = "*";
+		}
+
+		return String.format(
+				TEMPLATE_SELECT_WIDE,
+				selectCQL,
+				keyspace,
+				makeTableName(def, i),
+				"?",
+				whereQuery,
+				ordering,
+				limitCQL);
+	}
+
+	/**
+	 * @param objType - The name of the Object type aka CDefinition.name
+	 * @param criteria - The criteria describing which rows to count. Requires a start uuid, and the end defaults to now.
+	 * @param bucketSize - Width of each bucket in milliseconds, starting from the start of the criteria
+	 * @return For each bucket in time order, the count statements that need to be executed and summed for that bucket
+	 */
+	@NotNull
+	public List<List<CQLStatement>> makeCQLforHistogram(String objType, Criteria criteria, long bucketSize) throws CQLGenerationException {
+		CDefinition definition = this.definitions.get(objType);
+		UUID endUuid = (criteria.getEndUuid() == null ? UUIDs.startOf(DateTime.now().getMillis()) : criteria.getEndUuid());
+		return makeCQLforHistogram(this.keyspace, shardList, definition, criteria.getIndexKeys(), criteria.getStartUuid(),
+				endUuid, criteria.getInclusive(), bucketSize, skipEmptyShards);
+	}
+
+	/**
+	 * Plan one count statement per shard per bucket. A shard that lies entirely within a bucket is counted without
+	 * bounds on id, and only the shards a bucket boundary falls inside are split with bounded id ranges, so buckets
+	 * wider than the shards cost one statement per shard. Histograms over more than MAX_HISTOGRAM_BUCKETS buckets or
+	 * MAX_HISTOGRAM_STATEMENTS statements are rejected rather than planned.
+	 * @param skipEmptyShards - true to look up which shards are recorded in the shard index, and only count those
+	 */
+	@NotNull
+	protected static List<List<CQLStatement>> makeCQLforHistogram(String keyspace, CObjectShardList shardList, CDefinition def, SortedMap<String,Object> indexValues,
+																  UUID start, UUID end, boolean inclusive, long bucketSize,
+																  boolean skipEmptyShards) throws CQLGenerationException {
+		if(start == null || end == null) {
+			throw new CQLGenerationException("Histograms require a start and an end uuid");
+		}
+		if(bucketSize <= 0) {
+			throw new CQLGenerationException("Histogram bucket size must be greater than 0");
+		}
+		CIndex i = def.getIndex(indexValues, false);
+		if(i == null){
+			throw new CQLGenerationException(String.format("Could not find specified index on CDefinition %s",def.getName()));
+		}
+		if(!i.validateIndexKeys(indexValues)){
+			throw new CQLGenerationException(String.format("Cannot query index %s on CDefinition %s with the provided list of index values",i.getName(),def.getName()));
+		}
+		long startTime = UUIDs.unixTimestamp(start);
+		long endTime = UUIDs.unixTimestamp(end);
+		if(endTime < startTime) {
+			throw new CQLGenerationException("Histogram end uuid must not be before its start uuid");
+		}
+		long bucketCount = (endTime - startTime) / bucketSize + 1;
+		if(bucketCount > MAX_HISTOGRAM_BUCKETS) {
+			throw new CQLGenerationException(String.format("Histogram would have %d buckets, more than the maximum of %d", bucketCount, MAX_HISTOGRAM_BUCKETS));
+		}
+
+		String tableName = makeTableName(def, i);
+		String boundedQuery = makeListTemplate(keyspace, def, i, indexValues, CObjectOrdering.ASCENDING, true, true, inclusive, true, null, null, "");
+		String wholeShardQuery = makeListTemplate(keyspace, def, i, indexValues, CObjectOrdering.ASCENDING, false, false, inclusive, true, null, null, "");
+
+		TimebasedShardingStrategy shardingStrategy = i.getShardingStrategy();
+		Set<Long> occupiedShards = null;
+		if(skipEmptyShards && !(shardingStrategy instanceof ShardingStrategyNone)) {
+			occupiedShards = Sets.newHashSet(shardList.getShardIdList(def, indexValues, CObjectOrdering.ASCENDING, start, end));
+		}
+
+		List<List<CQLStatement>> buckets = Lists.newArrayListWithCapacity((int)bucketCount);
+		int statementCount = 0;
+		for(long bucketStart = startTime; bucketStart <= endTime; bucketStart += bucketSize) {
+			long bucketEnd = Math.min(bucketStart + bucketSize - 1, endTime);
+			// Inner bucket boundaries cover every uuid of their first and last millisecond
+			UUID bucketStartUuid = (bucketStart == startTime) ? start : UUIDs.startOf(bucketStart);
+			UUID bucketEndUuid = (bucketEnd == endTime) ? end : UUIDs.endOf(bucketEnd);
+			long firstShard = shardingStrategy.getShardKey(bucketStart);
+			long lastShard = shardingStrategy.getShardKey(bucketEnd);
+			boolean startsOnShardBoundary = bucketStart != startTime && shardingStrategy.getShardKey(bucketStart - 1) != firstShard;
+			boolean endsOnShardBoundary = bucketEnd != endTime && shardingStrategy.getShardKey(bucketEnd + 1) != lastShard;
+
+			List<CQLStatement> statements = Lists.newArrayList();
+			for(long shardId = firstShard; shardId <= lastShard; shardId++) {
+				if(occupiedShards != null && !occupiedShards.contains(shardId)) {
+					continue;
+				}
+				if(++statementCount > MAX_HISTOGRAM_STATEMENTS) {
+					throw new CQLGenerationException(String.format("Histogram would need more than the maximum of %d count statements", MAX_HISTOGRAM_STATEMENTS));
+				}
+				List<Object> values = Lists.<Object>newArrayList(shardId);
+				values.addAll(indexValues.values());
+				boolean wholeShard = (shardId != firstShard || startsOnShardBoundary) && (shardId != lastShard || endsOnShardBoundary);
+				if(wholeShard) {
+					statements.add(CQLStatement.make(wholeShardQuery, tableName, values.toArray()));
+				} else {
+					values.add(bucketStartUuid);
+					values.add(bucketEndUuid);
+					statements.add(CQLStatement.make(boundedQuery, tableName, values.toArray()));
+				}
+			}
+			buckets.add(statements);
+		}
+		return buckets;
+	}
+
 	/**
 	 *
 	 * @return an iterator for getting all the keyspace definitions
@@ -823,6 +1141,16 @@ public class CObjectCQLGenerator {
 				values);
 	}
 
+	/**
+	 * @param statement Statement to check
+	 * @return true if the statement records an insert into a shard in the shard index. Its values are then
+	 * the index table name, the index values string, the shard id and the target row key.
+	 */
+	public boolean isShardIndexInsert(CQLStatement statement) {
+		return CObjectShardList.SHARD_INDEX_TABLE_NAME.equals(statement.getObjectName())
+				&& statement.getQuery().equals(String.format(TEMPLATE_INSERT_WIDE_INDEX, keyspace, CObjectShardList.SHARD_INDEX_TABLE_NAME));
+	}
+
 	public static CQLStatementIterator makeCQLforInsertKeyspaceDefinition(@NotNull String keyspace, @NotNull String name, @NotNull String keyspaceDefinition, @NotNull UUID id) throws CQLGenerationException{
 		ArrayList<CQLStatement> ret = Lists.newArrayList();
 		ret.add(CQLStatement.make(String.format(TEMPLATE_INSERT_KEYSPACE, keyspace),
@@ -926,6 +1254,8 @@ public class CObjectCQLGenerator {
 		values[0] = startId;
 		values[1] = endToken;
 		CQLStatement statement = CQLStatement.make(cql, objectType, values);
+		// Rows just past startId are almost always stored on the same replicas, so route to a replica of startId
+		statement.setRoutingKey(TokenRing.serializeKey(startId));
 		List<CQLStatement> ret = Lists.newArrayList();
 		ret.add(statement);
 		return new BoundedCQLStatementIterator(ret);
@@ -1074,6 +1404,25 @@ public class CObjectCQLGenerator {
 		return true;
 	}
 
+	/**
+	 * @param def Definition being selected from
+	 * @param projection Fields requested
+	 * @param filterFields Fields needed to apply client side filters
+	 * @return Comma separated list of id, the projected fields and the filter fields
+	 * @throws CQLGenerationException if a field is not part of the definition
+	 */
+	protected static String makeSelectList(CDefinition def, Collection<String> projection, Collection<String> filterFields) throws CQLGenerationException {
+		Set<String> columns = Sets.newLinkedHashSet();
+		columns.add("id");
+		for(String field : Iterables.concat(projection, filterFields)) {
+			if(!field.equals("id") && !def.getFields().containsKey(field)) {
+				throw new CQLGenerationException(String.format("Field %s does not exist on CDefinition %s", field, def.getName()));
+			}
+			columns.add(field);
+		}
+		return makeCommaList(Lists.newArrayList(columns));
+	}
+
 	protected static CQLStatement makeAndedEqualList(CDefinition def, Map<String,Object> data){
 		String query = "";
 		List values = Lists.newArrayList();
@@ -1143,4 +1492,28 @@ public class CObjectCQLGenerator {
 		this.shardList = shardList;
 	}
 
+	public boolean isBindListLimit() {
+		return bindListLimit;
+	}
+
+	/**
+	 * @param bindListLimit true to bind the LIMIT of list and count queries as a value, so every limit shares one
+	 *                      prepared statement, rather than writing it into the query text
+	 */
+	public void setBindListLimit(boolean bindListLimit) {
+		this.bindListLimit = bindListLimit;
+	}
+
+	public boolean isSkipEmptyShards() {
+		return skipEmptyShards;
+	}
+
+	/**
+	 * @param skipEmptyShards true to have list and count queries bounded by both a start and an end only query the shards
+	 *                        recorded in the shard index for their index values, instead of every shard in the range
+	 */
+	public void setSkipEmptyShards(boolean skipEmptyShards) {
+		this.skipEmptyShards = skipEmptyShards;
+	}
+
 }
\ No newline at end of file
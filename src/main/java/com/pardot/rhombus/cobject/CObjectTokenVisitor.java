@@ -41,6 +41,13 @@ public abstract class CObjectTokenVisitor {
 		}
 	}
 
+	/**
+	 * Called by TableScanner after each batch is visited, before the scan records its progress, so a visitor that
+	 * works in the background can finish the batch first. Throwing stops the scan of the visitor's partition.
+	 */
+	public void flush() {
+	}
+
 	public long getTokenLogInterval() {
 		return tokenLogInterval;
 	}
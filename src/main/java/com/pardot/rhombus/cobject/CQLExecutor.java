@@ -14,6 +14,7 @@ import com.yammer.metrics.core.TimerContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -53,7 +54,19 @@ public class CQLExecutor {
 		if(ps == null){
 			ps = prepareStatement(session, cql);
 		}
-		BoundStatement ret = new BoundStatement(ps);
+		BoundStatement ret;
+		final ByteBuffer routingKey = cql.getRoutingKey();
+		if(routingKey == null) {
+			ret = new BoundStatement(ps);
+		} else {
+			// Bound statements only route by the partition key columns they bind, so give an explicit key instead
+			ret = new BoundStatement(ps) {
+				@Override
+				public ByteBuffer getRoutingKey() {
+					return routingKey.duplicate();
+				}
+			};
+		}
 		ret.bind(cql.getValues());
 		if(enableTrace) {
 			ret.enableTracing();
@@ -119,6 +132,53 @@ public class CQLExecutor {
 		}
 	}
 
+	/**
+	 * Execute a statement whose results are paged by the driver
+	 * @param cql Statement to execute
+	 * @param fetchSize Number of rows the driver fetches per page
+	 * @return Result set that fetches further pages as it is consumed
+	 */
+	public ResultSet executeSync(CQLStatement cql, int fetchSize) {
+		if(logCql) {
+			logger.debug("Executing CQL with fetch size {}: {}", fetchSize, cql.getQuery());
+			if(cql.getValues() != null) {
+				logger.debug("With values: {}", StringUtil.detailedListToString(Arrays.asList(cql.getValues())));
+			}
+		}
+		Statement statement = getPagedStatement(cql, fetchSize);
+		try {
+			return session.execute(statement);
+		} catch(NoHostAvailableException e) {
+			throw new RhombusTimeoutException(e);
+		} catch(QueryExecutionException e2) {
+			throw new RhombusTimeoutException(e2);
+		}
+	}
+
+	public ResultSetFuture executeAsync(CQLStatement cql, int fetchSize){
+		if(logCql) {
+			logger.debug("Executing CQL with fetch size {}: {}", fetchSize, cql.getQuery());
+			if(cql.getValues() != null) {
+				logger.debug("With values: {}", Arrays.asList(cql.getValues()));
+			}
+		}
+		Statement statement = getPagedStatement(cql, fetchSize);
+		ResultSetFuture result = session.executeAsync(statement);
+		com.yammer.metrics.Metrics.defaultRegistry().newMeter(CQLExecutor.class, "statement.executed", "executed", TimeUnit.SECONDS).mark();
+		return result;
+	}
+
+	private Statement getPagedStatement(CQLStatement cql, int fetchSize) {
+		Statement statement;
+		if(cql.isPreparable()) {
+			statement = getBoundStatement(session, cql);
+		} else {
+			statement = new SimpleStatement(cql.getQuery());
+		}
+		statement.setFetchSize(fetchSize);
+		return statement;
+	}
+
 	public ResultSetFuture executeAsync(CQLStatement cql){
 		if(logCql) {
 			logger.debug("Executing CQL: {}", cql.getQuery());
@@ -139,6 +199,33 @@ public class CQLExecutor {
 		}
 	}
 
+	/**
+	 * Wait on a future returned from executeAsync, translating driver failures the same way executeSync does
+	 * @param future Future returned from executeAsync
+	 * @return Result set for the future
+	 */
+	public ResultSet awaitResult(ResultSetFuture future) {
+		try {
+			return future.getUninterruptibly();
+		} catch(NoHostAvailableException e) {
+			throw new RhombusTimeoutException(e);
+		} catch(QueryExecutionException e2) {
+			throw new RhombusTimeoutException(e2);
+		}
+	}
+
+	/**
+	 * Translate a failure of a future returned from executeAsync the same way awaitResult does
+	 * @param t Cause of the failure
+	 * @return Exception to fail with
+	 */
+	public static Throwable translateFailure(Throwable t) {
+		if(t instanceof NoHostAvailableException || t instanceof QueryExecutionException) {
+			return new RhombusTimeoutException((Exception)t);
+		}
+		return t;
+	}
+
 	public void executeBatch(List<CQLStatementIterator> statementIterators) {
 		BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.UNLOGGED);
 		for(CQLStatementIterator statementIterator : statementIterators) {
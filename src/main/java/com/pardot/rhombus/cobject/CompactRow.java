@@ -0,0 +1,163 @@
+package com.pardot.rhombus.cobject;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A mapped object stored as an array of values against a field schema shared by every row of the same definition,
+ * instead of a hash map with an entry per field. Every field of the schema is always present, possibly with a null value.
+ * Values of existing fields can be replaced, but fields cannot be added or removed.
+ */
+public class CompactRow extends AbstractMap<String, Object> {
+
+	private final Schema schema;
+	private final Object[] values;
+
+	CompactRow(Schema schema, Object[] values) {
+		this.schema = schema;
+		this.values = values;
+	}
+
+	@Override
+	public int size() {
+		return values.length;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return schema.indexOf(key) >= 0;
+	}
+
+	@Override
+	public Object get(Object key) {
+		int index = schema.indexOf(key);
+		return index < 0 ? null : values[index];
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		int index = schema.indexOf(key);
+		if(index < 0) {
+			throw new UnsupportedOperationException("Field " + key + " is not part of this object");
+		}
+		Object previous = values[index];
+		values[index] = value;
+		return previous;
+	}
+
+	@Override
+	public Set<Entry<String, Object>> entrySet() {
+		return new AbstractSet<Entry<String, Object>>() {
+			@Override
+			public Iterator<Entry<String, Object>> iterator() {
+				return new Iterator<Entry<String, Object>>() {
+					private int next = 0;
+
+					public boolean hasNext() {
+						return next < values.length;
+					}
+
+					public Entry<String, Object> next() {
+						if(!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						return new CompactEntry(next++);
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException("Fields cannot be removed from a compact row");
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return values.length;
+			}
+		};
+	}
+
+	private class CompactEntry implements Entry<String, Object> {
+		private final int index;
+
+		private CompactEntry(int index) {
+			this.index = index;
+		}
+
+		public String getKey() {
+			return schema.names[index];
+		}
+
+		public Object getValue() {
+			return values[index];
+		}
+
+		public Object setValue(Object value) {
+			Object previous = values[index];
+			values[index] = value;
+			return previous;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Entry)) {
+				return false;
+			}
+			Entry e = (Entry)o;
+			return getKey().equals(e.getKey()) && (getValue() == null ? e.getValue() == null : getValue().equals(e.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			return getKey().hashCode() ^ (getValue() == null ? 0 : getValue().hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+
+	/**
+	 * Field names and their positions, shared by every compact row mapped for a definition
+	 */
+	public static class Schema {
+		private final String[] names;
+		private final Map<String, Integer> indexes;
+
+		public Schema(String[] names) {
+			this.names = names.clone();
+			ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+			for(int i = 0; i < names.length; i++) {
+				builder.put(names[i], i);
+			}
+			this.indexes = builder.build();
+		}
+
+		public int size() {
+			return names.length;
+		}
+
+		/**
+		 * @param values Values in schema order. The array is used directly, not copied.
+		 * @return Row backed by the values
+		 */
+		public CompactRow newRow(Object[] values) {
+			if(values.length != names.length) {
+				throw new IllegalArgumentException("Expected " + names.length + " values but got " + values.length);
+			}
+			return new CompactRow(this, values);
+		}
+
+		private int indexOf(Object name) {
+			Integer index = indexes.get(name);
+			return index == null ? -1 : index;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.pardot.rhombus.cobject;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process ObjectCache bounded by number of objects and by how long ago they were read. Objects are copied on the
+ * way in and out so callers can modify what they get back.
+ */
+public class GuavaObjectCache implements ObjectCache {
+
+	private final Cache<List<Object>, Map<String, Object>> cache;
+
+	/**
+	 * @param maximumSize Maximum number of objects to cache
+	 * @param ttl How long an object is served from the cache after it is read
+	 * @param ttlUnit Unit of ttl
+	 */
+	public GuavaObjectCache(long maximumSize, long ttl, TimeUnit ttlUnit) {
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(ttl, ttlUnit)
+				.recordStats()
+				.build();
+	}
+
+	@Override
+	@Nullable
+	public Map<String, Object> get(String objectType, Object key) {
+		Map<String, Object> object = cache.getIfPresent(makeKey(objectType, key));
+		return (object == null) ? null : Maps.newHashMap(object);
+	}
+
+	@Override
+	public void put(String objectType, Object key, Map<String, Object> object) {
+		cache.put(makeKey(objectType, key), Maps.newHashMap(object));
+	}
+
+	@Override
+	public void invalidate(String objectType, Object key) {
+		cache.invalidate(makeKey(objectType, key));
+	}
+
+	@Override
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	@Override
+	public long getHitCount() {
+		return cache.stats().hitCount();
+	}
+
+	@Override
+	public long getMissCount() {
+		return cache.stats().missCount();
+	}
+
+	private static List<Object> makeKey(String objectType, Object key) {
+		return Arrays.asList(objectType, key);
+	}
+}
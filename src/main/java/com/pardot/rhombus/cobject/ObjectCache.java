@@ -0,0 +1,38 @@
+package com.pardot.rhombus.cobject;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+
+/**
+ * Cache of objects by type and key that getByKey reads through. Writes made through the ObjectMapper invalidate
+ * the objects they touch.
+ */
+public interface ObjectCache {
+
+	/**
+	 * @param objectType Type of object
+	 * @param key Key of object
+	 * @return Cached object, or null if not cached
+	 */
+	@Nullable
+	Map<String, Object> get(String objectType, Object key);
+
+	/**
+	 * @param objectType Type of object
+	 * @param key Key of object
+	 * @param object Object as read from the static table
+	 */
+	void put(String objectType, Object key, Map<String, Object> object);
+
+	/**
+	 * @param objectType Type of object
+	 * @param key Key of object that was written
+	 */
+	void invalidate(String objectType, Object key);
+
+	void invalidateAll();
+
+	long getHitCount();
+
+	long getMissCount();
+}
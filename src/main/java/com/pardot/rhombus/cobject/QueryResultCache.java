@@ -0,0 +1,186 @@
+package com.pardot.rhombus.cobject;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.Criteria;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the results of list and count queries that end behind the consistency horizon, since those keep returning
+ * the same objects until one of them is updated or deleted. Entries are bounded both in number and in estimated
+ * bytes, and every entry for an object type is dropped at once by bumping that type's generation, which is part of
+ * every key.
+ */
+public class QueryResultCache {
+
+	private static final int MAP_OVERHEAD_BYTES = 64;
+	private static final int ENTRY_OVERHEAD_BYTES = 32;
+	private static final int VALUE_BYTES = 16;
+
+	private final Cache<List<Object>, Object> cache;
+	private final ConcurrentMap<String, AtomicLong> generations = Maps.newConcurrentMap();
+
+	/**
+	 * @param maximumEntries Maximum number of query results to cache
+	 * @param maximumBytes Maximum estimated size of all cached query results
+	 */
+	public QueryResultCache(long maximumEntries, long maximumBytes) {
+		// Guava caches cannot be bounded by both size and weight, so every entry weighs at least its share of the
+		// byte bound, which keeps the number of entries within maximumEntries as well
+		final long minimumWeight = Math.max(1L, maximumBytes / Math.max(1L, maximumEntries));
+		this.cache = CacheBuilder.newBuilder()
+				.maximumWeight(maximumBytes)
+				.weigher(new Weigher<List<Object>, Object>() {
+					@Override
+					public int weigh(List<Object> key, Object value) {
+						return (int)Math.min(Integer.MAX_VALUE, Math.max(minimumWeight, estimateBytes(value)));
+					}
+				})
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * @param objectType Type of object queried
+	 * @return Current generation of the object type, to be passed to put once the query completes
+	 */
+	public long getGeneration(String objectType) {
+		return getGenerationCounter(objectType).get();
+	}
+
+	/**
+	 * @param objectType Type of object queried
+	 * @param criteria Criteria of the list query
+	 * @return Copies of the cached objects, which the caller may modify, or null if not cached
+	 */
+	@SuppressWarnings("unchecked")
+	@Nullable
+	public List<Map<String, Object>> getList(String objectType, Criteria criteria) {
+		List<Map<String, Object>> results = (List<Map<String, Object>>)cache.getIfPresent(makeKey(objectType, getGeneration(objectType), false, criteria));
+		return (results == null) ? null : copyResults(results);
+	}
+
+	/**
+	 * @param objectType Type of object queried
+	 * @param generation Generation of the object type from before the query was executed
+	 * @param criteria Criteria of the list query
+	 * @param results Objects returned by the query, which are copied so the caller may go on modifying them
+	 */
+	public void putList(String objectType, long generation, Criteria criteria, List<Map<String, Object>> results) {
+		cache.put(makeKey(objectType, generation, false, criteria), ImmutableList.copyOf(copyResults(results)));
+	}
+
+	/**
+	 * @param objectType Type of object queried
+	 * @param criteria Criteria of the count query
+	 * @return Cached count, or null if not cached
+	 */
+	@Nullable
+	public Long getCount(String objectType, Criteria criteria) {
+		return (Long)cache.getIfPresent(makeKey(objectType, getGeneration(objectType), true, criteria));
+	}
+
+	/**
+	 * @param objectType Type of object queried
+	 * @param generation Generation of the object type from before the query was executed
+	 * @param criteria Criteria of the count query
+	 * @param count Count returned by the query
+	 */
+	public void putCount(String objectType, long generation, Criteria criteria, long count) {
+		cache.put(makeKey(objectType, generation, true, criteria), count);
+	}
+
+	/**
+	 * Stop serving any result cached for the object type
+	 * @param objectType Type of object that was modified
+	 */
+	public void invalidate(String objectType) {
+		getGenerationCounter(objectType).incrementAndGet();
+	}
+
+	/**
+	 * Stop serving any cached result. Every generation is bumped as well, so a query already in flight cannot put
+	 * back a result from before the invalidation.
+	 */
+	public void invalidateAll() {
+		for(AtomicLong generation : generations.values()) {
+			generation.incrementAndGet();
+		}
+		cache.invalidateAll();
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	public long getHitCount() {
+		return cache.stats().hitCount();
+	}
+
+	public long getMissCount() {
+		return cache.stats().missCount();
+	}
+
+	private AtomicLong getGenerationCounter(String objectType) {
+		AtomicLong generation = generations.get(objectType);
+		if(generation == null) {
+			generations.putIfAbsent(objectType, new AtomicLong());
+			generation = generations.get(objectType);
+		}
+		return generation;
+	}
+
+	private static List<Map<String, Object>> copyResults(List<Map<String, Object>> results) {
+		List<Map<String, Object>> copies = Lists.newArrayListWithCapacity(results.size());
+		for(Map<String, Object> result : results) {
+			copies.add(Maps.newHashMap(result));
+		}
+		return copies;
+	}
+
+	/**
+	 * Build a key from the criteria with defaults filled in, so equivalent criteria share an entry
+	 */
+	private static List<Object> makeKey(String objectType, long generation, boolean countOnly, Criteria criteria) {
+		Map<String, Object> indexKeys = (criteria.getIndexKeys() == null) ? null : Maps.newTreeMap(criteria.getIndexKeys());
+		CObjectOrdering ordering = (criteria.getOrdering() == null) ? CObjectOrdering.DESCENDING : criteria.getOrdering();
+		Long limit = (criteria.getLimit() == null) ? 0L : criteria.getLimit();
+		Boolean inclusive = (criteria.getInclusive() == null) ? Boolean.TRUE : criteria.getInclusive();
+		Boolean allowFiltering = (criteria.getAllowFiltering() == null) ? Boolean.FALSE : criteria.getAllowFiltering();
+		Object projection = (countOnly || criteria.getProjection() == null || criteria.getProjection().isEmpty()) ? null : ImmutableSet.copyOf(criteria.getProjection());
+		Boolean intersectIndexes = Boolean.TRUE.equals(criteria.getIntersectIndexes());
+		Map<String, List<Object>> multiValueIndexKeys = (criteria.getMultiValueIndexKeys() == null || criteria.getMultiValueIndexKeys().isEmpty()) ? null : Maps.newTreeMap(criteria.getMultiValueIndexKeys());
+		return Arrays.asList(objectType, generation, countOnly, indexKeys, ordering, criteria.getStartUuid(),
+				criteria.getEndUuid(), limit, inclusive, allowFiltering, projection, multiValueIndexKeys, intersectIndexes);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static long estimateBytes(Object value) {
+		if(!(value instanceof List)) {
+			return VALUE_BYTES;
+		}
+		long bytes = ENTRY_OVERHEAD_BYTES;
+		for(Map<String, Object> result : (List<Map<String, Object>>)value) {
+			bytes += MAP_OVERHEAD_BYTES;
+			for(Map.Entry<String, Object> entry : result.entrySet()) {
+				bytes += ENTRY_OVERHEAD_BYTES + VALUE_BYTES;
+				Object fieldValue = entry.getValue();
+				if(fieldValue instanceof CharSequence) {
+					bytes += 2L * ((CharSequence)fieldValue).length();
+				}
+			}
+		}
+		return bytes;
+	}
+}
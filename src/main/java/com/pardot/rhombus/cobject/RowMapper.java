@@ -0,0 +1,214 @@
+package com.pardot.rhombus.cobject;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.Row;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps rows on to objects of a single CDefinition. Column indexes and the typed accessor for each field are resolved
+ * once for a given set of result columns, so mapping a row is a walk over arrays rather than a lookup by name per field.
+ */
+public class RowMapper {
+
+	private final CDefinition definition;
+	private final ColumnDefinitions columns;
+	private final String[] names;
+	private final int[] indexes;
+	private final FieldAccessor[] accessors;
+	private final CompactRow.Schema schema;
+
+	public RowMapper(CDefinition definition, ColumnDefinitions columns) {
+		this.definition = definition;
+		this.columns = columns;
+		Map<String, CField> fields = definition.getFields();
+		List<String> names = Lists.newArrayList();
+		List<Integer> indexes = Lists.newArrayList();
+		List<FieldAccessor> accessors = Lists.newArrayList();
+		// id is always mapped, as a uuid if the definition does not declare it
+		if(!fields.containsKey("id") && columns.contains("id")) {
+			names.add("id");
+			indexes.add(columns.getIndexOf("id"));
+			accessors.add(accessorFor(CField.CDataType.UUID));
+		}
+		for(CField field : fields.values()) {
+			// Fields that were not selected are left out of the object entirely
+			if(columns.contains(field.getName())) {
+				names.add(field.getName());
+				indexes.add(columns.getIndexOf(field.getName()));
+				accessors.add(accessorFor(field.getType()));
+			}
+		}
+		this.names = names.toArray(new String[names.size()]);
+		this.indexes = Ints.toArray(indexes);
+		this.accessors = accessors.toArray(new FieldAccessor[accessors.size()]);
+		this.schema = new CompactRow.Schema(this.names);
+	}
+
+	/**
+	 * @param row Row to map, which must have the columns this mapper was compiled for
+	 * @return Data contained in the row mapped to the object described by the definition.
+	 * Fields without a column in the row are not included.
+	 */
+	public Map<String, Object> map(Row row) {
+		Map<String, Object> result = Maps.newHashMapWithExpectedSize(names.length);
+		for(int i = 0; i < names.length; i++) {
+			result.put(names[i], getValue(row, i));
+		}
+		return result;
+	}
+
+	/**
+	 * Same as map, but the object is a CompactRow holding its values in an array against a schema shared by
+	 * every row this mapper produces
+	 * @param row Row to map, which must have the columns this mapper was compiled for
+	 * @return Data contained in the row mapped to the object described by the definition.
+	 */
+	public CompactRow mapCompact(Row row) {
+		Object[] values = new Object[names.length];
+		for(int i = 0; i < names.length; i++) {
+			values[i] = getValue(row, i);
+		}
+		return schema.newRow(values);
+	}
+
+	private Object getValue(Row row, int field) {
+		int index = indexes[field];
+		if(row.isNull(index)) {
+			return null;
+		}
+		return accessors[field].get(row, index);
+	}
+
+	/**
+	 * @param definition Definition rows will be mapped on to
+	 * @param columns Columns of the result set rows come from
+	 * @return true if this mapper can be used for the definition and columns
+	 */
+	public boolean isCompiledFor(CDefinition definition, ColumnDefinitions columns) {
+		if(this.definition != definition) {
+			return false;
+		}
+		if(this.columns == columns) {
+			return true;
+		}
+		// Result sets for the same statement usually have equivalent but not identical column definitions
+		if(this.columns.size() != columns.size()) {
+			return false;
+		}
+		for(int i = 0; i < columns.size(); i++) {
+			if(!this.columns.getName(i).equals(columns.getName(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param columns Columns of a result set
+	 * @return The column names in order, which identify the mapper compiled for them
+	 */
+	public static String columnsKey(ColumnDefinitions columns) {
+		StringBuilder key = new StringBuilder();
+		for(int i = 0; i < columns.size(); i++) {
+			if(i > 0) {
+				key.append(',');
+			}
+			key.append(columns.getName(i));
+		}
+		return key.toString();
+	}
+
+	public CDefinition getDefinition() {
+		return definition;
+	}
+
+	private static FieldAccessor accessorFor(CField.CDataType type) {
+		switch(type) {
+			case ASCII:
+			case VARCHAR:
+			case TEXT:
+				return new FieldAccessor() {
+					public Object get(Row row, int index) {
+						return row.getString(index);
+					}
+				};
+			case BIGINT:
+			case COUNTER:
+				return new FieldAccessor() {
+					public Object get(Row row, int index) {
+						return row.getLong(index);
+					}
+				};
+			case BLOB:
+				return new FieldAccessor() {
+					public Object get(Row row, int index) {
+						return row.getBytes(index);
+					}
+				};
+			case BOOLEAN:
+				return new FieldAccessor() {
+					public Object get(Row row, int index) {
+						return row.getBool(index);
+					}
+				};
+			case DECIMAL:
+				return new FieldAccessor() {
+					public Object get(Row row, int index) {
+						return row.getDecimal(index);
+					}
+				};
+			case DOUBLE:
+				return new FieldAccessor() {
+					public Object get(Row row, int index) {
+						return row.getDouble(index);
+					}
+				};
+			case FLOAT:
+				return new FieldAccessor() {
+					public Object get(Row row, int index) {
+						return row.getFloat(index);
+					}
+				};
+			case INT:
+				return new FieldAccessor() {
+					public Object get(Row row, int index) {
+						return row.getInt(index);
+					}
+				};
+			case TIMESTAMP:
+				return new FieldAccessor() {
+					public Object get(Row row, int index) {
+						return row.getDate(index);
+					}
+				};
+			case UUID:
+			case TIMEUUID:
+				return new FieldAccessor() {
+					public Object get(Row row, int index) {
+						return row.getUUID(index);
+					}
+				};
+			case VARINT:
+				return new FieldAccessor() {
+					public Object get(Row row, int index) {
+						return row.getVarint(index);
+					}
+				};
+			default:
+				return new FieldAccessor() {
+					public Object get(Row row, int index) {
+						return null;
+					}
+				};
+		}
+	}
+
+	private interface FieldAccessor {
+		Object get(Row row, int index);
+	}
+}
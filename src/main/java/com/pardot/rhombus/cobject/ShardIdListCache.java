@@ -0,0 +1,176 @@
+package com.pardot.rhombus.cobject;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the complete list of shard ids recorded in the shard index for an index table and set of index values,
+ * so unbounded list queries can skip the shard index lookup. Entries are bounded in number, expire a fixed time
+ * after they are loaded, and have new shards appended to them as this process records inserts into them.
+ * Shards recorded by other processes only show up once the entry expires. Shards recorded while an entry is being
+ * loaded are collected and merged into it when it is put, so they are not lost to a load that read the shard index
+ * just before they were inserted.
+ */
+public class ShardIdListCache {
+
+	private final Cache<List<String>, NavigableSet<Long>> cache;
+	// Shards recorded for each entry being loaded, one set per load in progress. Guarded by itself.
+	private final Map<List<String>, Set<NavigableSet<Long>>> loading = Maps.newHashMap();
+	private volatile int loadsInProgress = 0;
+
+	/**
+	 * @param maximumSize Maximum number of index value combinations to cache shard ids for
+	 * @param ttl How long a shard id list is used after it is loaded from the shard index
+	 * @param ttlUnit Unit of ttl
+	 */
+	public ShardIdListCache(long maximumSize, long ttl, TimeUnit ttlUnit) {
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(ttl, ttlUnit)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * @param tableName Name of the index table
+	 * @param indexValues Index values string as stored in the shard index
+	 * @return Every shard id recorded for the index values, in ascending order, or null if not cached
+	 */
+	@Nullable
+	public NavigableSet<Long> get(String tableName, String indexValues) {
+		return cache.getIfPresent(makeKey(tableName, indexValues));
+	}
+
+	/**
+	 * @param tableName Name of the index table
+	 * @param indexValues Index values string as stored in the shard index
+	 * @param shardIds Every shard id recorded for the index values
+	 */
+	public void put(String tableName, String indexValues, Collection<Long> shardIds) {
+		cache.put(makeKey(tableName, indexValues), new ConcurrentSkipListSet<Long>(shardIds));
+	}
+
+	/**
+	 * Start loading the shard id list for index values from the shard index. Shards recorded from now until the
+	 * load is put or cancelled are collected for it.
+	 * @param tableName Name of the index table
+	 * @param indexValues Index values string as stored in the shard index
+	 * @return Shards recorded during the load, to pass to put or cancelLoad
+	 */
+	public NavigableSet<Long> beginLoad(String tableName, String indexValues) {
+		List<String> key = makeKey(tableName, indexValues);
+		NavigableSet<Long> recorded = new ConcurrentSkipListSet<Long>();
+		synchronized (loading) {
+			Set<NavigableSet<Long>> loads = loading.get(key);
+			if(loads == null) {
+				loads = Sets.newIdentityHashSet();
+				loading.put(key, loads);
+			}
+			loads.add(recorded);
+			loadsInProgress++;
+		}
+		return recorded;
+	}
+
+	/**
+	 * Finish a load started with beginLoad, caching the shard ids it read along with any recorded while it ran
+	 * @param tableName Name of the index table
+	 * @param indexValues Index values string as stored in the shard index
+	 * @param shardIds Every shard id read from the shard index
+	 * @param recorded Returned by beginLoad
+	 */
+	public void put(String tableName, String indexValues, Collection<Long> shardIds, NavigableSet<Long> recorded) {
+		NavigableSet<Long> loaded = new ConcurrentSkipListSet<Long>(shardIds);
+		synchronized (loading) {
+			endLoad(makeKey(tableName, indexValues), recorded);
+			loaded.addAll(recorded);
+			cache.put(makeKey(tableName, indexValues), loaded);
+		}
+	}
+
+	/**
+	 * Abandon a load started with beginLoad without caching anything
+	 * @param tableName Name of the index table
+	 * @param indexValues Index values string as stored in the shard index
+	 * @param recorded Returned by beginLoad
+	 */
+	public void cancelLoad(String tableName, String indexValues, NavigableSet<Long> recorded) {
+		synchronized (loading) {
+			endLoad(makeKey(tableName, indexValues), recorded);
+		}
+	}
+
+	private void endLoad(List<String> key, NavigableSet<Long> recorded) {
+		Set<NavigableSet<Long>> loads = loading.get(key);
+		if(loads != null && loads.remove(recorded)) {
+			loadsInProgress--;
+			if(loads.isEmpty()) {
+				loading.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Add a shard to the cached list for the index values, if there is one, since an insert into it is being recorded
+	 * @param tableName Name of the index table
+	 * @param indexValues Index values string as stored in the shard index
+	 * @param shardId Shard being inserted into
+	 */
+	public void recordShardInsert(String tableName, String indexValues, long shardId) {
+		// Go through the map view so recording inserts does not count towards the hit rate
+		List<String> key = makeKey(tableName, indexValues);
+		if(loadsInProgress > 0) {
+			// Recorded under the same lock that puts loads, so the shard goes into the load or the loaded entry
+			synchronized (loading) {
+				Set<NavigableSet<Long>> loads = loading.get(key);
+				if(loads != null) {
+					for(NavigableSet<Long> recorded : loads) {
+						recorded.add(shardId);
+					}
+				}
+				addToEntry(key, shardId);
+			}
+		} else {
+			addToEntry(key, shardId);
+		}
+	}
+
+	private void addToEntry(List<String> key, long shardId) {
+		NavigableSet<Long> shardIds = cache.asMap().get(key);
+		if(shardIds != null) {
+			shardIds.add(shardId);
+		}
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	public long getHitCount() {
+		return cache.stats().hitCount();
+	}
+
+	public long getMissCount() {
+		return cache.stats().missCount();
+	}
+
+	private static List<String> makeKey(String tableName, String indexValues) {
+		return Arrays.asList(tableName, indexValues);
+	}
+}
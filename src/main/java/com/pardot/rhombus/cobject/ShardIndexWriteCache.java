@@ -0,0 +1,61 @@
+package com.pardot.rhombus.cobject;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the shard index rows this process has recently written, so inserts into a shard that is already recorded
+ * in the shard index do not write the same row again. Rows are only remembered once their write has succeeded, and
+ * are forgotten after a fixed window so they are periodically written again.
+ */
+public class ShardIndexWriteCache {
+
+	private final Cache<List<Object>, Boolean> cache;
+
+	/**
+	 * @param maximumSize Maximum number of shard index rows to remember
+	 * @param window How long after a shard index row is written to skip writing it again
+	 * @param windowUnit Unit of window
+	 */
+	public ShardIndexWriteCache(long maximumSize, long window, TimeUnit windowUnit) {
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(window, windowUnit)
+				.build();
+	}
+
+	/**
+	 * @param tableName Name of the index table
+	 * @param indexValues Index values string as stored in the shard index
+	 * @param shardId Shard id
+	 * @return true if this shard index row was written within the window
+	 */
+	public boolean isRecentlyWritten(String tableName, String indexValues, long shardId) {
+		return cache.getIfPresent(makeKey(tableName, indexValues, shardId)) != null;
+	}
+
+	/**
+	 * @param tableName Name of the index table
+	 * @param indexValues Index values string as stored in the shard index
+	 * @param shardId Shard id
+	 */
+	public void recordWrite(String tableName, String indexValues, long shardId) {
+		cache.put(makeKey(tableName, indexValues, shardId), Boolean.TRUE);
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	private static List<Object> makeKey(String tableName, String indexValues, long shardId) {
+		return Arrays.<Object>asList(tableName, indexValues, shardId);
+	}
+}
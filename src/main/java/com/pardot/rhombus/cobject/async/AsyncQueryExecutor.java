@@ -0,0 +1,241 @@
+package com.pardot.rhombus.cobject.async;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.pardot.rhombus.RhombusException;
+import com.pardot.rhombus.cobject.CQLExecutor;
+import com.pardot.rhombus.cobject.statement.CQLStatementIterator;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the statements of a list or count query without blocking a thread while they execute. Each statement is sent
+ * from the callback of the statement before it, or for counts up to concurrency at a time, and the returned future
+ * completes once the query has its results.
+ */
+public class AsyncQueryExecutor {
+
+	private final CQLExecutor cqlExecutor;
+	private final CQLStatementIterator statementIterator;
+	private final Executor callbackExecutor;
+	private final int statementLimit;
+	private int statementNumber = 0;
+
+	/**
+	 * @param cqlExecutor Executor to send statements through
+	 * @param statementIterator Statements of the query
+	 * @param callbackExecutor Runs the callbacks that map results and send the following statements. Callbacks do
+	 *                         not block, but may prepare statements, so should not run on driver threads.
+	 * @param statementLimit Fail the query rather than execute more than this many statements, 0 for no limit
+	 */
+	public AsyncQueryExecutor(CQLExecutor cqlExecutor, CQLStatementIterator statementIterator, Executor callbackExecutor, int statementLimit) {
+		this.cqlExecutor = cqlExecutor;
+		this.statementIterator = statementIterator;
+		this.callbackExecutor = callbackExecutor;
+		this.statementLimit = statementLimit;
+	}
+
+	/**
+	 * Read the shards one at a time, paging within a shard from the id of the first row past each page
+	 * @param rowMapper Maps a row on to an object
+	 * @param filter Objects not matching this predicate are skipped
+	 * @param limit Maximum number of objects to return, must be greater than 0
+	 * @return Future for the objects in the order they were read
+	 */
+	public ListenableFuture<List<Map<String, Object>>> list(Function<Row, Map<String, Object>> rowMapper, Predicate<Map<String, Object>> filter, long limit) {
+		ListQuery query = new ListQuery(rowMapper, filter, limit);
+		query.nextShard();
+		return query.future;
+	}
+
+	/**
+	 * Sum the count(*) statements of every shard, with at most concurrency of them in flight at once
+	 * @param limit Stop counting and cancel any statements still in flight once the count reaches limit. 0 for no limit.
+	 * @param concurrency Maximum number of statements in flight
+	 * @return Future for the sum of the shard counts, capped at limit
+	 */
+	public ListenableFuture<Long> count(long limit, int concurrency) {
+		CountQuery query = new CountQuery(limit, Math.max(concurrency, 1));
+		query.sendStatements();
+		return query.future;
+	}
+
+	/**
+	 * @return Number of statements sent so far
+	 */
+	public synchronized int getStatementNumber() {
+		return statementNumber;
+	}
+
+	private synchronized ResultSetFuture executeNext() throws RhombusException {
+		if(statementLimit > 0 && statementNumber >= statementLimit) {
+			throw new RhombusException("Query attempted to execute more than " + statementLimit + " statements.");
+		}
+		ResultSetFuture future = cqlExecutor.executeAsync(statementIterator.next());
+		statementNumber++;
+		return future;
+	}
+
+	/**
+	 * Only one statement of a list is in flight at a time, so its state is only touched by one callback at a time
+	 */
+	private class ListQuery implements FutureCallback<ResultSet> {
+		private final Function<Row, Map<String, Object>> rowMapper;
+		private final Predicate<Map<String, Object>> filter;
+		private final long limit;
+		private final List<Map<String, Object>> results = Lists.newArrayList();
+		private final SettableFuture<List<Map<String, Object>>> future = SettableFuture.create();
+		private long requested = 0;
+
+		private ListQuery(Function<Row, Map<String, Object>> rowMapper, Predicate<Map<String, Object>> filter, long limit) {
+			this.rowMapper = rowMapper;
+			this.filter = filter;
+			this.limit = limit;
+		}
+
+		private void nextShard() {
+			if(!statementIterator.hasNext()) {
+				future.set(results);
+				return;
+			}
+			statementIterator.nextShard();
+			statementIterator.setNextUuid(null);
+			sendStatement();
+		}
+
+		private void sendStatement() {
+			// Ask for one row more than is still needed, whose id starts the next page of this shard
+			requested = limit - results.size() + 1;
+			statementIterator.setLimit(requested);
+			try {
+				Futures.addCallback(executeNext(), this, callbackExecutor);
+			} catch(Exception e) {
+				future.setException(e);
+			}
+		}
+
+		@Override
+		public void onSuccess(ResultSet resultSet) {
+			try {
+				long rowNumber = 0;
+				UUID nextUuid = null;
+				for(Row row : resultSet) {
+					rowNumber++;
+					if(rowNumber == requested) {
+						nextUuid = row.getUUID("id");
+						break;
+					}
+					Map<String, Object> result = rowMapper.apply(row);
+					if(filter.apply(result)) {
+						results.add(result);
+					}
+				}
+				if(results.size() >= limit) {
+					future.set(results);
+				} else if(nextUuid != null) {
+					statementIterator.setNextUuid(nextUuid);
+					sendStatement();
+				} else {
+					nextShard();
+				}
+			} catch(Exception e) {
+				future.setException(e);
+			}
+		}
+
+		@Override
+		public void onFailure(Throwable t) {
+			future.setException(CQLExecutor.translateFailure(t));
+		}
+	}
+
+	/**
+	 * Several statements of a count are in flight at once, so its state is guarded by the query
+	 */
+	private class CountQuery {
+		private final long limit;
+		private final int concurrency;
+		private final Set<ResultSetFuture> inFlight = Sets.newHashSet();
+		private final SettableFuture<Long> future = SettableFuture.create();
+		private long resultCount = 0;
+		private boolean done = false;
+
+		private CountQuery(long limit, int concurrency) {
+			this.limit = limit;
+			this.concurrency = concurrency;
+		}
+
+		private synchronized void sendStatements() {
+			while(!done && inFlight.size() < concurrency && statementIterator.hasNext()) {
+				statementIterator.nextShard();
+				final ResultSetFuture statementFuture;
+				try {
+					statementFuture = executeNext();
+				} catch(Exception e) {
+					fail(e);
+					return;
+				}
+				inFlight.add(statementFuture);
+				Futures.addCallback(statementFuture, new FutureCallback<ResultSet>() {
+					@Override
+					public void onSuccess(ResultSet resultSet) {
+						completed(statementFuture, resultSet.one().getLong(0));
+					}
+
+					@Override
+					public void onFailure(Throwable t) {
+						fail(CQLExecutor.translateFailure(t));
+					}
+				}, callbackExecutor);
+			}
+			if(!done && inFlight.isEmpty()) {
+				done = true;
+				future.set(resultCount);
+			}
+		}
+
+		private synchronized void completed(ResultSetFuture statementFuture, long count) {
+			if(done) {
+				return;
+			}
+			inFlight.remove(statementFuture);
+			resultCount += count;
+			if(limit > 0 && resultCount >= limit) {
+				done = true;
+				cancelInFlight();
+				future.set(limit);
+				return;
+			}
+			sendStatements();
+		}
+
+		private synchronized void fail(Throwable t) {
+			if(done) {
+				return;
+			}
+			done = true;
+			cancelInFlight();
+			future.setException(t);
+		}
+
+		private void cancelInFlight() {
+			for(ResultSetFuture statementFuture : inFlight) {
+				statementFuture.cancel(true);
+			}
+			inFlight.clear();
+		}
+	}
+}
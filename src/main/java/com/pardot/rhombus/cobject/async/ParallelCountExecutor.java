@@ -0,0 +1,108 @@
+package com.pardot.rhombus.cobject.async;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.pardot.rhombus.cobject.CQLExecutor;
+import com.pardot.rhombus.cobject.statement.CQLStatementIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs the count(*) statement for every shard of a count query asynchronously, keeping at most concurrency
+ * statements in flight and summing the counts in whatever order they complete.
+ */
+public class ParallelCountExecutor {
+
+	private static Logger logger = LoggerFactory.getLogger(ParallelCountExecutor.class);
+
+	private final CQLExecutor cqlExecutor;
+	private final CQLStatementIterator statementIterator;
+	private final int concurrency;
+	private int statementNumber = 0;
+
+	public ParallelCountExecutor(CQLExecutor cqlExecutor, CQLStatementIterator statementIterator, int concurrency) {
+		this.cqlExecutor = cqlExecutor;
+		this.statementIterator = statementIterator;
+		this.concurrency = Math.max(concurrency, 1);
+	}
+
+	/**
+	 * @param limit Stop counting and cancel any statements still in flight once the count reaches limit. 0 for no limit.
+	 * @return Sum of the shard counts, capped at limit
+	 */
+	public long count(long limit) {
+		return execute(limit, null);
+	}
+
+	/**
+	 * @return The count returned by each statement, in the order the statements were iterated
+	 */
+	public long[] countEach() {
+		List<Long> counts = Lists.newArrayList();
+		execute(0L, counts);
+		return Longs.toArray(counts);
+	}
+
+	private long execute(long limit, @Nullable List<Long> counts) {
+		long resultCount = 0;
+		Map<ResultSetFuture, Integer> inFlight = Maps.newHashMap();
+		final BlockingQueue<ResultSetFuture> completed = new LinkedBlockingQueue<ResultSetFuture>();
+		try {
+			while(statementIterator.hasNext() || !inFlight.isEmpty()) {
+				while(inFlight.size() < concurrency && statementIterator.hasNext()) {
+					statementIterator.nextShard();
+					final ResultSetFuture future = cqlExecutor.executeAsync(statementIterator.next());
+					inFlight.put(future, statementNumber);
+					statementNumber++;
+					if(counts != null) {
+						counts.add(0L);
+					}
+					future.addListener(new Runnable() {
+						public void run() {
+							completed.add(future);
+						}
+					}, MoreExecutors.sameThreadExecutor());
+				}
+				ResultSetFuture future = Uninterruptibles.takeUninterruptibly(completed);
+				int index = inFlight.remove(future);
+				ResultSet resultSet = cqlExecutor.awaitResult(future);
+				long count = resultSet.one().getLong(0);
+				if(counts != null) {
+					counts.set(index, count);
+				}
+				resultCount += count;
+				if(limit > 0 && resultCount >= limit) {
+					logger.debug("Breaking from parallel count query with {} statements in flight", inFlight.size());
+					return limit;
+				}
+			}
+			return resultCount;
+		} finally {
+			for(ResultSetFuture future : inFlight.keySet()) {
+				try {
+					future.cancel(true);
+				} catch(Exception e) {
+					logger.warn("Exception when cancelling count query", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Number of statements sent so far
+	 */
+	public int getStatementNumber() {
+		return statementNumber;
+	}
+}
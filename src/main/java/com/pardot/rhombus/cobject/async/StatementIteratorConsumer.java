@@ -35,6 +35,7 @@ public class StatementIteratorConsumer {
 	private final long timeout;
 	private final Set<Future> futures = Collections.synchronizedSet(new HashSet<Future>());
 	private List<Throwable> executionExceptions = new Vector<Throwable>();
+	private volatile boolean cancelled = false;
 
 	public StatementIteratorConsumer(BoundedCQLStatementIterator statementIterator, CQLExecutor cqlExecutor, long timeout) {
 		this.statementIterator = statementIterator;
@@ -57,6 +58,13 @@ public class StatementIteratorConsumer {
 		}
 	}
 
+	/**
+	 * Wait for every statement to execute. Failed statements are only logged, see hasExecutionExceptions.
+	 * @throws RhombusTimeoutException if the statements did not all execute within the timeout
+	 * @throws RhombusException if the thread was interrupted while waiting, in which case its interrupt flag is set
+	 * again. Either way statements not yet sent are dropped and those in flight are cancelled, so any of them may not
+	 * have been written.
+	 */
 	public void join() throws RhombusException {
 		logger.trace("Awaiting shutdownLatch with timeout {}ms", timeout);
 		try {
@@ -75,10 +83,21 @@ public class StatementIteratorConsumer {
 		} catch (InterruptedException e) {
 			logger.warn("Interrupted while executing statements asynch", e);
 			cancelFutures();
+			Thread.currentThread().interrupt();
+			throw new RhombusException("Interrupted executing statements asynch");
 		}
 	}
 
+	/**
+	 * @return true if any statement failed to execute, which join only logs
+	 */
+	public boolean hasExecutionExceptions() {
+		return !executionExceptions.isEmpty();
+	}
+
 	private void cancelFutures() {
+		// Statements still queued on the executor are dropped rather than sent
+		cancelled = true;
 		for(Future future : futures) {
 			try {
 				future.cancel(true);
@@ -99,15 +118,25 @@ public class StatementIteratorConsumer {
 		final Timer asyncExecTimer = Metrics.defaultRegistry().newTimer(StatementIteratorConsumer.class, timerName);
 		final TimerContext asyncExecTimerContext = asyncExecTimer.time();
 		final long startTime = System.nanoTime();
+		if(cancelled) {
+			executionExceptions.add(new CancellationException("Statement dropped after the consumer was cancelled"));
+			shutdownLatch.countDown();
+			return;
+		}
 		ResultSetFuture future = null;
 		try {
 			future = this.cqlExecutor.executeAsync(statement);
 		} catch (RuntimeException re) {
 			logger.error("RuntimeException while executing statement {}\n {}", statement.getQuery(), re);
+			executionExceptions.add(re);
 			shutdownLatch.countDown();
 			return;
 		}
 		futures.add(future);
+		if(cancelled) {
+			// Cancelled while this statement was being sent
+			future.cancel(true);
+		}
 		Futures.addCallback(future, new FutureCallback<ResultSet>() {
 			@Override
 			public void onSuccess(final ResultSet result) {
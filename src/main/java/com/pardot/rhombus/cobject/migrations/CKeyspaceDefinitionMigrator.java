@@ -1,11 +1,13 @@
 package com.pardot.rhombus.cobject.migrations;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.pardot.rhombus.cobject.*;
 import com.pardot.rhombus.cobject.statement.BoundedCQLStatementIterator;
 import com.pardot.rhombus.cobject.statement.CQLStatementIterator;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * User: Rob Righter
@@ -63,4 +65,21 @@ public class CKeyspaceDefinitionMigrator {
 		return ret;
 	}
 
+	/**
+	 * @return Indexes the migration adds to object types that already exist, by object type. Only these need
+	 * backfilling, since the tables of new object types start out empty.
+	 */
+	public Map<String, List<CIndex>> getNewIndexes(){
+		Map<String, List<CIndex>> ret = Maps.newLinkedHashMap();
+		for(CDefinition def : NewKeyspace.getDefinitions().values()){
+			if(OldKeyspace.getDefinitions().containsKey(def.getName())){
+				List<CIndex> newIndexes = new CObjectMigrator(OldKeyspace.getDefinitions().get(def.getName()),def).getNewIndexes();
+				if(!newIndexes.isEmpty()){
+					ret.put(def.getName(), newIndexes);
+				}
+			}
+		}
+		return ret;
+	}
+
 }
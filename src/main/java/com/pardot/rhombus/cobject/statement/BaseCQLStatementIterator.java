@@ -3,6 +3,8 @@ package com.pardot.rhombus.cobject.statement;
 import com.pardot.rhombus.cobject.CObjectOrdering;
 import com.pardot.rhombus.cobject.statement.CQLStatement;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -19,6 +21,7 @@ public abstract class BaseCQLStatementIterator implements CQLStatementIterator {
 	CObjectOrdering ordering = null;
 	protected int startUUidIndex = 0;
 	protected int endUuidIndex = 0;
+	protected boolean bindLimit = false;
 
 	public Map<String, Object> getClientFilters() {
 		return clientFilters;
@@ -32,6 +35,22 @@ public abstract class BaseCQLStatementIterator implements CQLStatementIterator {
 		this.limit = limit;
 	}
 
+	/**
+	 * @param bindLimit true if the template leaves the limit as a bind marker after every other value, rather than
+	 *                  a format specifier in the query text
+	 */
+	public void setBindLimit(boolean bindLimit){
+		this.bindLimit = bindLimit;
+	}
+
+	protected CQLStatement makeStatement(String query, String objectName, List<Object> values, long limit){
+		if (bindLimit){
+			values.add((int)Math.min(limit, Integer.MAX_VALUE));
+			return CQLStatement.make(query, objectName, values.toArray());
+		}
+		return CQLStatement.make(String.format(query, limit), objectName, values.toArray());
+	}
+
 	public void setNextUuid(UUID uuid){
 
 		this.nextUuid = uuid;
@@ -41,6 +60,27 @@ public abstract class BaseCQLStatementIterator implements CQLStatementIterator {
 		currentShardId = 1;
 	}
 
+	public long getCurrentShardId(){
+		return currentShardId;
+	}
+
+	/**
+	 * Point the iterator back at a shard it has already moved past. Used when statements for
+	 * later shards have been generated ahead of time but we still need to page within this one.
+	 * @param shardId Shard id the next generated statement should target
+	 */
+	public void setCurrentShardId(long shardId){
+		currentShardId = shardId;
+	}
+
+	/**
+	 * @return Shards the iterator has not moved to yet, in the order it would move to them. Empty for iterators that do
+	 * not generate statements per shard.
+	 */
+	public List<Long> getRemainingShardIds(){
+		return Collections.emptyList();
+	}
+
 	protected boolean hasStartUuid(String query){
 
 		if (query.contains("id >")){
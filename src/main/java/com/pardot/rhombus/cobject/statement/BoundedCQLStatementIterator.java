@@ -3,6 +3,7 @@ package com.pardot.rhombus.cobject.statement;
 import com.google.common.collect.Lists;
 import com.pardot.rhombus.cobject.CQLGenerationException;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -32,6 +33,13 @@ public class BoundedCQLStatementIterator extends BaseCQLStatementIterator {
 		return true;
 	}
 
+	/**
+	 * @return Every statement in this iterator, regardless of how far it has been iterated
+	 */
+	public List<CQLStatement> getStatements() {
+		return Collections.unmodifiableList(cqlStatements);
+	}
+
 	public static BoundedCQLStatementIterator condenseIterators(List<CQLStatementIterator> statementIterators) throws CQLGenerationException {
 		List<CQLStatement> ret = Lists.newArrayList();
 		for(CQLStatementIterator it: statementIterators){
@@ -21,11 +21,26 @@ public class BoundedLazyCQLStatementIterator extends BaseCQLStatementIterator {
 	private long numberRemaining = 0;
 	private long size = 0;
 	private CQLStatement CQLTemplate = null;
+	private List<Long> shardIds;
 	private Iterator<Long> shardIdIterator;
+	private int shardsStarted = 0;
 	private String objectName;
 
 	public BoundedLazyCQLStatementIterator(List<Long> shardIds, CQLStatement CQLTemplate, long limit, String objectName){
+		this(shardIds, CQLTemplate, limit, null, objectName);
+	}
+
+	/**
+	 * @param shardIds Shards to query, in the order to query them
+	 * @param CQLTemplate Template statement for the query
+	 * @param limit Limit for the query
+	 * @param ordering Ordering of the query, which decides which id bound moves when paging within a shard
+	 * @param objectName Name of the object being queried
+	 */
+	public BoundedLazyCQLStatementIterator(List<Long> shardIds, CQLStatement CQLTemplate, long limit, CObjectOrdering ordering, String objectName){
 		this.size = (long)shardIds.size();
+		this.shardIds = shardIds;
+		this.ordering = ordering;
 		this.limit = limit;
 		this.numberRemaining = this.limit;
 		this.CQLTemplate = CQLTemplate;
@@ -48,7 +63,7 @@ public class BoundedLazyCQLStatementIterator extends BaseCQLStatementIterator {
 
 	@Override
 	public CQLStatement next() {
-		List values = Lists.newArrayList(CQLTemplate.getValues());
+		List<Object> values = Lists.newArrayList(CQLTemplate.getValues());
 		String query = CQLTemplate.getQuery();
 		//shardid is the first value
 		if (currentShardId == -1){
@@ -80,7 +95,7 @@ public class BoundedLazyCQLStatementIterator extends BaseCQLStatementIterator {
 		}
 
 		// numberRemaining is the limit
-		CQLStatement ret = CQLStatement.make(String.format(query, numberRemaining), this.getObjectName(), values.toArray());
+		CQLStatement ret = makeStatement(query, this.getObjectName(), values, numberRemaining);
 		return ret;
 	}
 
@@ -93,6 +108,12 @@ public class BoundedLazyCQLStatementIterator extends BaseCQLStatementIterator {
 	public void nextShard(){
 
 		currentShardId = shardIdIterator.next();
+		shardsStarted++;
+	}
+
+	@Override
+	public List<Long> getRemainingShardIds(){
+		return Lists.newArrayList(shardIds.subList(shardsStarted, shardIds.size()));
 	}
 	public boolean isBounded(){
 		return true;
@@ -1,12 +1,14 @@
 package com.pardot.rhombus.cobject.statement;
 
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.google.common.collect.Lists;
 import com.pardot.rhombus.cobject.CQLExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.*;
 
 /**
@@ -15,6 +17,7 @@ import java.util.*;
 public class CQLExecutorIterator implements Iterator {
 
 	private static Logger logger = LoggerFactory.getLogger(CQLExecutorIterator.class);
+	private static final long NATIVE_PAGING_STATEMENT_LIMIT = Integer.MAX_VALUE;
 
 	private List<Row> page;
 	private	long pageSize = 50l;
@@ -23,6 +26,12 @@ public class CQLExecutorIterator implements Iterator {
 	private CQLStatementIterator statementIterator;
 	boolean moreResultsInShard = false;
 	public int statementNumber = 0;
+	private int shardPrefetchWindow = 0;
+	private final Deque<PrefetchedShard> prefetchedShards = new ArrayDeque<PrefetchedShard>();
+	private long pageShardId = -1;
+	private boolean nativePaging = false;
+	private ResultSet shardResultSet = null;
+	private UUID resumeUuid = null;
 
 	public CQLExecutorIterator(CQLExecutor cqlExecutor, CQLStatementIterator statementIterator){
 		this.cqlExecutor = cqlExecutor;
@@ -72,11 +81,26 @@ public class CQLExecutorIterator implements Iterator {
 			return;
 		}
 
+		if (moreResultsInShard && nativePaging) {
+			// The driver holds our place in the shard, so just pull its next page
+			statementNumber++;
+			populatePageFromDriver();
+			nextItem = 0;
+			if (!page.isEmpty()) {
+				return;
+			}
+			// The last page of the shard can come back empty, in which case move on to the next shard
+		}
+
 		if (moreResultsInShard) {
 			// If we are within a shard already, get more results from this shard
 			Row row = page.get(nextItem);
 			UUID uuid = row.getUUID("id");
 			statementIterator.setNextUuid(uuid);
+			if(shardPrefetchWindow > 0) {
+				// Later shards have already been generated, so point the statement iterator back at the one we are paging through
+				statementIterator.setCurrentShardId(pageShardId);
+			}
 			CQLStatement cql = statementIterator.next();
 			ResultSet resultSet = cqlExecutor.executeSync(cql);
 			statementNumber++;
@@ -93,28 +117,126 @@ public class CQLExecutorIterator implements Iterator {
 			page = null;
 			moreResultsInShard = false;
 
+			if (shardPrefetchWindow > 0) {
+				fetchFromPrefetchedShards();
+				return;
+			}
+
 			// Start going through the remaining shards until we find one with results or hit the last one
 			while (statementIterator.hasNext()) {
-				// Move to the next shard in the iterator and reset the limits and stuff
-				statementIterator.setLimit(pageSize + 1l);
-				statementIterator.nextShard();
-				statementIterator.setNextUuid(null);
-				CQLStatement cql = statementIterator.next();
-				ResultSet resultSet = cqlExecutor.executeSync(cql);
+				CQLStatement cql = makeFirstStatementForNextShard();
+				ResultSet resultSet = nativePaging ? cqlExecutor.executeSync(cql, getFetchSize()) : cqlExecutor.executeSync(cql);
 				statementNumber++;
 				if (!resultSet.isExhausted()) {
-					populatePage(resultSet);
-					if (page.size() > pageSize) {
-						moreResultsInShard = true;
-					} else {
-						moreResultsInShard = false;
-					}
+					startShard(statementIterator.getCurrentShardId(), resultSet);
 					return;
 				}
 			}
 		}
 	}
 
+	/**
+	 * Same as walking the shards one at a time, except that while we wait on a shard the queries for the
+	 * next shardPrefetchWindow shards are already in flight
+	 */
+	private void fetchFromPrefetchedShards() {
+		fillPrefetchWindow();
+		while (!prefetchedShards.isEmpty()) {
+			PrefetchedShard shard = prefetchedShards.poll();
+			ResultSet resultSet = cqlExecutor.awaitResult(shard.future);
+			statementNumber++;
+			// Keep the window full while this shard is consumed
+			fillPrefetchWindow();
+			if (!resultSet.isExhausted()) {
+				startShard(shard.shardId, resultSet);
+				return;
+			}
+		}
+	}
+
+	private void startShard(long shardId, ResultSet resultSet) {
+		pageShardId = shardId;
+		if (nativePaging) {
+			shardResultSet = resultSet;
+			populatePageFromDriver();
+			return;
+		}
+		populatePage(resultSet);
+		if (page.size() > pageSize) {
+			moreResultsInShard = true;
+		} else {
+			moreResultsInShard = false;
+		}
+	}
+
+	private void fillPrefetchWindow() {
+		while (prefetchedShards.size() < shardPrefetchWindow && statementIterator.hasNext()) {
+			CQLStatement cql = makeFirstStatementForNextShard();
+			ResultSetFuture future = nativePaging ? cqlExecutor.executeAsync(cql, getFetchSize()) : cqlExecutor.executeAsync(cql);
+			prefetchedShards.add(new PrefetchedShard(statementIterator.getCurrentShardId(), future));
+		}
+	}
+
+	private CQLStatement makeFirstStatementForNextShard() {
+		// Move to the next shard in the iterator and reset the limits and stuff
+		// With native paging the driver stops fetching once we stop consuming, so the statement itself is never limited
+		statementIterator.setLimit(nativePaging ? NATIVE_PAGING_STATEMENT_LIMIT : pageSize + 1l);
+		statementIterator.nextShard();
+		// Only the first shard of a resumed query starts part way through
+		statementIterator.setNextUuid(resumeUuid);
+		resumeUuid = null;
+		return statementIterator.next();
+	}
+
+	/**
+	 * @return Id of the next row, which is fetched if it is not already in memory, or null if there are no more rows
+	 */
+	@Nullable
+	public UUID peekNextId() {
+		// The row past the end of the current page is kept in memory to start the next page from
+		if((page == null || page.size() <= nextItem) && !hasNext()) {
+			return null;
+		}
+		return page.get(nextItem).getUUID("id");
+	}
+
+	/**
+	 * @return The shard the next row is read from followed by every shard not started yet, in the order they are read
+	 */
+	public List<Long> getRemainingShardIds() {
+		List<Long> shardIds = Lists.newArrayList();
+		if(page != null && (page.size() > nextItem || moreResultsInShard)) {
+			shardIds.add(pageShardId);
+		}
+		for(PrefetchedShard shard : prefetchedShards) {
+			shardIds.add(shard.shardId);
+		}
+		shardIds.addAll(statementIterator.getRemainingShardIds());
+		return shardIds;
+	}
+
+	/**
+	 * @param resumeUuid Id to start the first shard from, inclusive, when resuming a query part way through a shard
+	 */
+	public void setResumeUuid(@Nullable UUID resumeUuid) {
+		this.resumeUuid = resumeUuid;
+	}
+
+	/**
+	 * Cancel any shard queries that were prefetched but never consumed.
+	 * Should be called whenever iteration stops before the iterator is exhausted.
+	 */
+	public void close() {
+		while (!prefetchedShards.isEmpty()) {
+			PrefetchedShard shard = prefetchedShards.poll();
+			try {
+				shard.future.cancel(true);
+			} catch(Exception e) {
+				logger.warn("Exception when cancelling prefetched shard query", e);
+			}
+		}
+	}
+
 	private void populatePage(ResultSet resultSet){
 		page = Lists.newArrayList();
 		for(Row row : resultSet) {
@@ -122,6 +244,26 @@ public class CQLExecutorIterator implements Iterator {
 		}
 	}
 
+	/**
+	 * Take only the rows the driver has already fetched for the current shard, so the next
+	 * page is not requested until we actually need it
+	 */
+	private void populatePageFromDriver(){
+		page = Lists.newArrayList();
+		// isExhausted fetches the next page from the driver if the current one has been consumed
+		if(!shardResultSet.isExhausted()) {
+			int available = shardResultSet.getAvailableWithoutFetching();
+			for(int i = 0; i < available; i++) {
+				page.add(shardResultSet.one());
+			}
+		}
+		moreResultsInShard = !shardResultSet.isFullyFetched();
+	}
+
+	private int getFetchSize(){
+		return (int)Math.min(pageSize, Integer.MAX_VALUE);
+	}
+
 	public void remove() {
 		statementIterator.remove();
 	}
@@ -141,4 +283,37 @@ public class CQLExecutorIterator implements Iterator {
 	public long getPageSize(){
 		return pageSize;
 	}
+
+	/**
+	 * @param shardPrefetchWindow Number of shards ahead of the current one to query asynchronously. 0 disables prefetching.
+	 */
+	public void setShardPrefetchWindow(int shardPrefetchWindow){
+		this.shardPrefetchWindow = shardPrefetchWindow;
+	}
+
+	public int getShardPrefetchWindow(){
+		return shardPrefetchWindow;
+	}
+
+	/**
+	 * @param nativePaging If true each shard is read with a single statement paged by the driver using a fetch size of
+	 *                     pageSize, instead of re-issuing the query from the last id seen for every page
+	 */
+	public void setNativePaging(boolean nativePaging){
+		this.nativePaging = nativePaging;
+	}
+
+	public boolean isNativePaging(){
+		return nativePaging;
+	}
+
+	private static class PrefetchedShard {
+		private final long shardId;
+		private final ResultSetFuture future;
+
+		private PrefetchedShard(long shardId, ResultSetFuture future) {
+			this.shardId = shardId;
+			this.future = future;
+		}
+	}
 }
@@ -1,6 +1,7 @@
 package com.pardot.rhombus.cobject.statement;
 import com.google.common.base.Objects;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 
@@ -8,6 +9,7 @@ public class CQLStatement implements Comparable<CQLStatement>{
 	private String query;
 	private String objectName;
 	private Object[] values;
+	private ByteBuffer routingKey;
 
 	public static CQLStatement make(String query, String objectName){
 		return new CQLStatement(query, objectName);
@@ -101,6 +103,21 @@ public class CQLStatement implements Comparable<CQLStatement>{
 		return ret;
 	}
 
+	/**
+	 * @return Serialized partition key the statement is routed by, or null to let the driver work it out
+	 */
+	public ByteBuffer getRoutingKey() {
+		return routingKey;
+	}
+
+	/**
+	 * @param routingKey Serialized partition key of a row the statement reads, so that a token aware load balancing
+	 *                   policy sends it to a replica of that row. Only used for prepared statements.
+	 */
+	public void setRoutingKey(ByteBuffer routingKey) {
+		this.routingKey = routingKey;
+	}
+
 	public String getObjectName() {
 		return objectName;
 	}
@@ -1,6 +1,7 @@
 package com.pardot.rhombus.cobject.statement;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -17,6 +18,9 @@ public interface CQLStatementIterator extends Iterator<CQLStatement>{
 	public boolean isBounded();
 	public long size();
 	public void nextShard();
+	public long getCurrentShardId();
+	public void setCurrentShardId(long shardId);
 	public void setLimit(long limit);
 	public void setNextUuid(UUID uuid);
+	public List<Long> getRemainingShardIds();
 }
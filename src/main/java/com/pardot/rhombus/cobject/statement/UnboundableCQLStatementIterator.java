@@ -2,10 +2,14 @@ package com.pardot.rhombus.cobject.statement;
 
 import com.google.common.collect.ContiguousSet;
 import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
 import com.pardot.rhombus.cobject.CObjectOrdering;
 
+import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 
@@ -22,13 +26,33 @@ public class UnboundableCQLStatementIterator extends BaseCQLStatementIterator {
 	private long size = 0;
 	private CQLStatement CQLTemplate = null;
 	private Range<Long> keyRange;
+	private Iterable<Long> orderedKeys;
 	private Iterator<Long> keyIterator = null;
+	private int shardsStarted = 0;
 	private String objectName;
 
 	public UnboundableCQLStatementIterator(Range<Long> shardKeyList, long limit, CObjectOrdering ordering, CQLStatement CQLTemplate, String objectName){
+		this(shardKeyList, null, limit, ordering, CQLTemplate, objectName);
+	}
+
+	/**
+	 * @param shardKeyList Range of shards the query covers
+	 * @param occupiedShards Shards known to have data, used to skip the empty shards in the range, or null to query every shard in the range
+	 * @param limit Limit for the query
+	 * @param ordering Ordering for the query
+	 * @param CQLTemplate Template statement for the query
+	 * @param objectName Name of the object being queried
+	 */
+	public UnboundableCQLStatementIterator(Range<Long> shardKeyList, @Nullable Collection<Long> occupiedShards, long limit, CObjectOrdering ordering, CQLStatement CQLTemplate, String objectName){
 		this.keyRange = shardKeyList;
-		ContiguousSet<Long> set = ContiguousSet.create(shardKeyList, DiscreteDomain.longs());
-		this.keyIterator = (ordering == CObjectOrdering.ASCENDING) ? set.iterator() : set.descendingIterator();
+		ImmutableSortedSet<Long> set;
+		if(occupiedShards == null) {
+			set = ContiguousSet.create(shardKeyList, DiscreteDomain.longs());
+		} else {
+			set = ImmutableSortedSet.copyOf(Iterables.filter(occupiedShards, shardKeyList));
+		}
+		this.orderedKeys = (ordering == CObjectOrdering.ASCENDING) ? set : set.descendingSet();
+		this.keyIterator = orderedKeys.iterator();
 		this.ordering = ordering;
 		this.size = (long)set.size();
 		this.limit = limit;
@@ -53,7 +77,7 @@ public class UnboundableCQLStatementIterator extends BaseCQLStatementIterator {
 
 	@Override
 	public CQLStatement next() {
-		List values = Lists.newArrayList(CQLTemplate.getValues());
+		List<Object> values = Lists.newArrayList(CQLTemplate.getValues());
 		String query = CQLTemplate.getQuery();
 		//shardid is the first value
 		if (currentShardId == -1){
@@ -85,7 +109,7 @@ public class UnboundableCQLStatementIterator extends BaseCQLStatementIterator {
 		}
 
 		// numberRemaining is the limit
-		CQLStatement ret = CQLStatement.make(String.format(query, numberRemaining), this.getObjectName(), values.toArray());
+		CQLStatement ret = makeStatement(query, this.getObjectName(), values, numberRemaining);
 		return ret;
 	}
 
@@ -98,6 +122,12 @@ public class UnboundableCQLStatementIterator extends BaseCQLStatementIterator {
 	public void nextShard(){
 
 		currentShardId = keyIterator.next();
+		shardsStarted++;
+	}
+
+	@Override
+	public List<Long> getRemainingShardIds(){
+		return Lists.newArrayList(Iterables.skip(orderedKeys, shardsStarted));
 	}
 
 	public boolean isBounded(){
@@ -0,0 +1,50 @@
+package com.pardot.rhombus;
+
+import junit.framework.TestCase;
+
+public class AdaptiveBatchSizerTest extends TestCase {
+
+	private static final long MILLIS = 1000000L;
+
+	public void testGrowsTowardsTargetWhenFast() {
+		AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 10, 1000, 500, 0);
+		sizer.record(100, 1000, 50 * MILLIS);
+		// At most doubles per batch
+		assertEquals(200, sizer.getBatchSize());
+		sizer.record(200, 2000, 400 * MILLIS);
+		assertEquals(250, sizer.getBatchSize());
+	}
+
+	public void testShrinksWhenSlow() {
+		AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 10, 1000, 500, 0);
+		sizer.record(100, 1000, 5000 * MILLIS);
+		assertEquals(50, sizer.getBatchSize());
+	}
+
+	public void testStaysWithinBounds() {
+		AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(5000, 10, 1000, 500, 0);
+		assertEquals(1000, sizer.getBatchSize());
+		for(int i = 0; i < 10; i++) {
+			sizer.record((int)sizer.getBatchSize(), 0, 1);
+		}
+		assertEquals(1000, sizer.getBatchSize());
+		for(int i = 0; i < 20; i++) {
+			sizer.record((int)sizer.getBatchSize(), 0, 100000 * MILLIS);
+		}
+		assertEquals(10, sizer.getBatchSize());
+	}
+
+	public void testCappedByBytes() {
+		AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 10, 1000, 500, 15000);
+		// Fast enough to double, but rows of 100 bytes only allow 150 per batch
+		sizer.record(100, 10000, 10 * MILLIS);
+		assertEquals(150, sizer.getBatchSize());
+	}
+
+	public void testIgnoresShortBatches() {
+		AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 10, 1000, 500, 0);
+		sizer.record(20, 200, 5000 * MILLIS);
+		sizer.record(0, 0, 5000 * MILLIS);
+		assertEquals(100, sizer.getBatchSize());
+	}
+}
@@ -0,0 +1,172 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.pardot.rhombus.cobject.CQLExecutor;
+import com.pardot.rhombus.cobject.async.AsyncQueryExecutor;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import com.pardot.rhombus.cobject.statement.UnboundableCQLStatementIterator;
+import com.pardot.rhombus.helpers.MockExecutorHelpers;
+import junit.framework.TestCase;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Exercises AsyncQueryExecutor against a mocked executor whose futures complete as soon as a listener is added
+ */
+public class AsyncQueryExecutorTest extends TestCase {
+
+	private static final String TEMPLATE = "SELECT * FROM \"ks\".\"tbl\" WHERE shardid = ? AND account_id = ? AND id < ? ORDER BY id ASC LIMIT %d ALLOW FILTERING;";
+	private static final String COUNT_TEMPLATE = "SELECT count(*) FROM \"ks\".\"tbl\" WHERE shardid = ? AND account_id = ? ORDER BY id ASC  ALLOW FILTERING;";
+	private static final Pattern LIMIT = Pattern.compile("LIMIT (\\d+)");
+
+	private Map<Long, List<Row>> rowsByShard;
+	private Map<Row, Integer> rowNumbers;
+	private List<CQLStatement> executedStatements;
+	private boolean failStatements;
+
+	public void setUp() {
+		rowsByShard = Maps.newHashMap();
+		rowNumbers = Maps.newHashMap();
+		executedStatements = Lists.newArrayList();
+		failStatements = false;
+		int rowNumber = 0;
+		for(long shard = 1; shard <= 3; shard++) {
+			List<Row> rows = MockExecutorHelpers.makeRows((shard == 2) ? 0 : 5);
+			for(Row row : rows) {
+				rowNumbers.put(row, rowNumber++);
+			}
+			rowsByShard.put(shard, rows);
+		}
+	}
+
+	public void testListReadsEveryShard() throws Exception {
+		AsyncQueryExecutor queryExecutor = new AsyncQueryExecutor(mockExecutor(), makeStatementIterator(TEMPLATE), MoreExecutors.sameThreadExecutor(), 0);
+		List<Map<String, Object>> results = queryExecutor.list(rowMapper, Predicates.<Map<String, Object>>alwaysTrue(), 100L).get();
+
+		assertEquals(10, results.size());
+		for(int i = 0; i < results.size(); i++) {
+			assertEquals(i, results.get(i).get("n"));
+		}
+		assertEquals(3, queryExecutor.getStatementNumber());
+	}
+
+	public void testListPagesWithinShardUntilLimitMatches() throws Exception {
+		Predicate<Map<String, Object>> even = new Predicate<Map<String, Object>>() {
+			public boolean apply(Map<String, Object> result) {
+				return ((Integer)result.get("n")) % 2 == 0;
+			}
+		};
+		AsyncQueryExecutor queryExecutor = new AsyncQueryExecutor(mockExecutor(), makeStatementIterator(TEMPLATE), MoreExecutors.sameThreadExecutor(), 0);
+		List<Map<String, Object>> results = queryExecutor.list(rowMapper, even, 3L).get();
+
+		assertEquals(3, results.size());
+		assertEquals(0, results.get(0).get("n"));
+		assertEquals(2, results.get(1).get("n"));
+		assertEquals(4, results.get(2).get("n"));
+		// Every page is read from the first shard, starting from the row past the page before
+		assertEquals(3, executedStatements.size());
+		assertTrue(executedStatements.get(1).getQuery().contains("id >= ?"));
+		assertEquals(rowsByShard.get(1L).get(3).getUUID("id"), executedStatements.get(1).getValues()[2]);
+	}
+
+	public void testListFailsPastStatementLimit() throws Exception {
+		AsyncQueryExecutor queryExecutor = new AsyncQueryExecutor(mockExecutor(), makeStatementIterator(TEMPLATE), MoreExecutors.sameThreadExecutor(), 2);
+		try {
+			queryExecutor.list(rowMapper, Predicates.<Map<String, Object>>alwaysTrue(), 100L).get();
+			fail("Expected the statement limit to fail the query");
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof RhombusException);
+		}
+		assertEquals(2, executedStatements.size());
+	}
+
+	public void testListTranslatesFailures() throws Exception {
+		failStatements = true;
+		AsyncQueryExecutor queryExecutor = new AsyncQueryExecutor(mockExecutor(), makeStatementIterator(TEMPLATE), MoreExecutors.sameThreadExecutor(), 0);
+		try {
+			queryExecutor.list(rowMapper, Predicates.<Map<String, Object>>alwaysTrue(), 100L).get();
+			fail("Expected the failed statement to fail the query");
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof RhombusTimeoutException);
+		}
+	}
+
+	public void testCountSumsEveryShard() throws Exception {
+		AsyncQueryExecutor queryExecutor = new AsyncQueryExecutor(mockExecutor(), makeStatementIterator(COUNT_TEMPLATE), MoreExecutors.sameThreadExecutor(), 0);
+		assertEquals(Long.valueOf(10L), queryExecutor.count(0L, 2).get());
+		assertEquals(3, queryExecutor.getStatementNumber());
+	}
+
+	public void testCountStopsAtLimit() throws Exception {
+		AsyncQueryExecutor queryExecutor = new AsyncQueryExecutor(mockExecutor(), makeStatementIterator(COUNT_TEMPLATE), MoreExecutors.sameThreadExecutor(), 0);
+		assertEquals(Long.valueOf(5L), queryExecutor.count(5L, 1).get());
+		assertEquals(1, queryExecutor.getStatementNumber());
+	}
+
+	private final Function<Row, Map<String, Object>> rowMapper = new Function<Row, Map<String, Object>>() {
+		public Map<String, Object> apply(Row row) {
+			Map<String, Object> result = Maps.newHashMap();
+			result.put("id", row.getUUID("id"));
+			result.put("n", rowNumbers.get(row));
+			return result;
+		}
+	};
+
+	private UnboundableCQLStatementIterator makeStatementIterator(String template) {
+		Object[] values = template.contains("id <") ? new Object[]{UUID.randomUUID(), UUIDs.timeBased()} : new Object[]{UUID.randomUUID()};
+		return MockExecutorHelpers.makeStatementIterator(template, 1L, 3L, 100L, values);
+	}
+
+	private CQLExecutor mockExecutor() {
+		return MockExecutorHelpers.mockExecutor(new MockExecutorHelpers.StatementHandler() {
+			public ResultSetFuture execute(CQLStatement statement) throws Exception {
+				executedStatements.add(statement);
+				if(failStatements) {
+					return MockExecutorHelpers.makeFailedFuture(new NoHostAvailableException(Collections.<InetSocketAddress, Throwable>emptyMap()));
+				}
+				return MockExecutorHelpers.makeFuture(makeResultSet(statement));
+			}
+		});
+	}
+
+	/**
+	 * Rows of the shard, starting from the id bound if there is one and cut off at the limit
+	 */
+	private ResultSet makeResultSet(CQLStatement statement) {
+		Object[] values = statement.getValues();
+		List<Row> rows = rowsByShard.get((Long)values[0]);
+		if(statement.getQuery().startsWith("SELECT count(*)")) {
+			return MockExecutorHelpers.makeCountResultSet(rows.size());
+		}
+		int start = 0;
+		if(statement.getQuery().contains("id >=")) {
+			for(int i = 0; i < rows.size(); i++) {
+				if(rows.get(i).getUUID("id").equals(values[2])) {
+					start = i;
+				}
+			}
+		}
+		Matcher limit = LIMIT.matcher(statement.getQuery());
+		assertTrue(limit.find());
+		int end = Math.min(rows.size(), start + Integer.parseInt(limit.group(1)));
+		return MockExecutorHelpers.makeResultSet(rows.subList(start, end));
+	}
+}
@@ -8,6 +8,7 @@ import com.pardot.rhombus.helpers.TestHelpers;
 import junit.framework.TestCase;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -91,6 +92,36 @@ public class CDefinitionTest extends TestCase{
 		assertEquals(expectedIndexKey, matchingIndex.getKey());
 	}
 
+	public void testGetIntersectingIndexes() throws IOException {
+		String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+		// Drop the composite index so no single index covers foreignid, type and instance
+		json = json.replace("\"key\": \"foreignid:type:instance\"", "\"key\": \"data1\"");
+		CDefinition definition = CDefinition.fromJsonString(json);
+		SortedMap<String, Object> indexValues = new TreeMap<String, Object>();
+		indexValues.put("type", "typeValue");
+		indexValues.put("foreignid", 13);
+		indexValues.put("instance", 11);
+		indexValues.put("data3", "unindexed");
+
+		List<CIndex> indexes = definition.getIntersectingIndexes(indexValues);
+		assertEquals(2, indexes.size());
+		assertEquals("instance:type", indexes.get(0).getKey());
+		assertEquals("foreignid", indexes.get(1).getKey());
+
+		// Indexes on as many fields are picked by name
+		indexValues.put("data1", "indexed");
+		indexes = definition.getIntersectingIndexes(indexValues);
+		assertEquals(3, indexes.size());
+		assertEquals("instance:type", indexes.get(0).getKey());
+		assertEquals("data1", indexes.get(1).getKey());
+		assertEquals("foreignid", indexes.get(2).getKey());
+		indexValues.remove("data1");
+
+		// A single index is not an intersection
+		indexValues.remove("foreignid");
+		assertNull(definition.getIntersectingIndexes(indexValues));
+	}
+
 	public void testIsFieldUsedInAnyIndexYes() throws IOException {
 		String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
 		CDefinition definition = CDefinition.fromJsonString(json);
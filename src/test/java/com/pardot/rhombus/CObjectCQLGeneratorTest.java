@@ -3,7 +3,14 @@ package com.pardot.rhombus;
 import com.datastax.driver.core.utils.UUIDs;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.pardot.rhombus.cobject.*;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardStrategyException;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyHourly;
 import com.pardot.rhombus.cobject.statement.BoundedLazyCQLStatementIterator;
 import com.pardot.rhombus.cobject.statement.CQLStatement;
 import com.pardot.rhombus.cobject.statement.CQLStatementIterator;
@@ -13,6 +20,7 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
@@ -246,6 +254,41 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 			//foreign has shard strategy None so we dont expect an insert into the shard index table
 		}
 
+		public void testMakeCQLforIndexBackfill() throws CQLGenerationException, IOException {
+			String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+			CDefinition def = CDefinition.fromJsonString(json);
+			Map<String, CDefinition> definitions = Maps.newHashMap();
+			definitions.put(def.getName(), def);
+			CObjectCQLGenerator generator = new CObjectCQLGenerator(KEYSPACE_NAME, definitions, null, 0);
+			CIndex unsharded = def.getIndexes().get("foreignid");
+			CIndex sharded = def.getIndexes().get("instance:type");
+			Map<String, Object> data = Maps.newHashMap(TestHelpers.getTestObject(0));
+			data.put("id", UUID.fromString("ada375b0-a2d9-11e2-99a3-3f36d3955e43"));
+
+			//Only the requested indexes and their shard index entries are written, never the static table
+			List<CQLStatement> actual = toList(generator.makeCQLforIndexBackfill(TABLE_NAME, data, Arrays.asList(unsharded, sharded)));
+			assertEquals(3, actual.size());
+			assertTrue(actual.get(0).getQuery().contains(Subject.makeTableName(def, unsharded)));
+			assertTrue(actual.get(1).getQuery().contains(Subject.makeTableName(def, sharded)));
+			assertTrue(generator.isShardIndexInsert(actual.get(2)));
+			assertEquals(Subject.makeTableName(def, sharded), actual.get(2).getValues()[0]);
+
+			//Indexes the object has no values for are skipped
+			data.put("instance", null);
+			actual = toList(generator.makeCQLforIndexBackfill(TABLE_NAME, data, Arrays.asList(unsharded, sharded)));
+			assertEquals(1, actual.size());
+			assertTrue(actual.get(0).getQuery().contains(Subject.makeTableName(def, unsharded)));
+
+			//The object must have an id
+			data.remove("id");
+			try {
+				generator.makeCQLforIndexBackfill(TABLE_NAME, data, Arrays.asList(unsharded));
+				fail("Expected CQLGenerationException");
+			} catch(CQLGenerationException e) {
+				//Expected
+			}
+		}
+
 		public void testMakeCQLforCreate() throws CObjectParseException, IOException {
 			String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
 			CDefinition def = CDefinition.fromJsonString(json);
@@ -631,6 +674,187 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 
 		}
 
+		public void testMakeCQLforListWithProjection() throws CQLGenerationException, IOException {
+			String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+			CDefinition def = CDefinition.fromJsonString(json);
+			CObjectShardList shardIdLists = new ShardListMock(Arrays.asList(1L,2L,3L,4L,5L));
+			UUID start = UUID.fromString("a8a2abe0-a251-11e2-bcbb-adf1a79a327f");
+			UUID stop = UUID.fromString("ada375b0-a2d9-11e2-99a3-3f36d3955e43");
+			TreeMap<String,Object> indexkeys = Maps.newTreeMap();
+			indexkeys.put("foreignid","777");
+			indexkeys.put("type", "5");
+			indexkeys.put("instance", "222222");
+
+			//Only id and the projected fields are selected
+			Set<String> projection = Sets.newLinkedHashSet(Arrays.asList("data1", "type"));
+			CQLStatementIterator actual = Subject.makeCQLforList(KEYSPACE_NAME, shardIdLists, def, indexkeys, CObjectOrdering.DESCENDING, start, stop, 10l, false, false, false, projection);
+			assertEquals(
+					"SELECT id, data1, type FROM \"testspace\".\"testtypef9bf3332bb4ec879849ec43c67776131\" WHERE shardid = ? AND foreignid = ? AND instance = ? AND type = ? AND id > ? AND id < ? ORDER BY id DESC LIMIT 10 ALLOW FILTERING;",
+					actual.next().getQuery());
+
+			//Fields needed by client filters are selected too
+			indexkeys = Maps.newTreeMap();
+			indexkeys.put("foreignid","777");
+			indexkeys.put("data2", "filtered value");
+			actual = Subject.makeCQLforList(KEYSPACE_NAME, shardIdLists, def, indexkeys, CObjectOrdering.DESCENDING, start, stop, 10l, false, false, true, projection);
+			assertTrue(actual.next().getQuery().startsWith("SELECT id, data1, type, data2 FROM "));
+
+			//Counts with client filters only select what the filters need
+			actual = Subject.makeCQLforList(KEYSPACE_NAME, shardIdLists, def, indexkeys, CObjectOrdering.DESCENDING, start, stop, 10l, false, true, true);
+			assertTrue(actual.next().getQuery().startsWith("SELECT id, data2 FROM "));
+
+			//Unknown fields are rejected
+			try {
+				Subject.makeCQLforList(KEYSPACE_NAME, shardIdLists, def, indexkeys, CObjectOrdering.DESCENDING, start, stop, 10l, false, false, true, Sets.newHashSet("nope"));
+				fail("Expected CQLGenerationException");
+			} catch(CQLGenerationException e) {
+				//Expected
+			}
+
+			//Projections with the same fields in a different order share their query text
+			actual = Subject.makeCQLforList(KEYSPACE_NAME, shardIdLists, def, indexkeys, CObjectOrdering.DESCENDING, start, stop, 10l, false, false, true, Sets.newLinkedHashSet(Arrays.asList("type", "data1")));
+			assertTrue(actual.next().getQuery().startsWith("SELECT id, data1, type, data2 FROM "));
+
+			//Replacing a definition with one of the same name does not serve query text built for the old one
+			CDefinition redefined = CDefinition.fromJsonString(json);
+			redefined.getFields().remove("data1");
+			new CObjectCQLGenerator(KEYSPACE_NAME, 1000).setDefinitions(Collections.singletonMap(redefined.getName(), redefined));
+			try {
+				Subject.makeCQLforList(KEYSPACE_NAME, shardIdLists, redefined, indexkeys, CObjectOrdering.DESCENDING, start, stop, 10l, false, false, true, projection);
+				fail("Expected CQLGenerationException");
+			} catch(CQLGenerationException e) {
+				//Expected
+			}
+		}
+
+		public void testMakeCQLforListSkippingEmptyShards() throws CQLGenerationException, IOException, ShardStrategyException {
+			String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+			CDefinition def = CDefinition.fromJsonString(json);
+			TreeMap<String,Object> indexkeys = Maps.newTreeMap();
+			indexkeys.put("foreignid","777");
+			indexkeys.put("type", "5");
+			indexkeys.put("instance", "222222");
+			long startTime = new DateTime(2013, 1, 15, 0, 0).getMillis();
+			long endTime = new DateTime(2013, 12, 15, 0, 0).getMillis();
+			UUID start = UUIDs.startOf(startTime);
+			UUID stop = UUIDs.endOf(endTime);
+			Range<Long> shardRange = def.getIndex(indexkeys, false).getShardingStrategy().getShardKeyRange(startTime, endTime);
+			long firstShard = shardRange.lowerEndpoint();
+
+			//Only the shards recorded in the shard index that fall within the range are queried
+			CObjectShardList shardIdLists = new ShardListMock(Arrays.asList(firstShard + 2, firstShard + 5, shardRange.upperEndpoint() + 3));
+			CQLStatementIterator actual = Subject.makeCQLforList(KEYSPACE_NAME, shardIdLists, def, indexkeys, CObjectOrdering.DESCENDING, start, stop, 10l, false, false, false, null, true, false);
+			assertTrue(actual.isBounded());
+			assertEquals(2, ((UnboundableCQLStatementIterator)actual).size());
+			assertEquals(firstShard + 5, actual.next().getValues()[0]);
+			actual.nextShard();
+			assertEquals(firstShard + 2, actual.next().getValues()[0]);
+			assertFalse(actual.hasNext());
+
+			//Without skipping, every shard in the range is queried
+			actual = Subject.makeCQLforList(KEYSPACE_NAME, shardIdLists, def, indexkeys, CObjectOrdering.DESCENDING, start, stop, 10l, false, false, false, null, false, false);
+			assertEquals(12, ((UnboundableCQLStatementIterator)actual).size());
+		}
+
+		public void testMakeCQLforListWithBoundLimit() throws CQLGenerationException, IOException {
+			String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+			CDefinition def = CDefinition.fromJsonString(json);
+			CObjectShardList shardIdLists = new ShardListMock(Arrays.asList(1L,2L,3L,4L,5L));
+			UUID start = UUID.fromString("a8a2abe0-a251-11e2-bcbb-adf1a79a327f");
+			UUID stop = UUID.fromString("ada375b0-a2d9-11e2-99a3-3f36d3955e43");
+			TreeMap<String,Object> indexkeys = Maps.newTreeMap();
+			indexkeys.put("foreignid","777");
+			indexkeys.put("type", "5");
+			indexkeys.put("instance", "222222");
+
+			CQLStatementIterator actual = Subject.makeCQLforList(KEYSPACE_NAME, shardIdLists, def, indexkeys, CObjectOrdering.DESCENDING, start, stop, 10l, false, false, false, null, false, true);
+			CQLStatement expected = CQLStatement.make(
+					"SELECT * FROM \"testspace\".\"testtypef9bf3332bb4ec879849ec43c67776131\" WHERE shardid = ? AND foreignid = ? AND instance = ? AND type = ? AND id > ? AND id < ? ORDER BY id DESC LIMIT ? ALLOW FILTERING;",
+					TABLE_NAME,
+					Arrays.asList(Long.valueOf(160),"777","222222","5",start,stop,10).toArray());
+			assertEquals(expected, actual.next());
+
+			//Paging within the shard moves the end uuid and only changes the bound limit
+			UUID next = UUID.fromString("ac2b2d00-a2d9-11e2-99a3-3f36d3955e43");
+			actual.setNextUuid(next);
+			actual.setLimit(4l);
+			expected = CQLStatement.make(
+					"SELECT * FROM \"testspace\".\"testtypef9bf3332bb4ec879849ec43c67776131\" WHERE shardid = ? AND foreignid = ? AND instance = ? AND type = ? AND id >= ? AND id <= ? ORDER BY id DESC LIMIT ? ALLOW FILTERING;",
+					TABLE_NAME,
+					Arrays.asList(Long.valueOf(160),"777","222222","5",start,next,4).toArray());
+			assertEquals(expected, actual.next());
+
+			//Queries of the same shape share their query text, and the literal limit is unaffected
+			actual = Subject.makeCQLforList(KEYSPACE_NAME, shardIdLists, def, indexkeys, CObjectOrdering.DESCENDING, start, stop, 25l, false, false, false, null, false, false);
+			assertTrue(actual.next().getQuery().contains("ORDER BY id DESC LIMIT 25 ALLOW FILTERING"));
+		}
+
+		public void testMakeCQLforHistogram() throws CQLGenerationException, IOException {
+			String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+			CDefinition def = CDefinition.fromJsonString(json);
+			CObjectShardList shardIdLists = new ShardListMock(Arrays.asList(158L));
+			TreeMap<String,Object> indexkeys = Maps.newTreeMap();
+			indexkeys.put("foreignid","777");
+			indexkeys.put("type", "5");
+			indexkeys.put("instance", "222222");
+			String boundedQuery = "SELECT count(*) FROM \"testspace\".\"testtypef9bf3332bb4ec879849ec43c67776131\" WHERE shardid = ? AND foreignid = ? AND instance = ? AND type = ? AND id >= ? AND id <= ? ORDER BY id ASC  ALLOW FILTERING;";
+			String wholeShardQuery = "SELECT count(*) FROM \"testspace\".\"testtypef9bf3332bb4ec879849ec43c67776131\" WHERE shardid = ? AND foreignid = ? AND instance = ? AND type = ? ORDER BY id ASC  ALLOW FILTERING;";
+			long day = 24L * 60L * 60L * 1000L;
+
+			//Buckets narrower than the monthly shards bound every statement, and a bucket spanning a month boundary counts both shards
+			long startTime = new DateTime(2013, 1, 15, 0, 0, DateTimeZone.UTC).getMillis();
+			UUID start = UUIDs.startOf(startTime);
+			UUID stop = UUIDs.endOf(new DateTime(2013, 3, 20, 0, 0, DateTimeZone.UTC).getMillis());
+			List<List<CQLStatement>> buckets = Subject.makeCQLforHistogram(KEYSPACE_NAME, shardIdLists, def, indexkeys, start, stop, true, 10 * day, false);
+			assertEquals(7, buckets.size());
+			assertEquals(Arrays.asList(CQLStatement.make(boundedQuery, TABLE_NAME, Arrays.asList(157L, "777", "222222", "5", start, UUIDs.endOf(startTime + 10 * day - 1)).toArray())), buckets.get(0));
+			assertEquals(2, buckets.get(1).size());
+			assertEquals(157L, buckets.get(1).get(0).getValues()[0]);
+			assertEquals(158L, buckets.get(1).get(1).getValues()[0]);
+			assertEquals(stop, buckets.get(6).get(0).getValues()[5]);
+
+			//Shards that fall entirely within a wider bucket are counted without id bounds
+			startTime = new DateTime(2013, 1, 10, 0, 0, DateTimeZone.UTC).getMillis();
+			start = UUIDs.startOf(startTime);
+			buckets = Subject.makeCQLforHistogram(KEYSPACE_NAME, shardIdLists, def, indexkeys, start, stop, true, 80 * day, false);
+			assertEquals(1, buckets.size());
+			List<CQLStatement> statements = buckets.get(0);
+			assertEquals(3, statements.size());
+			assertEquals(boundedQuery, statements.get(0).getQuery());
+			assertEquals(CQLStatement.make(wholeShardQuery, TABLE_NAME, Arrays.asList(158L, "777", "222222", "5").toArray()), statements.get(1));
+			assertEquals(boundedQuery, statements.get(2).getQuery());
+
+			//Only shards recorded in the shard index are counted when skipping empty shards
+			buckets = Subject.makeCQLforHistogram(KEYSPACE_NAME, shardIdLists, def, indexkeys, start, stop, true, 80 * day, true);
+			assertEquals(1, buckets.get(0).size());
+			assertEquals(158L, buckets.get(0).get(0).getValues()[0]);
+
+			try {
+				Subject.makeCQLforHistogram(KEYSPACE_NAME, shardIdLists, def, indexkeys, null, stop, true, day, false);
+				fail("Expected a histogram without a start to be rejected");
+			} catch(CQLGenerationException e) {
+				//Expected
+			}
+
+			//Too many buckets are rejected before any statement is planned
+			try {
+				Subject.makeCQLforHistogram(KEYSPACE_NAME, shardIdLists, def, indexkeys, start, stop, true, 1L, false);
+				fail("Expected a histogram with too many buckets to be rejected");
+			} catch(CQLGenerationException e) {
+				//Expected
+			}
+
+			//So are too many statements, even when the buckets are within bounds
+			def.getIndex(indexkeys, false).setShardingStrategy(new ShardingStrategyHourly());
+			start = UUIDs.startOf(new DateTime(2000, 1, 1, 0, 0, DateTimeZone.UTC).getMillis());
+			try {
+				Subject.makeCQLforHistogram(KEYSPACE_NAME, shardIdLists, def, indexkeys, start, stop, true, 30 * day, false);
+				fail("Expected a histogram with too many statements to be rejected");
+			} catch(CQLGenerationException e) {
+				//Expected
+			}
+		}
+
 		public void testMakeCQLforDelete() throws CObjectParseException,CObjectParseException, CQLGenerationException, IOException {
 			String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
 			CDefinition def = CDefinition.fromJsonString(json);
@@ -944,11 +1168,82 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 		s.testMakeCQLforInsert();
 	}
 
+	public void testMakeCQLforIndexBackfill() throws CQLGenerationException, IOException {
+		Subject s = new Subject(0);
+		s.testMakeCQLforIndexBackfill();
+	}
+
 	public void testMakeCQLforGet() throws CQLGenerationException, CObjectParseException, IOException {
 		Subject s = new Subject(0);
 		s.testMakeCQLforGet();
 	}
 
+	public void testMakeCQLforListWithProjection() throws CQLGenerationException, IOException {
+		Subject s = new Subject(0);
+		s.testMakeCQLforListWithProjection();
+	}
+
+	public void testMakeCQLforListSkippingEmptyShards() throws CQLGenerationException, IOException, ShardStrategyException {
+		Subject s = new Subject(0);
+		s.testMakeCQLforListSkippingEmptyShards();
+	}
+
+	public void testMakeCQLforListWithBoundLimit() throws CQLGenerationException, IOException {
+		Subject s = new Subject(0);
+		s.testMakeCQLforListWithBoundLimit();
+	}
+
+	public void testMakeCQLforListAsync() throws Exception {
+		String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+		CDefinition def = CDefinition.fromJsonString(json);
+		Map<String, CDefinition> definitions = Maps.newHashMap();
+		definitions.put(def.getName(), def);
+		final SettableFuture<List<Long>> shardIds = SettableFuture.create();
+		AsyncCObjectShardList shardList = new AsyncCObjectShardList() {
+			@Override
+			public ListenableFuture<List<Long>> getShardIdListAsync(CDefinition def, SortedMap<String, Object> indexValues, CObjectOrdering ordering, @Nullable UUID start, @Nullable UUID end) {
+				return shardIds;
+			}
+
+			@Override
+			public List<Long> getShardIdList(CDefinition def, SortedMap<String, Object> indexValues, CObjectOrdering ordering, @Nullable UUID start, @Nullable UUID end) {
+				throw new AssertionError("The shard index should not be read synchronously");
+			}
+		};
+		CObjectCQLGenerator generator = new CObjectCQLGenerator(KEYSPACE_NAME, definitions, shardList, 0);
+		TreeMap<String,Object> indexkeys = Maps.newTreeMap();
+		indexkeys.put("foreignid","777");
+		indexkeys.put("type", "5");
+		indexkeys.put("instance", "222222");
+		Criteria criteria = new Criteria();
+		criteria.setIndexKeys(indexkeys);
+		criteria.setLimit(10L);
+
+		//An unbounded list waits for the shard index before generating its statements
+		ListenableFuture<CQLStatementIterator> actual = generator.makeCQLforListAsync(TABLE_NAME, criteria, false, shardList, MoreExecutors.sameThreadExecutor());
+		assertFalse(actual.isDone());
+		shardIds.set(Arrays.asList(3L, 2L));
+		CQLStatementIterator statements = actual.get();
+		assertEquals(3L, statements.next().getValues()[0]);
+		statements.nextShard();
+		assertEquals(2L, statements.next().getValues()[0]);
+		assertFalse(statements.hasNext());
+
+		//Criteria that cannot be listed are rejected up front
+		indexkeys.put("data3", "unindexed");
+		try {
+			generator.makeCQLforListAsync(TABLE_NAME, criteria, false, shardList, MoreExecutors.sameThreadExecutor());
+			fail("Expected CQLGenerationException");
+		} catch(CQLGenerationException e) {
+			//Expected
+		}
+	}
+
+	public void testMakeCQLforHistogram() throws CQLGenerationException, IOException {
+		Subject s = new Subject(0);
+		s.testMakeCQLforHistogram();
+	}
+
 	public void testMakeCQLforDelete() throws CQLGenerationException, CObjectParseException, IOException {
 		Subject s = new Subject(0);
 		s.testMakeCQLforDelete();
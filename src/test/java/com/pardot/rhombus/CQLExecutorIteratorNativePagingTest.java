@@ -0,0 +1,155 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.CQLExecutor;
+import com.pardot.rhombus.cobject.statement.CQLExecutorIterator;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import com.pardot.rhombus.cobject.statement.UnboundableCQLStatementIterator;
+import com.pardot.rhombus.helpers.MockExecutorHelpers;
+import junit.framework.TestCase;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.*;
+
+/**
+ * Exercises the driver paging path of CQLExecutorIterator against a mocked executor
+ */
+public class CQLExecutorIteratorNativePagingTest extends TestCase {
+
+	private static final String TEMPLATE = "SELECT * FROM \"ks\".\"tbl\" WHERE shardid = ? AND account_id = ? ORDER BY id ASC LIMIT %d ALLOW FILTERING;";
+
+	private Map<Long, List<Row>> rowsByShard;
+	private List<String> executedQueries;
+	private List<Integer> fetchSizes;
+
+	public void setUp() {
+		rowsByShard = Maps.newHashMap();
+		executedQueries = Lists.newArrayList();
+		fetchSizes = Lists.newArrayList();
+	}
+
+	public void testPagesThroughShardsWithOneStatementEach() {
+		rowsByShard.put(1L, MockExecutorHelpers.makeRows(5));
+		rowsByShard.put(2L, MockExecutorHelpers.makeRows(0));
+		rowsByShard.put(3L, MockExecutorHelpers.makeRows(4));
+
+		CQLExecutorIterator iterator = new CQLExecutorIterator(mockExecutor(), makeStatementIterator(1L, 3L));
+		iterator.setPageSize(2);
+		iterator.setNativePaging(true);
+
+		List<Row> expected = Lists.newArrayList();
+		expected.addAll(rowsByShard.get(1L));
+		expected.addAll(rowsByShard.get(3L));
+		List<Row> actual = Lists.newArrayList();
+		while(iterator.hasNext()) {
+			actual.add(iterator.next());
+		}
+		assertEquals(expected, actual);
+		// One statement per shard, none of them re-issued from a later id
+		assertEquals(3, executedQueries.size());
+		for(String query : executedQueries) {
+			assertTrue(query.endsWith("LIMIT " + Integer.MAX_VALUE + " ALLOW FILTERING;"));
+		}
+		assertEquals(Lists.newArrayList(2, 2, 2), fetchSizes);
+	}
+
+	public void testMovesOnWhenLastDriverPageIsEmpty() {
+		rowsByShard.put(1L, MockExecutorHelpers.makeRows(4));
+		rowsByShard.put(2L, MockExecutorHelpers.makeRows(1));
+
+		CQLExecutorIterator iterator = new CQLExecutorIterator(mockExecutor(), makeStatementIterator(1L, 2L));
+		iterator.setPageSize(2);
+		iterator.setNativePaging(true);
+
+		int count = 0;
+		while(iterator.hasNext()) {
+			assertNotNull(iterator.next());
+			count++;
+		}
+		assertEquals(5, count);
+	}
+
+	private UnboundableCQLStatementIterator makeStatementIterator(long firstShard, long lastShard) {
+		return MockExecutorHelpers.makeStatementIterator(TEMPLATE, firstShard, lastShard, 100L, UUID.randomUUID());
+	}
+
+	private CQLExecutor mockExecutor() {
+		CQLExecutor executor = mock(CQLExecutor.class);
+		when(executor.executeSync(any(CQLStatement.class), anyInt())).thenAnswer(new Answer<ResultSet>() {
+			@Override
+			public ResultSet answer(InvocationOnMock invocation) throws Throwable {
+				CQLStatement statement = (CQLStatement)invocation.getArguments()[0];
+				Integer fetchSize = (Integer)invocation.getArguments()[1];
+				executedQueries.add(statement.getQuery());
+				fetchSizes.add(fetchSize);
+				return new PagedResults(rowsByShard.get((Long)statement.getValues()[0]), fetchSize).resultSet;
+			}
+		});
+		return executor;
+	}
+
+	/**
+	 * Mimics the driver, which only fetches the next page once the current one has been consumed
+	 * and does not know a page is the last one until it has fetched it
+	 */
+	private static class PagedResults {
+		private final List<Row> rows;
+		private final int fetchSize;
+		private int fetched = 0;
+		private int position = 0;
+		private boolean fullyFetched = false;
+		private final ResultSet resultSet = mock(ResultSet.class);
+
+		private PagedResults(final List<Row> rows, int fetchSize) {
+			this.rows = rows;
+			this.fetchSize = fetchSize;
+			fetch();
+			when(resultSet.isExhausted()).thenAnswer(new Answer<Boolean>() {
+				@Override
+				public Boolean answer(InvocationOnMock invocation) throws Throwable {
+					if(position == fetched && !fullyFetched) {
+						fetch();
+					}
+					return position == fetched;
+				}
+			});
+			when(resultSet.getAvailableWithoutFetching()).thenAnswer(new Answer<Integer>() {
+				@Override
+				public Integer answer(InvocationOnMock invocation) throws Throwable {
+					return fetched - position;
+				}
+			});
+			when(resultSet.isFullyFetched()).thenAnswer(new Answer<Boolean>() {
+				@Override
+				public Boolean answer(InvocationOnMock invocation) throws Throwable {
+					return fullyFetched;
+				}
+			});
+			when(resultSet.one()).thenAnswer(new Answer<Row>() {
+				@Override
+				public Row answer(InvocationOnMock invocation) throws Throwable {
+					return rows.get(position++);
+				}
+			});
+		}
+
+		private void fetch() {
+			fetched = Math.min(fetched + fetchSize, rows.size());
+			// Like the driver, a page that happens to end on the last row still reports more to fetch
+			fullyFetched = fetched == rows.size() && rows.size() % fetchSize != 0;
+			if(fetched == rows.size() && position == fetched) {
+				fullyFetched = true;
+			}
+		}
+	}
+}
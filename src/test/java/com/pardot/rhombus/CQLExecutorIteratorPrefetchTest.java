@@ -0,0 +1,173 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.CObjectOrdering;
+import com.pardot.rhombus.cobject.CQLExecutor;
+import com.pardot.rhombus.cobject.statement.BoundedCQLStatementIterator;
+import com.pardot.rhombus.cobject.statement.BoundedLazyCQLStatementIterator;
+import com.pardot.rhombus.cobject.statement.CQLExecutorIterator;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import com.pardot.rhombus.cobject.statement.UnboundableCQLStatementIterator;
+import com.pardot.rhombus.helpers.MockExecutorHelpers;
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Exercises the shard prefetching path of CQLExecutorIterator against a mocked executor
+ */
+public class CQLExecutorIteratorPrefetchTest extends TestCase {
+
+	private static final String TEMPLATE = "SELECT * FROM \"ks\".\"tbl\" WHERE shardid = ? AND account_id = ? ORDER BY id ASC LIMIT %d ALLOW FILTERING;";
+	private static final String BOUNDED_TEMPLATE = "SELECT * FROM \"ks\".\"tbl\" WHERE shardid = ? AND account_id = ? AND id < ? ORDER BY id ASC LIMIT %d ALLOW FILTERING;";
+
+	private Map<Long, List<Row>> rowsByShard;
+	private Map<Long, ResultSetFuture> futuresByShard;
+	private List<Long> executedShards;
+	private List<CQLStatement> executedStatements;
+
+	public void setUp() {
+		rowsByShard = Maps.newHashMap();
+		futuresByShard = Maps.newHashMap();
+		executedShards = Lists.newArrayList();
+		executedStatements = Lists.newArrayList();
+	}
+
+	public void testPrefetchReturnsRowsInShardOrder() {
+		rowsByShard.put(1L, MockExecutorHelpers.makeRows(2));
+		rowsByShard.put(2L, MockExecutorHelpers.makeRows(0));
+		rowsByShard.put(3L, MockExecutorHelpers.makeRows(1));
+		rowsByShard.put(4L, MockExecutorHelpers.makeRows(3));
+
+		CQLExecutorIterator iterator = new CQLExecutorIterator(mockExecutor(), makeStatementIterator(1L, 4L));
+		iterator.setPageSize(100);
+		iterator.setShardPrefetchWindow(2);
+
+		List<Row> expected = Lists.newArrayList();
+		for(long shard = 1; shard <= 4; shard++) {
+			expected.addAll(rowsByShard.get(shard));
+		}
+		List<Row> actual = Lists.newArrayList();
+		while(iterator.hasNext()) {
+			actual.add(iterator.next());
+		}
+		assertEquals(expected, actual);
+		assertEquals(Lists.newArrayList(1L, 2L, 3L, 4L), executedShards);
+		assertEquals(4, iterator.statementNumber);
+	}
+
+	public void testPrefetchIsBoundedByWindow() {
+		for(long shard = 1; shard <= 10; shard++) {
+			rowsByShard.put(shard, MockExecutorHelpers.makeRows(1));
+		}
+
+		CQLExecutorIterator iterator = new CQLExecutorIterator(mockExecutor(), makeStatementIterator(1L, 10L));
+		iterator.setPageSize(100);
+		iterator.setShardPrefetchWindow(3);
+
+		assertTrue(iterator.hasNext());
+		assertNotNull(iterator.next());
+		// The shard being consumed plus three in flight
+		assertEquals(4, executedShards.size());
+	}
+
+	public void testCloseCancelsOutstandingPrefetches() {
+		for(long shard = 1; shard <= 5; shard++) {
+			rowsByShard.put(shard, MockExecutorHelpers.makeRows(1));
+		}
+
+		CQLExecutorIterator iterator = new CQLExecutorIterator(mockExecutor(), makeStatementIterator(1L, 5L));
+		iterator.setPageSize(100);
+		iterator.setShardPrefetchWindow(2);
+
+		assertNotNull(iterator.next());
+		iterator.close();
+
+		verify(futuresByShard.get(1L), never()).cancel(anyBoolean());
+		verify(futuresByShard.get(2L)).cancel(true);
+		verify(futuresByShard.get(3L)).cancel(true);
+	}
+
+	public void testResumesFromRemainingShards() {
+		for(long shard = 1; shard <= 5; shard++) {
+			rowsByShard.put(shard, MockExecutorHelpers.makeRows(3));
+		}
+
+		CQLExecutorIterator iterator = new CQLExecutorIterator(mockExecutor(), makeStatementIterator(1L, 5L));
+		iterator.setPageSize(100);
+		iterator.setShardPrefetchWindow(2);
+
+		iterator.next();
+		iterator.next();
+		// The next row is still in the first shard, and the prefetched shards have not been read
+		assertEquals(rowsByShard.get(1L).get(2).getUUID("id"), iterator.peekNextId());
+		assertEquals(Lists.newArrayList(1L, 2L, 3L, 4L, 5L), iterator.getRemainingShardIds());
+
+		iterator.next();
+		UUID nextId = iterator.peekNextId();
+		assertEquals(rowsByShard.get(2L).get(0).getUUID("id"), nextId);
+		List<Long> remainingShardIds = iterator.getRemainingShardIds();
+		assertEquals(Lists.newArrayList(2L, 3L, 4L, 5L), remainingShardIds);
+		iterator.close();
+
+		// Resuming only queries the remaining shards, starting the first from the next id
+		executedStatements.clear();
+		Object[] values = {UUID.randomUUID(), UUIDs.timeBased()};
+		CQLStatement template = CQLStatement.make(BOUNDED_TEMPLATE, "tbl", values);
+		iterator = new CQLExecutorIterator(mockExecutor(), new BoundedLazyCQLStatementIterator(remainingShardIds, template, 100L, CObjectOrdering.ASCENDING, "tbl"));
+		iterator.setPageSize(100);
+		iterator.setShardPrefetchWindow(1);
+		iterator.setResumeUuid(nextId);
+		assertTrue(iterator.hasNext());
+		CQLStatement resumed = executedStatements.get(0);
+		assertEquals(2L, resumed.getValues()[0]);
+		assertTrue(resumed.getQuery().contains("AND id >= ? AND id <= ?"));
+		assertEquals(nextId, resumed.getValues()[2]);
+		iterator.close();
+	}
+
+	public void testPeekAtEndOfRows() {
+		rowsByShard.put(1L, MockExecutorHelpers.makeRows(1));
+		rowsByShard.put(2L, MockExecutorHelpers.makeRows(0));
+
+		CQLExecutorIterator iterator = new CQLExecutorIterator(mockExecutor(), makeStatementIterator(1L, 2L));
+		iterator.setPageSize(100);
+		iterator.setShardPrefetchWindow(1);
+
+		assertNotNull(iterator.next());
+		assertNull(iterator.peekNextId());
+		assertTrue(iterator.getRemainingShardIds().isEmpty());
+	}
+
+	public void testNoRemainingShardsWhenStatementsAreNotPerShard() {
+		Object[] values = {UUID.randomUUID()};
+		CQLStatement statement = CQLStatement.make(TEMPLATE, "tbl", values);
+		CQLExecutorIterator iterator = new CQLExecutorIterator(mockExecutor(), new BoundedCQLStatementIterator(Lists.newArrayList(statement)));
+		assertTrue(iterator.getRemainingShardIds().isEmpty());
+	}
+
+	private UnboundableCQLStatementIterator makeStatementIterator(long firstShard, long lastShard) {
+		return MockExecutorHelpers.makeStatementIterator(TEMPLATE, firstShard, lastShard, 100L, UUID.randomUUID());
+	}
+
+	private CQLExecutor mockExecutor() {
+		return MockExecutorHelpers.mockExecutor(new MockExecutorHelpers.StatementHandler() {
+			public ResultSetFuture execute(CQLStatement statement) throws Exception {
+				Long shardId = (Long)statement.getValues()[0];
+				executedShards.add(shardId);
+				executedStatements.add(statement);
+				ResultSetFuture future = MockExecutorHelpers.makeFuture(MockExecutorHelpers.makeResultSet(rowsByShard.get(shardId)));
+				futuresByShard.put(shardId, future);
+				return future;
+			}
+		});
+	}
+}
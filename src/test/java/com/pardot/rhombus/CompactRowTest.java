@@ -0,0 +1,74 @@
+package com.pardot.rhombus;
+
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.CompactRow;
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+public class CompactRowTest extends TestCase {
+
+	private static final CompactRow.Schema SCHEMA = new CompactRow.Schema(new String[]{"id", "name", "count"});
+
+	public void testBehavesLikeAMap() {
+		CompactRow row = SCHEMA.newRow(new Object[]{1L, "one", null});
+
+		assertEquals(3, row.size());
+		assertEquals(1L, row.get("id"));
+		assertEquals("one", row.get("name"));
+		assertNull(row.get("count"));
+		assertTrue(row.containsKey("count"));
+		assertFalse(row.containsKey("missing"));
+		assertNull(row.get("missing"));
+
+		Map<String, Object> expected = Maps.newHashMap();
+		expected.put("id", 1L);
+		expected.put("name", "one");
+		expected.put("count", null);
+		assertEquals(expected, row);
+		assertEquals(row, expected);
+		assertEquals(expected.hashCode(), row.hashCode());
+	}
+
+	public void testExistingFieldsCanBeChanged() {
+		CompactRow row = SCHEMA.newRow(new Object[]{1L, "one", null});
+
+		assertEquals("one", row.put("name", "two"));
+		assertEquals("two", row.get("name"));
+		for(Map.Entry<String, Object> entry : row.entrySet()) {
+			if(entry.getKey().equals("count")) {
+				entry.setValue(5);
+			}
+		}
+		assertEquals(5, row.get("count"));
+		// Rows share the schema but not values
+		CompactRow other = SCHEMA.newRow(new Object[]{2L, "other", null});
+		assertEquals("other", other.get("name"));
+		assertNull(other.get("count"));
+	}
+
+	public void testFieldsCannotBeAddedOrRemoved() {
+		CompactRow row = SCHEMA.newRow(new Object[]{1L, "one", null});
+		try {
+			row.put("missing", "value");
+			fail("Expected UnsupportedOperationException");
+		} catch(UnsupportedOperationException e) {
+			// Expected
+		}
+		try {
+			row.remove("name");
+			fail("Expected UnsupportedOperationException");
+		} catch(UnsupportedOperationException e) {
+			// Expected
+		}
+	}
+
+	public void testValuesMustMatchSchema() {
+		try {
+			SCHEMA.newRow(new Object[]{1L});
+			fail("Expected IllegalArgumentException");
+		} catch(IllegalArgumentException e) {
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.BaseEncoding;
+import com.pardot.rhombus.cobject.CObjectOrdering;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.SortedMap;
+
+public class ContinuationTokenTest extends TestCase {
+
+	public void testEncodeAndDecode() throws RhombusException {
+		List<List<Long>> shardIdLists = Lists.newArrayList();
+		shardIdLists.add(Lists.<Long>newArrayList());
+		shardIdLists.add(Lists.newArrayList(7L));
+		shardIdLists.add(Lists.newArrayList(160L, 159L, 158L, 157L));
+		shardIdLists.add(Lists.newArrayList(1L, 2L, 3L, 5L, 9L, 8L, 12L, 13L));
+		for(List<Long> shardIds : shardIdLists) {
+			ContinuationToken token = new ContinuationToken("testtype", new Criteria(), shardIds, UUIDs.timeBased());
+			assertEquals(token, ContinuationToken.decode(token.encode()));
+		}
+	}
+
+	public void testConsecutiveShardsEncodeCompactly() {
+		List<Long> shardIds = Lists.newArrayList();
+		for(long shardId = 10000; shardId > 1000; shardId--) {
+			shardIds.add(shardId);
+		}
+		String encoded = new ContinuationToken("testtype", new Criteria(), shardIds, UUIDs.timeBased()).encode();
+		assertTrue(encoded.length() < 100);
+	}
+
+	public void testDecodeRejectsInvalidTokens() {
+		for(String encoded : Lists.newArrayList("", "not a token", "AAAA")) {
+			try {
+				ContinuationToken.decode(encoded);
+				fail("Expected " + encoded + " to be rejected");
+			} catch(RhombusException e) {
+				//Expected
+			}
+		}
+	}
+
+	public void testDecodeRejectsOversizedTokens() throws Exception {
+		List<long[]> forged = Lists.newArrayList();
+		// Negative run count
+		forged.add(new long[]{});
+		// One run spanning every long
+		forged.add(new long[]{Long.MIN_VALUE, Long.MAX_VALUE});
+		// Runs that are each allowed but together carry too many shards
+		forged.add(new long[]{0, ContinuationToken.MAX_SHARD_IDS - 1, 0, 0});
+		for(long[] runs : forged) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(2);
+			out.writeUTF("testtype");
+			out.writeLong(0);
+			out.writeLong(0);
+			out.writeLong(0);
+			out.writeInt((runs.length == 0) ? -1 : runs.length / 2);
+			for(long endpoint : runs) {
+				out.writeLong(endpoint);
+			}
+			out.flush();
+			try {
+				ContinuationToken.decode(BaseEncoding.base64Url().omitPadding().encode(bytes.toByteArray()));
+				fail("Expected a token with " + runs.length / 2 + " runs to be rejected");
+			} catch(RhombusException e) {
+				//Expected
+			}
+		}
+
+		// A token of the most shards allowed still decodes
+		List<Long> shardIds = Lists.newArrayList();
+		for(long shardId = 0; shardId < ContinuationToken.MAX_SHARD_IDS; shardId++) {
+			shardIds.add(shardId);
+		}
+		ContinuationToken token = new ContinuationToken("testtype", new Criteria(), shardIds, UUIDs.timeBased());
+		assertEquals(token, ContinuationToken.decode(token.encode()));
+	}
+
+	public void testMatchesOnlyTheSameQuery() throws RhombusException {
+		Criteria criteria = makeCriteria();
+		ContinuationToken token = ContinuationToken.decode(new ContinuationToken("testtype", criteria, Lists.newArrayList(1L), UUIDs.timeBased()).encode());
+		assertTrue(token.matches(criteria));
+
+		// Unset values match their defaults, and the page size and projection may change between pages
+		Criteria equivalent = makeCriteria();
+		equivalent.setOrdering((CObjectOrdering)null);
+		equivalent.setLimit(50L);
+		equivalent.setProjection(Sets.newHashSet("data1"));
+		assertTrue(token.matches(equivalent));
+
+		List<Criteria> different = Lists.newArrayList();
+		for(int i = 0; i < 6; i++) {
+			different.add(makeCriteria());
+		}
+		different.get(0).getIndexKeys().put("foreignid", 778L);
+		different.get(1).getIndexKeys().put("type", 5);
+		different.get(2).setOrdering(CObjectOrdering.ASCENDING);
+		different.get(3).setStartUuid(UUIDs.startOf(1000L));
+		different.get(4).setInclusive(false);
+		different.get(5).setAllowFiltering(true);
+		for(Criteria criterion : different) {
+			assertFalse(criterion.toString(), token.matches(criterion));
+		}
+	}
+
+	public void testJavaSerialization() throws Exception {
+		ContinuationToken token = new ContinuationToken("testtype", new Criteria(), Lists.newArrayList(3L, 2L, 1L), UUIDs.timeBased());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(token);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(token, in.readObject());
+	}
+
+	private Criteria makeCriteria() {
+		Criteria criteria = new Criteria();
+		SortedMap<String, Object> indexKeys = Maps.newTreeMap();
+		indexKeys.put("foreignid", 777L);
+		criteria.setIndexKeys(indexKeys);
+		criteria.setOrdering(CObjectOrdering.DESCENDING);
+		criteria.setEndUuid(UUIDs.startOf(1000000L));
+		criteria.setLimit(10L);
+		return criteria;
+	}
+}
@@ -0,0 +1,106 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.base.Function;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.statement.CQLExecutorIterator;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Cursors over mocked rows for the cursor tests. Kept in this package since the cursors can only be built here.
+ */
+class CursorTestHelpers {
+
+	/**
+	 * Maps each row to an object with just its id
+	 */
+	static final Function<Row, Map<String, Object>> ID_ROW_MAPPER = new Function<Row, Map<String, Object>>() {
+		public Map<String, Object> apply(Row row) {
+			Map<String, Object> result = Maps.newHashMap();
+			result.put("id", row.getUUID("id"));
+			return result;
+		}
+	};
+
+	/**
+	 * @return Unfiltered, unlimited cursors over the iterators, with objects mapped by ID_ROW_MAPPER
+	 */
+	static List<ObjectCursor> makeCursors(List<CQLExecutorIterator> iterators) {
+		List<ObjectCursor> cursors = Lists.newArrayList();
+		for(CQLExecutorIterator iterator : iterators) {
+			cursors.add(new ObjectCursor(iterator, ID_ROW_MAPPER, Predicates.<Map<String, Object>>alwaysTrue(), 0L));
+		}
+		return cursors;
+	}
+
+	/**
+	 * @return Iterator over rows whose ids are the first possible id of each timestamp, so the same timestamp always
+	 * gets the same id
+	 */
+	static CQLExecutorIterator mockIterator(long... times) {
+		UUID[] ids = new UUID[times.length];
+		for(int i = 0; i < times.length; i++) {
+			ids[i] = UUIDs.startOf(times[i]);
+		}
+		return mockIteratorOfIds(ids);
+	}
+
+	static CQLExecutorIterator mockIteratorOfIds(UUID... ids) {
+		List<Row> rows = Lists.newArrayList();
+		for(UUID id : ids) {
+			Row row = mock(Row.class);
+			when(row.getUUID("id")).thenReturn(id);
+			rows.add(row);
+		}
+		return mockIterator(rows);
+	}
+
+	static CQLExecutorIterator mockIterator(List<Row> rows) {
+		final Iterator<Row> rowIterator = rows.iterator();
+		CQLExecutorIterator cqlIterator = mock(CQLExecutorIterator.class);
+		when(cqlIterator.hasNext()).thenAnswer(new Answer<Boolean>() {
+			public Boolean answer(InvocationOnMock invocation) {
+				return rowIterator.hasNext();
+			}
+		});
+		when(cqlIterator.next()).thenAnswer(new Answer<Row>() {
+			public Row answer(InvocationOnMock invocation) {
+				return rowIterator.next();
+			}
+		});
+		return cqlIterator;
+	}
+
+	/**
+	 * @return Timestamps of the ids left in the cursor, in order
+	 */
+	static List<Long> idTimestamps(Iterator<?> ids) {
+		List<Long> timestamps = Lists.newArrayList();
+		while(ids.hasNext()) {
+			timestamps.add(UUIDs.unixTimestamp((UUID)ids.next()));
+		}
+		return timestamps;
+	}
+
+	/**
+	 * @return Timestamps of the ids of the objects left in the cursor, in order
+	 */
+	static List<Long> objectTimestamps(Iterator<Map<String, Object>> objects) {
+		List<Long> timestamps = Lists.newArrayList();
+		while(objects.hasNext()) {
+			timestamps.add(UUIDs.unixTimestamp((UUID)objects.next().get("id")));
+		}
+		return timestamps;
+	}
+}
@@ -0,0 +1,57 @@
+package com.pardot.rhombus;
+
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.GuavaObjectCache;
+import junit.framework.TestCase;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+public class GuavaObjectCacheTest extends TestCase {
+
+	public void testGetPutAndInvalidate() {
+		GuavaObjectCache cache = new GuavaObjectCache(10, 1, TimeUnit.MINUTES);
+		UUID key = UUID.randomUUID();
+		assertNull(cache.get("testtype", key));
+
+		cache.put("testtype", key, makeObject("one"));
+		assertEquals("one", cache.get("testtype", key).get("data1"));
+		assertNull(cache.get("othertype", key));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+
+		cache.invalidate("testtype", key);
+		assertNull(cache.get("testtype", key));
+	}
+
+	public void testObjectsAreCopied() {
+		GuavaObjectCache cache = new GuavaObjectCache(10, 1, TimeUnit.MINUTES);
+		UUID key = UUID.randomUUID();
+		Map<String, Object> object = makeObject("one");
+		cache.put("testtype", key, object);
+		object.put("data1", "two");
+		cache.get("testtype", key).put("data1", "three");
+		assertEquals("one", cache.get("testtype", key).get("data1"));
+	}
+
+	public void testBoundedBySizeAndTtl() throws InterruptedException {
+		GuavaObjectCache cache = new GuavaObjectCache(2, 1, TimeUnit.MINUTES);
+		for(int i = 0; i < 5; i++) {
+			cache.put("testtype", UUID.randomUUID(), makeObject("one"));
+		}
+		assertTrue(cache.size() <= 2);
+
+		cache = new GuavaObjectCache(10, 10, TimeUnit.MILLISECONDS);
+		UUID key = UUID.randomUUID();
+		cache.put("testtype", key, makeObject("one"));
+		Thread.sleep(50);
+		assertNull(cache.get("testtype", key));
+	}
+
+	private Map<String, Object> makeObject(String data) {
+		Map<String, Object> object = Maps.newHashMap();
+		object.put("data1", data);
+		return object;
+	}
+}
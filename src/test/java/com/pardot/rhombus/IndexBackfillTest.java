@@ -0,0 +1,161 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import com.pardot.rhombus.cobject.CIndex;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.*;
+
+public class IndexBackfillTest extends TestCase {
+
+	private static final List<CIndex> INDEXES = Lists.newArrayList(new CIndex());
+
+	public void testWritesEveryObject() throws Exception {
+		ObjectMapper objectMapper = mockObjectMapperWithObjectPerRange();
+		when(objectMapper.backfillIndexesAsync(anyString(), anyMapOf(String.class, Object.class), anyCollectionOf(CIndex.class)))
+				.thenReturn(Futures.<Void>immediateFuture(null));
+
+		IndexBackfill backfill = new IndexBackfill(objectMapper, "testtype", INDEXES, 2, null);
+		backfill.getTableScanner().setSplitsPerPartition(4);
+		backfill.setMaxWritesInFlight(2);
+		backfill.run();
+
+		assertEquals(8, backfill.getObjectsWritten());
+		verify(objectMapper, times(8)).backfillIndexesAsync(eq("testtype"), anyMapOf(String.class, Object.class), eq(INDEXES));
+		assertEquals(1.0, backfill.getTableScanner().getProgress());
+	}
+
+	public void testCheckpointWaitsForWrites() throws Exception {
+		File savepointDirectory = Files.createTempDir();
+		try {
+			ObjectMapper objectMapper = mockObjectMapperWithObjectPerRange();
+			// Writes only finish once the batch has been visited, as they would if sent asynchronously
+			final List<SettableFuture<Void>> pending = Lists.newArrayList();
+			when(objectMapper.backfillIndexesAsync(anyString(), anyMapOf(String.class, Object.class), anyCollectionOf(CIndex.class)))
+					.thenAnswer(new Answer<Object>() {
+						@Override
+						public Object answer(InvocationOnMock invocation) throws Throwable {
+							final SettableFuture<Void> future = SettableFuture.create();
+							pending.add(future);
+							new Thread(new Runnable() {
+								@Override
+								public void run() {
+									try {
+										Thread.sleep(50);
+									} catch(InterruptedException e) {
+										//Finish early
+									}
+									future.set(null);
+								}
+							}).start();
+							return future;
+						}
+					});
+
+			// The scan pages on from a batch only after recording its progress
+			final AtomicBoolean pagedBeforeWritesFinished = new AtomicBoolean(false);
+			when(objectMapper.scanTableAfterId(anyString(), any(), anyLong(), anyLong())).thenAnswer(new Answer<List<Map<String, Object>>>() {
+				@Override
+				public List<Map<String, Object>> answer(InvocationOnMock invocation) throws Throwable {
+					for(SettableFuture<Void> future : pending) {
+						if(!future.isDone()) {
+							pagedBeforeWritesFinished.set(true);
+						}
+					}
+					return Lists.newArrayList();
+				}
+			});
+
+			IndexBackfill backfill = new IndexBackfill(objectMapper, "testtype", INDEXES, 1, savepointDirectory.getPath());
+			backfill.getTableScanner().setSplitsPerPartition(3);
+			backfill.run();
+
+			assertEquals(3, pending.size());
+			assertFalse(pagedBeforeWritesFinished.get());
+			assertEquals(3, backfill.getObjectsWritten());
+			ScanCheckpoint checkpoint = ScanCheckpoint.read(new File(savepointDirectory, TableScanner.CHECKPOINT_FILENAME));
+			for(int i = 0; i < 3; i++) {
+				assertNull(checkpoint.getStartToken(i));
+			}
+		} finally {
+			FileUtils.deleteDirectory(savepointDirectory);
+		}
+	}
+
+	public void testFailedWriteStopsBackfill() throws Exception {
+		File savepointDirectory = Files.createTempDir();
+		try {
+			ObjectMapper objectMapper = mockObjectMapperWithObjectPerRange();
+			when(objectMapper.backfillIndexesAsync(anyString(), anyMapOf(String.class, Object.class), anyCollectionOf(CIndex.class)))
+					.thenReturn(Futures.<Void>immediateFailedFuture(new RhombusException("write failed")));
+
+			IndexBackfill backfill = new IndexBackfill(objectMapper, "testtype", INDEXES, 1, savepointDirectory.getPath());
+			backfill.getTableScanner().setSplitsPerPartition(2);
+			try {
+				backfill.run();
+				fail("Expected the failed write to fail the backfill");
+			} catch(RhombusException e) {
+				//Expected
+			}
+
+			// The failed batch is not checkpointed, so resuming writes it again, and the scan stops there
+			List<Map.Entry<Long, Long>> ranges = TableScanner.makeRanges(2);
+			ScanCheckpoint checkpoint = ScanCheckpoint.read(new File(savepointDirectory, TableScanner.CHECKPOINT_FILENAME));
+			if(checkpoint != null) {
+				assertEquals(ranges.get(0).getKey(), checkpoint.getStartToken(0));
+				assertEquals(ranges.get(1).getKey(), checkpoint.getStartToken(1));
+			}
+			verify(objectMapper, times(1)).backfillIndexesAsync(anyString(), anyMapOf(String.class, Object.class), anyCollectionOf(CIndex.class));
+			assertEquals(0, backfill.getObjectsWritten());
+		} finally {
+			FileUtils.deleteDirectory(savepointDirectory);
+		}
+	}
+
+	public void testFailedReadFailsBackfill() throws Exception {
+		ObjectMapper objectMapper = mockObjectMapperWithObjectPerRange();
+		when(objectMapper.backfillIndexesAsync(anyString(), anyMapOf(String.class, Object.class), anyCollectionOf(CIndex.class)))
+				.thenReturn(Futures.<Void>immediateFuture(null));
+		when(objectMapper.scanTableAfterId(anyString(), any(), anyLong(), anyLong())).thenThrow(new RhombusException("read failed"));
+
+		IndexBackfill backfill = new IndexBackfill(objectMapper, "testtype", INDEXES, 1, null);
+		backfill.getTableScanner().setStatementRetries(1);
+		try {
+			backfill.run();
+			fail("Expected the failed read to fail the backfill");
+		} catch(RhombusException e) {
+			assertTrue(e.getMessage().contains("read failed"));
+		}
+	}
+
+	/**
+	 * @return Object mapper whose table has one object at the start of each range
+	 */
+	private ObjectMapper mockObjectMapperWithObjectPerRange() throws Exception {
+		ObjectMapper objectMapper = mock(ObjectMapper.class);
+		when(objectMapper.scanTableWithStartToken(anyString(), anyLong(), anyLong(), anyLong())).thenAnswer(new Answer<List<Map<String, Object>>>() {
+			@Override
+			public List<Map<String, Object>> answer(InvocationOnMock invocation) throws Throwable {
+				Map<String, Object> object = Maps.newHashMap();
+				object.put("id", UUIDs.timeBased());
+				return Lists.newArrayList(object);
+			}
+		});
+		when(objectMapper.scanTableAfterId(anyString(), any(), anyLong(), anyLong())).thenReturn(Lists.<Map<String, Object>>newArrayList());
+		return objectMapper;
+	}
+}
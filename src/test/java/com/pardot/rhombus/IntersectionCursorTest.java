@@ -0,0 +1,52 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.collect.Lists;
+import com.pardot.rhombus.cobject.CObjectOrdering;
+import com.pardot.rhombus.cobject.statement.CQLExecutorIterator;
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.UUID;
+
+import static com.pardot.rhombus.CursorTestHelpers.*;
+import static org.mockito.Mockito.*;
+
+public class IntersectionCursorTest extends TestCase {
+
+	public void testIntersectsAscending() {
+		List<CQLExecutorIterator> iterators = Lists.newArrayList(mockIterator(1, 2, 4, 6, 8, 9), mockIterator(2, 3, 4, 8, 9), mockIterator(0, 2, 4, 5, 9));
+		IntersectionCursor cursor = new IntersectionCursor(makeCursors(iterators), CObjectOrdering.ASCENDING);
+
+		assertEquals(Lists.newArrayList(2L, 4L, 9L), idTimestamps(cursor));
+		for(CQLExecutorIterator iterator : iterators) {
+			verify(iterator).close();
+		}
+	}
+
+	public void testIntersectsDescending() {
+		List<CQLExecutorIterator> iterators = Lists.newArrayList(mockIterator(9, 7, 5, 3), mockIterator(8, 7, 3, 1));
+		IntersectionCursor cursor = new IntersectionCursor(makeCursors(iterators), CObjectOrdering.DESCENDING);
+
+		assertEquals(Lists.newArrayList(7L, 3L), idTimestamps(cursor));
+	}
+
+	public void testStopsWhenAnyCursorIsExhausted() {
+		CQLExecutorIterator shorter = mockIterator(1, 2);
+		CQLExecutorIterator longer = mockIterator(1, 3, 4, 5, 6, 7);
+		IntersectionCursor cursor = new IntersectionCursor(makeCursors(Lists.newArrayList(shorter, longer)), CObjectOrdering.ASCENDING);
+
+		assertEquals(Lists.newArrayList(1L), idTimestamps(cursor));
+		// The longer cursor is not read past the last id of the shorter one
+		verify(longer, times(2)).next();
+	}
+
+	public void testIdsWithTheSameTimestampDoNotMatch() {
+		UUID a = UUIDs.startOf(5);
+		UUID b = UUIDs.endOf(5);
+		List<CQLExecutorIterator> iterators = Lists.newArrayList(mockIteratorOfIds(a), mockIteratorOfIds(b));
+		IntersectionCursor cursor = new IntersectionCursor(makeCursors(iterators), CObjectOrdering.ASCENDING);
+
+		assertFalse(cursor.hasNext());
+	}
+}
@@ -0,0 +1,44 @@
+package com.pardot.rhombus;
+
+import com.google.common.collect.Lists;
+import com.pardot.rhombus.cobject.CObjectOrdering;
+import com.pardot.rhombus.cobject.statement.CQLExecutorIterator;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+import static com.pardot.rhombus.CursorTestHelpers.*;
+import static org.mockito.Mockito.*;
+
+public class MergedObjectCursorTest extends TestCase {
+
+	public void testMergesInAscendingOrder() {
+		List<CQLExecutorIterator> iterators = Lists.newArrayList(mockIterator(1, 4, 7), mockIterator(2, 3, 9), mockIterator(5));
+		MergedObjectCursor cursor = new MergedObjectCursor(makeCursors(iterators), CObjectOrdering.ASCENDING, 0L);
+
+		assertEquals(Lists.newArrayList(1L, 2L, 3L, 4L, 5L, 7L, 9L), objectTimestamps(cursor));
+		for(CQLExecutorIterator iterator : iterators) {
+			verify(iterator).close();
+		}
+	}
+
+	public void testMergesInDescendingOrder() {
+		List<CQLExecutorIterator> iterators = Lists.newArrayList(mockIterator(7, 4, 1), mockIterator(9, 3, 2), mockIterator());
+		MergedObjectCursor cursor = new MergedObjectCursor(makeCursors(iterators), CObjectOrdering.DESCENDING, 0L);
+
+		assertEquals(Lists.newArrayList(9L, 7L, 4L, 3L, 2L, 1L), objectTimestamps(cursor));
+	}
+
+	public void testStopsReadingAtLimit() {
+		CQLExecutorIterator newest = mockIterator(9, 8, 7, 6, 5);
+		CQLExecutorIterator oldest = mockIterator(3, 2, 1);
+		MergedObjectCursor cursor = new MergedObjectCursor(makeCursors(Lists.newArrayList(newest, oldest)), CObjectOrdering.DESCENDING, 3L);
+
+		assertEquals(Lists.newArrayList(9L, 8L, 7L), objectTimestamps(cursor));
+		// Only the head of the older cursor was ever read
+		verify(oldest, times(1)).next();
+		verify(newest, times(4)).next();
+		verify(oldest).close();
+		verify(newest).close();
+	}
+}
@@ -0,0 +1,92 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.Row;
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.statement.CQLExecutorIterator;
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static com.pardot.rhombus.CursorTestHelpers.mockIterator;
+import static org.mockito.Mockito.*;
+
+public class ObjectCursorTest extends TestCase {
+
+	private static final Function<Row, Map<String, Object>> ROW_MAPPER = new Function<Row, Map<String, Object>>() {
+		public Map<String, Object> apply(Row row) {
+			Map<String, Object> result = Maps.newHashMap();
+			result.put("value", row.getInt("value"));
+			return result;
+		}
+	};
+
+	public void testMapsRowsUntilExhausted() {
+		CQLExecutorIterator cqlIterator = mockIterator(makeRows(1, 2, 3));
+		ObjectCursor cursor = new ObjectCursor(cqlIterator, ROW_MAPPER, Predicates.<Map<String, Object>>alwaysTrue(), 0L);
+
+		assertEquals(Lists.newArrayList(1, 2, 3), values(cursor));
+		assertFalse(cursor.hasNext());
+		verify(cqlIterator, times(1)).close();
+		try {
+			cursor.next();
+			fail("Expected NoSuchElementException");
+		} catch(NoSuchElementException e) {
+			// Expected
+		}
+	}
+
+	public void testSkipsObjectsThatDoNotMatchFilter() {
+		Predicate<Map<String, Object>> even = new Predicate<Map<String, Object>>() {
+			public boolean apply(Map<String, Object> result) {
+				return ((Integer)result.get("value")) % 2 == 0;
+			}
+		};
+		ObjectCursor cursor = new ObjectCursor(mockIterator(makeRows(1, 2, 3, 4, 5, 6)), ROW_MAPPER, even, 2L);
+
+		assertEquals(Lists.newArrayList(2, 4), values(cursor));
+	}
+
+	public void testStopsReadingRowsAtLimit() {
+		CQLExecutorIterator cqlIterator = mockIterator(makeRows(1, 2, 3, 4));
+		ObjectCursor cursor = new ObjectCursor(cqlIterator, ROW_MAPPER, Predicates.<Map<String, Object>>alwaysTrue(), 2L);
+
+		assertEquals(Lists.newArrayList(1, 2), values(cursor));
+		verify(cqlIterator, times(2)).next();
+		verify(cqlIterator, times(1)).close();
+	}
+
+	public void testCloseStopsIteration() {
+		CQLExecutorIterator cqlIterator = mockIterator(makeRows(1, 2, 3));
+		ObjectCursor cursor = new ObjectCursor(cqlIterator, ROW_MAPPER, Predicates.<Map<String, Object>>alwaysTrue(), 0L);
+
+		assertTrue(cursor.hasNext());
+		cursor.close();
+		cursor.close();
+		assertFalse(cursor.hasNext());
+		verify(cqlIterator, times(1)).close();
+	}
+
+	private List<Integer> values(ObjectCursor cursor) {
+		List<Integer> values = Lists.newArrayList();
+		while(cursor.hasNext()) {
+			values.add((Integer)cursor.next().get("value"));
+		}
+		return values;
+	}
+
+	private List<Row> makeRows(int... values) {
+		List<Row> rows = Lists.newArrayList();
+		for(int value : values) {
+			Row row = mock(Row.class);
+			when(row.getInt("value")).thenReturn(value);
+			rows.add(row);
+		}
+		return rows;
+	}
+}
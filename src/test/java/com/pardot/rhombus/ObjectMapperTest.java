@@ -1,12 +1,38 @@
 package com.pardot.rhombus;
 
 import com.google.common.collect.Maps;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.pardot.rhombus.cobject.CDefinition;
 import com.pardot.rhombus.cobject.CKeyspaceDefinition;
+import com.pardot.rhombus.cobject.CObjectTokenVisitor;
+import com.pardot.rhombus.cobject.CObjectTokenVisitorFactory;
+import com.pardot.rhombus.cobject.CObjectShardList;
+import com.pardot.rhombus.cobject.ObjectCache;
+import com.pardot.rhombus.cobject.ShardIndexWriteCache;
+import com.pardot.rhombus.cobject.statement.BoundedCQLStatementIterator;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -48,4 +74,169 @@ public class ObjectMapperTest {
 		boolean matches = getObjectMapper().resultMatchesFilters(result, clientFilters);
 		assertFalse(matches);
 	}
+
+	@Test
+	public void testGetByKeyServedFromObjectCache() throws Exception {
+		UUID key = UUID.randomUUID();
+		Map<String, Object> cached = Maps.newHashMap();
+		cached.put("account_id", 2);
+		ObjectCache objectCache = mock(ObjectCache.class);
+		when(objectCache.get("testtype", key)).thenReturn(cached);
+
+		// With no session, anything not served from the cache would fail
+		ObjectMapper objectMapper = getObjectMapper();
+		objectMapper.setObjectCache(objectCache);
+		assertEquals(cached, objectMapper.getByKey("testtype", key));
+		Map<UUID, Map<String, Object>> results = objectMapper.getByKeys("testtype", Lists.newArrayList(key));
+		assertEquals(1, results.size());
+		assertEquals(cached, results.get(key));
+		assertEquals(cached, objectMapper.getByKeyAsync("testtype", key).get());
+	}
+
+	@Test
+	public void testVisitObjectsStopsAtFirstFailedRange() throws Exception {
+		CDefinition def = mock(CDefinition.class);
+		when(def.getName()).thenReturn("testtype");
+		CKeyspaceDefinition keyspaceDefinition = mock(CKeyspaceDefinition.class);
+		when(keyspaceDefinition.getName()).thenReturn("testspace");
+		when(keyspaceDefinition.getDefinitions()).thenReturn(Collections.singletonMap("testtype", def));
+
+		// The first range read waits until released, the second fails, and the rest are empty
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger reads = new AtomicInteger();
+		final Row row = mock(Row.class);
+		Session session = mock(Session.class);
+		when(session.execute(any(Statement.class))).thenAnswer(new Answer<ResultSet>() {
+			@Override
+			public ResultSet answer(InvocationOnMock invocation) throws Throwable {
+				ResultSet resultSet = mock(ResultSet.class);
+				int read = reads.incrementAndGet();
+				if(read == 1) {
+					// Shutting down the visit interrupts this thread, which should not be what stops the range
+					Uninterruptibles.awaitUninterruptibly(release, 10, TimeUnit.SECONDS);
+					when(resultSet.iterator()).thenReturn(Lists.newArrayList(row).iterator());
+				} else if(read == 2) {
+					throw new IllegalStateException("range failed");
+				} else {
+					when(resultSet.iterator()).thenReturn(Lists.<Row>newArrayList().iterator());
+				}
+				return resultSet;
+			}
+		});
+
+		final AtomicInteger visited = new AtomicInteger();
+		final AtomicInteger cleanedUp = new AtomicInteger();
+		ObjectMapper objectMapper = new ObjectMapper(session, keyspaceDefinition, 1000, 1000l);
+		objectMapper.setVisitObjectsConcurrency(2);
+		long started = System.currentTimeMillis();
+		try {
+			objectMapper.visitObjects("testtype", new CObjectTokenVisitorFactory() {
+				@Override
+				public CObjectTokenVisitor getInstance(String name) {
+					return new CObjectTokenVisitor(name) {
+						@Override
+						public void applyAction(Map<String, Object> object) {
+							visited.incrementAndGet();
+						}
+
+						@Override
+						public boolean shouldInclude(Map<String, Object> object) {
+							return true;
+						}
+
+						@Override
+						public void setUp() {
+						}
+
+						@Override
+						public void cleanUp() {
+							cleanedUp.incrementAndGet();
+						}
+					};
+				}
+			});
+			fail("Expected the failed range to fail the visit");
+		} catch(RuntimeException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		// The failure is thrown without waiting for the range still being read
+		assertTrue(System.currentTimeMillis() - started < 5000);
+
+		// Once released, that range stops before visiting its objects
+		release.countDown();
+		for(int i = 0; i < 100 && cleanedUp.get() < reads.get(); i++) {
+			Thread.sleep(100);
+		}
+		assertEquals(reads.get(), cleanedUp.get());
+		assertEquals(0, visited.get());
+		verify(row, never()).getColumnDefinitions();
+	}
+
+	@Test
+	public void testInterruptedWriteIsNotRecordedInShardIndexWriteCache() throws Exception {
+		CKeyspaceDefinition keyspaceDefinition = mock(CKeyspaceDefinition.class);
+		when(keyspaceDefinition.getName()).thenReturn("testspace");
+		// The shard index insert is sent, but never finishes executing
+		Session session = mock(Session.class);
+		when(session.executeAsync(any(Statement.class))).thenReturn(mock(ResultSetFuture.class));
+		ObjectMapper objectMapper = new ObjectMapper(session, keyspaceDefinition, 1000, 10000l);
+		ShardIndexWriteCache shardIndexWriteCache = new ShardIndexWriteCache(100, 1, TimeUnit.HOURS);
+		objectMapper.setShardIndexWriteCache(shardIndexWriteCache);
+
+		String query = "INSERT INTO \"testspace\".\"__shardindex\" (tablename, indexvalues, shardid, targetrowkey) VALUES (?, ?, ?, ?);";
+		ColumnDefinitions variables = mock(ColumnDefinitions.class);
+		when(variables.size()).thenReturn(4);
+		when(variables.getType(anyInt())).thenReturn(DataType.text());
+		when(variables.getType(2)).thenReturn(DataType.bigint());
+		PreparedStatement preparedStatement = mock(PreparedStatement.class);
+		when(preparedStatement.getVariables()).thenReturn(variables);
+		objectMapper.getCqlExecutor().getPreparedStatementCache().put(query, preparedStatement);
+		Object[] values = {"testtable", "777", 160L, "160:777"};
+		CQLStatement statement = CQLStatement.make(query, CObjectShardList.SHARD_INDEX_TABLE_NAME, values);
+
+		final Thread writer = Thread.currentThread();
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+				writer.interrupt();
+			}
+		}).start();
+		try {
+			objectMapper.executeStatements(new BoundedCQLStatementIterator(Lists.newArrayList(statement)));
+			fail("Expected the interrupted write to fail");
+		} catch(RhombusException e) {
+			// The interrupt is passed on to the caller
+			assertTrue(Thread.interrupted());
+		}
+		assertFalse(shardIndexWriteCache.isRecentlyWritten("testtable", "777", 160L));
+	}
+
+	@Test
+	public void testListPageRejectsTokenFromDifferentCriteria() throws Exception {
+		CDefinition def = mock(CDefinition.class);
+		when(def.getName()).thenReturn("testtype");
+		CKeyspaceDefinition keyspaceDefinition = mock(CKeyspaceDefinition.class);
+		when(keyspaceDefinition.getName()).thenReturn("testspace");
+		when(keyspaceDefinition.getDefinitions()).thenReturn(Collections.singletonMap("testtype", def));
+		ObjectMapper objectMapper = new ObjectMapper(null, keyspaceDefinition, 1000, 1000l);
+
+		Criteria criteria = new Criteria();
+		SortedMap<String, Object> indexKeys = Maps.newTreeMap();
+		indexKeys.put("foreignid", 777L);
+		criteria.setIndexKeys(indexKeys);
+		ContinuationToken token = new ContinuationToken("testtype", criteria, Lists.newArrayList(160L), UUID.randomUUID());
+
+		// With no session, the token must be rejected before any query is run
+		Criteria other = new Criteria();
+		SortedMap<String, Object> otherIndexKeys = Maps.newTreeMap();
+		otherIndexKeys.put("foreignid", 778L);
+		other.setIndexKeys(otherIndexKeys);
+		try {
+			objectMapper.listPage("testtype", other, token);
+			fail("Expected a token from different criteria to be rejected");
+		} catch(RhombusException e) {
+			//Expected
+		}
+	}
 }
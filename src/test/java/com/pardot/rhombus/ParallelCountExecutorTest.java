@@ -0,0 +1,89 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.ResultSetFuture;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.CQLExecutor;
+import com.pardot.rhombus.cobject.async.ParallelCountExecutor;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import com.pardot.rhombus.cobject.statement.UnboundableCQLStatementIterator;
+import com.pardot.rhombus.helpers.MockExecutorHelpers;
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Exercises ParallelCountExecutor against a mocked executor whose futures complete as soon as a listener is added
+ */
+public class ParallelCountExecutorTest extends TestCase {
+
+	private static final String TEMPLATE = "SELECT count(*) FROM \"ks\".\"tbl\" WHERE shardid = ? AND account_id = ? ORDER BY id ASC %s ALLOW FILTERING;";
+
+	private Map<Long, Long> countsByShard;
+	private Map<Long, ResultSetFuture> futuresByShard;
+	private List<Long> executedShards;
+
+	public void setUp() {
+		countsByShard = Maps.newHashMap();
+		futuresByShard = Maps.newHashMap();
+		executedShards = Lists.newArrayList();
+	}
+
+	public void testSumsEveryShard() {
+		for(long shard = 1; shard <= 20; shard++) {
+			countsByShard.put(shard, shard);
+		}
+		ParallelCountExecutor countExecutor = new ParallelCountExecutor(mockExecutor(), makeStatementIterator(1L, 20L), 4);
+
+		assertEquals(210L, countExecutor.count(0L));
+		assertEquals(20, executedShards.size());
+		assertEquals(20, countExecutor.getStatementNumber());
+	}
+
+	public void testStopsAtLimitAndCancelsOutstanding() {
+		for(long shard = 1; shard <= 20; shard++) {
+			countsByShard.put(shard, 10L);
+		}
+		ParallelCountExecutor countExecutor = new ParallelCountExecutor(mockExecutor(), makeStatementIterator(1L, 20L), 4);
+
+		assertEquals(25L, countExecutor.count(25L));
+		// Shards 1 to 3 reach the limit while shards 4 to 6 are still in flight
+		assertEquals(6, executedShards.size());
+		verify(futuresByShard.get(1L), never()).cancel(anyBoolean());
+		verify(futuresByShard.get(4L)).cancel(true);
+		verify(futuresByShard.get(6L)).cancel(true);
+	}
+
+	public void testCountsEachStatementInOrder() {
+		for(long shard = 1; shard <= 10; shard++) {
+			countsByShard.put(shard, shard * 10);
+		}
+		ParallelCountExecutor countExecutor = new ParallelCountExecutor(mockExecutor(), makeStatementIterator(1L, 10L), 3);
+
+		long[] counts = countExecutor.countEach();
+		assertEquals(10, counts.length);
+		for(int i = 0; i < counts.length; i++) {
+			assertEquals((i + 1) * 10L, counts[i]);
+		}
+	}
+
+	private UnboundableCQLStatementIterator makeStatementIterator(long firstShard, long lastShard) {
+		return MockExecutorHelpers.makeStatementIterator(TEMPLATE, firstShard, lastShard, 0L, UUID.randomUUID());
+	}
+
+	private CQLExecutor mockExecutor() {
+		return MockExecutorHelpers.mockExecutor(new MockExecutorHelpers.StatementHandler() {
+			public ResultSetFuture execute(CQLStatement statement) throws Exception {
+				Long shardId = (Long)statement.getValues()[0];
+				executedShards.add(shardId);
+				ResultSetFuture future = MockExecutorHelpers.makeFuture(MockExecutorHelpers.makeCountResultSet(countsByShard.get(shardId)));
+				futuresByShard.put(shardId, future);
+				return future;
+			}
+		});
+	}
+}
@@ -0,0 +1,142 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.CObjectOrdering;
+import com.pardot.rhombus.cobject.QueryResultCache;
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+public class QueryResultCacheTest extends TestCase {
+
+	public void testListAndCountAreCachedSeparately() {
+		QueryResultCache cache = new QueryResultCache(10, 1024 * 1024);
+		Criteria criteria = makeCriteria();
+		assertNull(cache.getList("testtype", criteria));
+
+		cache.putList("testtype", cache.getGeneration("testtype"), criteria, makeResults(3));
+		assertEquals(3, cache.getList("testtype", criteria).size());
+		assertNull(cache.getCount("testtype", criteria));
+		assertNull(cache.getList("othertype", criteria));
+
+		cache.putCount("testtype", cache.getGeneration("testtype"), criteria, 3L);
+		assertEquals(Long.valueOf(3L), cache.getCount("testtype", criteria));
+		assertEquals(2, cache.getHitCount());
+		assertEquals(3, cache.getMissCount());
+	}
+
+	public void testEquivalentCriteriaShareEntries() {
+		QueryResultCache cache = new QueryResultCache(10, 1024 * 1024);
+		Criteria criteria = makeCriteria();
+		cache.putList("testtype", 0L, criteria, makeResults(2));
+
+		// Descending is the default ordering
+		Criteria equivalent = makeCriteria();
+		equivalent.setOrdering((CObjectOrdering)null);
+		assertNotNull(cache.getList("testtype", equivalent));
+
+		Criteria different = makeCriteria();
+		different.setLimit(5L);
+		assertNull(cache.getList("testtype", different));
+	}
+
+	public void testIntersectIndexesCachedSeparately() {
+		QueryResultCache cache = new QueryResultCache(10, 1024 * 1024);
+		Criteria criteria = makeCriteria();
+		cache.putList("testtype", 0L, criteria, makeResults(2));
+
+		// Intersection returns differently shaped results, so it must not share an entry
+		Criteria intersecting = makeCriteria();
+		intersecting.setIntersectIndexes(true);
+		assertNull(cache.getList("testtype", intersecting));
+
+		// An unset flag is the same as false
+		Criteria unset = makeCriteria();
+		unset.setIntersectIndexes(null);
+		assertNotNull(cache.getList("testtype", unset));
+	}
+
+	public void testInvalidateByObjectType() {
+		QueryResultCache cache = new QueryResultCache(10, 1024 * 1024);
+		Criteria criteria = makeCriteria();
+		long generation = cache.getGeneration("testtype");
+		cache.putList("testtype", generation, criteria, makeResults(2));
+		cache.putList("othertype", cache.getGeneration("othertype"), criteria, makeResults(2));
+
+		cache.invalidate("testtype");
+		assertNull(cache.getList("testtype", criteria));
+		assertNotNull(cache.getList("othertype", criteria));
+
+		// Results read before the invalidation are not served after it
+		cache.putList("testtype", generation, criteria, makeResults(2));
+		assertNull(cache.getList("testtype", criteria));
+	}
+
+	public void testBoundedByEntriesAndBytes() {
+		QueryResultCache cache = new QueryResultCache(2, 1024 * 1024);
+		for(long limit = 1; limit <= 5; limit++) {
+			Criteria criteria = makeCriteria();
+			criteria.setLimit(limit);
+			cache.putList("testtype", 0L, criteria, makeResults(1));
+		}
+		assertTrue(cache.size() <= 2);
+
+		cache = new QueryResultCache(100, 4096);
+		for(long limit = 1; limit <= 5; limit++) {
+			Criteria criteria = makeCriteria();
+			criteria.setLimit(limit);
+			cache.putList("testtype", 0L, criteria, makeResults(20));
+		}
+		assertTrue(cache.size() < 5);
+	}
+
+	public void testCachedListsAreCopied() {
+		QueryResultCache cache = new QueryResultCache(10, 1024 * 1024);
+		Criteria criteria = makeCriteria();
+		cache.putList("testtype", 0L, criteria, makeResults(2));
+		cache.getList("testtype", criteria).clear();
+		assertEquals(2, cache.getList("testtype", criteria).size());
+
+		// The objects themselves are copied too, on the way in and on the way out
+		List<Map<String, Object>> results = makeResults(1);
+		cache.putList("testtype", 0L, criteria, results);
+		results.get(0).put("data1", "changed by the caller that filled the cache");
+		cache.getList("testtype", criteria).get(0).put("data1", "changed by a caller that hit the cache");
+		assertEquals("some data for the object", cache.getList("testtype", criteria).get(0).get("data1"));
+	}
+
+	public void testInvalidateAllStopsInFlightPuts() {
+		QueryResultCache cache = new QueryResultCache(10, 1024 * 1024);
+		Criteria criteria = makeCriteria();
+		long generation = cache.getGeneration("testtype");
+		cache.invalidateAll();
+		cache.putList("testtype", generation, criteria, makeResults(2));
+		assertNull(cache.getList("testtype", criteria));
+	}
+
+	private Criteria makeCriteria() {
+		Criteria criteria = new Criteria();
+		SortedMap<String, Object> indexKeys = Maps.newTreeMap();
+		indexKeys.put("foreignid", 777L);
+		criteria.setIndexKeys(indexKeys);
+		criteria.setOrdering(CObjectOrdering.DESCENDING);
+		criteria.setEndUuid(UUIDs.startOf(1000000L));
+		criteria.setLimit(10L);
+		return criteria;
+	}
+
+	private List<Map<String, Object>> makeResults(int count) {
+		List<Map<String, Object>> results = Lists.newArrayList();
+		for(int i = 0; i < count; i++) {
+			Map<String, Object> result = Maps.newHashMap();
+			result.put("id", UUIDs.startOf(i));
+			result.put("data1", "some data for the object");
+			results.add(result);
+		}
+		return results;
+	}
+}
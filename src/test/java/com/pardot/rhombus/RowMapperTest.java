@@ -0,0 +1,107 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.Row;
+import com.pardot.rhombus.cobject.CDefinition;
+import com.pardot.rhombus.cobject.RowMapper;
+import com.pardot.rhombus.helpers.TestHelpers;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class RowMapperTest extends TestCase {
+
+	private static final String[] COLUMNS = {"id", "shardid", "data1", "data2", "data3", "filtered", "foreignid", "instance", "type"};
+
+	public void testMapsFieldsByIndex() throws IOException {
+		CDefinition def = CDefinition.fromJsonString(TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js"));
+		ColumnDefinitions columns = makeColumns(COLUMNS);
+		UUID id = UUID.randomUUID();
+
+		Row row = mock(Row.class);
+		when(row.getUUID(0)).thenReturn(id);
+		when(row.getString(2)).thenReturn("one");
+		when(row.isNull(3)).thenReturn(true);
+		when(row.getString(4)).thenReturn("three");
+		when(row.getInt(5)).thenReturn(5);
+		when(row.getLong(6)).thenReturn(6L);
+		when(row.getLong(7)).thenReturn(7L);
+		when(row.getInt(8)).thenReturn(8);
+
+		Map<String, Object> result = new RowMapper(def, columns).map(row);
+
+		assertEquals(8, result.size());
+		assertEquals(id, result.get("id"));
+		assertEquals("one", result.get("data1"));
+		assertTrue(result.containsKey("data2"));
+		assertNull(result.get("data2"));
+		assertEquals("three", result.get("data3"));
+		assertEquals(5, result.get("filtered"));
+		assertEquals(6L, result.get("foreignid"));
+		assertEquals(7L, result.get("instance"));
+		assertEquals(8, result.get("type"));
+		// Nothing should be looked up by name once the mapper is compiled
+		verify(row, never()).isNull(anyString());
+		verify(row, never()).getString(anyString());
+	}
+
+	public void testMissingColumnsAreLeftOut() throws IOException {
+		CDefinition def = CDefinition.fromJsonString(TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js"));
+		ColumnDefinitions columns = makeColumns("id", "data1");
+
+		Row row = mock(Row.class);
+		when(row.getString(1)).thenReturn("one");
+
+		Map<String, Object> result = new RowMapper(def, columns).map(row);
+		assertEquals(2, result.size());
+		assertEquals("one", result.get("data1"));
+		assertFalse(result.containsKey("foreignid"));
+	}
+
+	public void testCompactRowsMatchMappedRows() throws IOException {
+		CDefinition def = CDefinition.fromJsonString(TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js"));
+		RowMapper rowMapper = new RowMapper(def, makeColumns(COLUMNS));
+
+		Row row = mock(Row.class);
+		when(row.getUUID(0)).thenReturn(UUID.randomUUID());
+		when(row.getString(2)).thenReturn("one");
+		when(row.getLong(6)).thenReturn(6L);
+
+		assertEquals(rowMapper.map(row), rowMapper.mapCompact(row));
+	}
+
+	public void testIsCompiledFor() throws IOException {
+		CDefinition def = CDefinition.fromJsonString(TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js"));
+		CDefinition otherDef = CDefinition.fromJsonString(TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js"));
+		ColumnDefinitions columns = makeColumns(COLUMNS);
+		RowMapper rowMapper = new RowMapper(def, columns);
+
+		assertTrue(rowMapper.isCompiledFor(def, columns));
+		assertTrue(rowMapper.isCompiledFor(def, makeColumns(COLUMNS)));
+		assertFalse(rowMapper.isCompiledFor(otherDef, columns));
+		assertFalse(rowMapper.isCompiledFor(def, makeColumns("id", "data1")));
+		assertFalse(rowMapper.isCompiledFor(def, makeColumns("id", "shardid", "data1", "data2", "data3", "filtered", "foreignid", "type", "instance")));
+	}
+
+	public void testColumnsKey() {
+		assertEquals(RowMapper.columnsKey(makeColumns(COLUMNS)), RowMapper.columnsKey(makeColumns(COLUMNS)));
+		assertEquals("id,data1", RowMapper.columnsKey(makeColumns("id", "data1")));
+		assertFalse(RowMapper.columnsKey(makeColumns("id", "data1")).equals(RowMapper.columnsKey(makeColumns("id", "type"))));
+	}
+
+	private ColumnDefinitions makeColumns(String... names) {
+		ColumnDefinitions columns = mock(ColumnDefinitions.class);
+		when(columns.size()).thenReturn(names.length);
+		for(int i = 0; i < names.length; i++) {
+			when(columns.contains(names[i])).thenReturn(true);
+			when(columns.getIndexOf(names[i])).thenReturn(i);
+			when(columns.getName(i)).thenReturn(names[i]);
+		}
+		return columns;
+	}
+}
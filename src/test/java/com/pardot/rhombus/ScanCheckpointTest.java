@@ -0,0 +1,70 @@
+package com.pardot.rhombus;
+
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+public class ScanCheckpointTest extends TestCase {
+
+	private File directory;
+
+	public void setUp() {
+		directory = Files.createTempDir();
+	}
+
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	public void testWriteAndRead() throws IOException {
+		List<Map.Entry<Long, Long>> ranges = TableScanner.makeRanges(3);
+		ScanCheckpoint checkpoint = new ScanCheckpoint(ranges);
+		assertFalse(checkpoint.isDirty());
+		checkpoint.recordProgress(0, -42L);
+		checkpoint.recordComplete(2);
+		assertTrue(checkpoint.isDirty());
+
+		File file = new File(directory, TableScanner.CHECKPOINT_FILENAME);
+		checkpoint.write(file);
+		assertFalse(checkpoint.isDirty());
+		// Fixed size per range, no matter how far the scan has got
+		assertEquals(12 + 3 * 25, file.length());
+
+		ScanCheckpoint read = ScanCheckpoint.read(file);
+		assertTrue(read.matches(ranges));
+		assertFalse(read.matches(TableScanner.makeRanges(4)));
+		assertEquals(Long.valueOf(-42L), read.getStartToken(0));
+		assertEquals(ranges.get(1).getKey(), read.getStartToken(1));
+		assertNull(read.getStartToken(2));
+	}
+
+	public void testWriteReplacesPreviousCheckpoint() throws IOException {
+		ScanCheckpoint checkpoint = new ScanCheckpoint(TableScanner.makeRanges(1));
+		File file = new File(directory, TableScanner.CHECKPOINT_FILENAME);
+		checkpoint.recordProgress(0, 1L);
+		checkpoint.write(file);
+		checkpoint.recordProgress(0, 2L);
+		checkpoint.write(file);
+
+		assertEquals(Long.valueOf(2L), ScanCheckpoint.read(file).getStartToken(0));
+		// Only the checkpoint is left, the temporary file was renamed over it
+		assertEquals(1, directory.listFiles().length);
+	}
+
+	public void testReadMissingAndInvalid() throws IOException {
+		File file = new File(directory, TableScanner.CHECKPOINT_FILENAME);
+		assertNull(ScanCheckpoint.read(file));
+		Files.write("savepoint".getBytes(), file);
+		try {
+			ScanCheckpoint.read(file);
+			fail("Expected a file that is not a checkpoint to be rejected");
+		} catch(IOException e) {
+			//Expected
+		}
+	}
+}
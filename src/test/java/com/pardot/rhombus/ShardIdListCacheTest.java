@@ -0,0 +1,106 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.CDefinition;
+import com.pardot.rhombus.cobject.CObjectCQLGenerator;
+import com.pardot.rhombus.cobject.CQLGenerationException;
+import com.pardot.rhombus.cobject.ShardIdListCache;
+import com.pardot.rhombus.cobject.statement.BoundedCQLStatementIterator;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import com.pardot.rhombus.helpers.TestHelpers;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.TimeUnit;
+
+public class ShardIdListCacheTest extends TestCase {
+
+	public void testGetAndRecordShardInsert() {
+		ShardIdListCache cache = new ShardIdListCache(10, 1, TimeUnit.MINUTES);
+		assertNull(cache.get("table", "1:2"));
+
+		cache.put("table", "1:2", Lists.newArrayList(3L, 1L, 2L));
+		assertEquals(Lists.newArrayList(1L, 2L, 3L), Lists.newArrayList(cache.get("table", "1:2")));
+		assertNull(cache.get("table", "1:3"));
+		assertNull(cache.get("other", "1:2"));
+
+		cache.recordShardInsert("table", "1:2", 4L);
+		cache.recordShardInsert("table", "1:2", 2L);
+		assertEquals(Lists.newArrayList(1L, 2L, 3L, 4L), Lists.newArrayList(cache.get("table", "1:2")));
+
+		// Inserts for uncached index values are not cached on their own
+		cache.recordShardInsert("table", "1:3", 4L);
+		assertNull(cache.get("table", "1:3"));
+
+		cache.invalidateAll();
+		assertNull(cache.get("table", "1:2"));
+	}
+
+	public void testInsertsDuringLoadAreKept() {
+		ShardIdListCache cache = new ShardIdListCache(10, 1, TimeUnit.MINUTES);
+		NavigableSet<Long> recorded = cache.beginLoad("table", "1:2");
+		// Recorded after the shard index was read but before the result is put
+		cache.recordShardInsert("table", "1:2", 5L);
+		cache.recordShardInsert("table", "1:3", 6L);
+		cache.put("table", "1:2", Lists.newArrayList(1L, 2L), recorded);
+		assertEquals(Lists.newArrayList(1L, 2L, 5L), Lists.newArrayList(cache.get("table", "1:2")));
+
+		// A cancelled load caches nothing and stops collecting inserts
+		recorded = cache.beginLoad("table", "1:3");
+		cache.cancelLoad("table", "1:3", recorded);
+		cache.recordShardInsert("table", "1:3", 7L);
+		assertTrue(recorded.isEmpty());
+		assertNull(cache.get("table", "1:3"));
+	}
+
+	public void testSizeIsBounded() {
+		ShardIdListCache cache = new ShardIdListCache(2, 1, TimeUnit.MINUTES);
+		for(int i = 0; i < 5; i++) {
+			cache.put("table", String.valueOf(i), Lists.newArrayList(1L));
+		}
+		assertTrue(cache.size() <= 2);
+		assertNotNull(cache.get("table", "4"));
+	}
+
+	public void testEntriesExpire() throws InterruptedException {
+		ShardIdListCache cache = new ShardIdListCache(10, 10, TimeUnit.MILLISECONDS);
+		cache.put("table", "1:2", Lists.newArrayList(1L));
+		Thread.sleep(50);
+		assertNull(cache.get("table", "1:2"));
+	}
+
+	public void testIsShardIndexInsert() throws IOException, CQLGenerationException {
+		CDefinition def = CDefinition.fromJsonString(TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js"));
+		Map<String, CDefinition> definitions = Maps.newHashMap();
+		definitions.put(def.getName(), def);
+		CObjectCQLGenerator generator = new CObjectCQLGenerator("testspace", definitions, null, 0);
+
+		Map<String, Object> data = Maps.newHashMap();
+		data.put("foreignid", 777L);
+		data.put("type", 5);
+		data.put("instance", 222222L);
+		data.put("filtered", 1);
+		data.put("data1", "one");
+		data.put("data2", "two");
+		data.put("data3", "three");
+		BoundedCQLStatementIterator insert = (BoundedCQLStatementIterator)generator.makeCQLforInsert(def.getName(), data, UUIDs.timeBased(), 0L);
+
+		List<CQLStatement> shardIndexInserts = Lists.newArrayList();
+		for(CQLStatement statement : insert.getStatements()) {
+			if(generator.isShardIndexInsert(statement)) {
+				shardIndexInserts.add(statement);
+			}
+		}
+		// One for each of the two monthly sharded indexes
+		assertEquals(2, shardIndexInserts.size());
+		for(CQLStatement statement : shardIndexInserts) {
+			assertTrue(((String)statement.getValues()[0]).startsWith(def.getName()));
+			assertTrue(statement.getValues()[2] instanceof Long);
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package com.pardot.rhombus;
+
+import com.pardot.rhombus.cobject.ShardIndexWriteCache;
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+public class ShardIndexWriteCacheTest extends TestCase {
+
+	public void testRecordWrite() {
+		ShardIndexWriteCache cache = new ShardIndexWriteCache(10, 1, TimeUnit.MINUTES);
+		assertFalse(cache.isRecentlyWritten("table", "1:2", 160L));
+
+		cache.recordWrite("table", "1:2", 160L);
+		assertTrue(cache.isRecentlyWritten("table", "1:2", 160L));
+		assertFalse(cache.isRecentlyWritten("table", "1:2", 161L));
+		assertFalse(cache.isRecentlyWritten("table", "1:3", 160L));
+		assertFalse(cache.isRecentlyWritten("other", "1:2", 160L));
+
+		cache.invalidateAll();
+		assertFalse(cache.isRecentlyWritten("table", "1:2", 160L));
+	}
+
+	public void testSizeIsBounded() {
+		ShardIndexWriteCache cache = new ShardIndexWriteCache(2, 1, TimeUnit.MINUTES);
+		for(long shardId = 0; shardId < 5; shardId++) {
+			cache.recordWrite("table", "1:2", shardId);
+		}
+		assertTrue(cache.size() <= 2);
+		assertTrue(cache.isRecentlyWritten("table", "1:2", 4L));
+	}
+
+	public void testWritesExpire() throws InterruptedException {
+		ShardIndexWriteCache cache = new ShardIndexWriteCache(10, 10, TimeUnit.MILLISECONDS);
+		cache.recordWrite("table", "1:2", 160L);
+		Thread.sleep(50);
+		assertFalse(cache.isRecentlyWritten("table", "1:2", 160L));
+	}
+}
@@ -1,10 +1,21 @@
 package com.pardot.rhombus;
 
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.pardot.rhombus.cobject.CObjectTokenVisitor;
 import com.pardot.rhombus.cobject.CObjectTokenVisitorFactory;
 import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.io.File;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import static org.mockito.Mockito.*;
 
@@ -41,6 +52,152 @@ public class TableScannerTest extends TestCase {
 		}
 	}
 
+	public void testStaticRangesCoverRing() {
+		for(int i = 1 ; i < 65 ; i++) {
+			List<Map.Entry<Long, Long>> ranges = TableScanner.makeRanges(i);
+			assertEquals(i, ranges.size());
+			assertEquals(Long.valueOf(Long.MIN_VALUE), ranges.get(0).getKey());
+			for(int j = 1 ; j < i ; j++) {
+				assertEquals(Long.valueOf(ranges.get(j - 1).getValue() + 1l), ranges.get(j).getKey());
+			}
+			assertEquals(Long.valueOf(Long.MAX_VALUE), ranges.get(i - 1).getValue());
+		}
+	}
+
+	public void testRangesPerPartition() {
+		TableScanner scanner = new TableScanner(mockObjectMapper(), "testtype", 3, mockVisitorFactory(), null);
+		scanner.setSplitsPerPartition(5);
+		List<Map.Entry<Long, Long>> ranges = scanner.makeRanges();
+		assertEquals(15, ranges.size());
+		assertEquals(TableScanner.makeRanges(15), ranges);
+	}
+
+	public void testPartitionsShareRanges() throws Exception {
+		File savepointDirectory = Files.createTempDir();
+		try {
+			// One object at the start of each range
+			ObjectMapper objectMapper = mockObjectMapper();
+			when(objectMapper.scanTableWithStartToken(anyString(), anyLong(), anyLong(), anyLong())).thenAnswer(new Answer<List<Map<String, Object>>>() {
+				@Override
+				public List<Map<String, Object>> answer(InvocationOnMock invocation) throws Throwable {
+					Map<String, Object> object = Maps.newHashMap();
+					object.put("id", UUIDs.timeBased());
+					return Lists.newArrayList(object);
+				}
+			});
+			when(objectMapper.scanTableAfterId(anyString(), any(), anyLong(), anyLong())).thenReturn(Lists.<Map<String, Object>>newArrayList());
+
+			final List<CObjectTokenVisitor> visitors = Collections.synchronizedList(Lists.<CObjectTokenVisitor>newArrayList());
+			CObjectTokenVisitorFactory visitorFactory = new CObjectTokenVisitorFactory() {
+				@Override
+				public CObjectTokenVisitor getInstance(String name) {
+					CObjectTokenVisitor visitor = new CObjectTokenVisitor(name) {
+						public void applyAction(Map<String, Object> object) {}
+						public boolean shouldInclude(Map<String, Object> object) {
+							return true;
+						}
+						public void setUp() {}
+						public void cleanUp() {}
+					};
+					visitors.add(visitor);
+					return visitor;
+				}
+			};
+
+			TableScanner scanner = new TableScanner(objectMapper, "testtype", 2, visitorFactory, savepointDirectory.getPath());
+			scanner.setSplitsPerPartition(8);
+			scanner.scan();
+
+			assertEquals(2, visitors.size());
+			assertEquals(16, visitors.get(0).getTokensVisited() + visitors.get(1).getTokensVisited());
+			assertEquals(1.0, scanner.getProgress());
+			assertEquals(0, scanner.getEtaSeconds());
+			// Progress is checkpointed for each range separately
+			ScanCheckpoint checkpoint = ScanCheckpoint.read(new File(savepointDirectory, TableScanner.CHECKPOINT_FILENAME));
+			assertTrue(checkpoint.matches(TableScanner.makeRanges(16)));
+			for(int i = 0; i < 16; i++) {
+				assertNull(checkpoint.getStartToken(i));
+			}
+		} finally {
+			FileUtils.deleteDirectory(savepointDirectory);
+		}
+	}
+
+	public void testResumesFromCheckpoint() throws Exception {
+		File savepointDirectory = Files.createTempDir();
+		try {
+			List<Map.Entry<Long, Long>> ranges = TableScanner.makeRanges(4);
+			ScanCheckpoint checkpoint = new ScanCheckpoint(ranges);
+			checkpoint.recordComplete(0);
+			checkpoint.recordComplete(1);
+			checkpoint.recordProgress(2, 12345L);
+			checkpoint.write(new File(savepointDirectory, TableScanner.CHECKPOINT_FILENAME));
+
+			ObjectMapper objectMapper = mockObjectMapper();
+			when(objectMapper.scanTableWithStartToken(anyString(), anyLong(), anyLong(), anyLong())).thenReturn(Lists.<Map<String, Object>>newArrayList());
+			CObjectTokenVisitorFactory visitorFactory = mockVisitorFactory();
+			when(visitorFactory.getInstance(anyString())).thenReturn(mock(CObjectTokenVisitor.class));
+			TableScanner scanner = new TableScanner(objectMapper, "testtype", 2, visitorFactory, savepointDirectory.getPath());
+			scanner.setSplitsPerPartition(2);
+			scanner.scan();
+
+			// Finished ranges are skipped and the rest start from their checkpoint, without looking any ids up
+			verify(objectMapper).scanTableWithStartToken("testtype", 12345L, ranges.get(2).getValue(), 200L);
+			verify(objectMapper).scanTableWithStartToken("testtype", ranges.get(3).getKey(), ranges.get(3).getValue(), 200L);
+			verify(objectMapper, times(2)).scanTableWithStartToken(anyString(), anyLong(), anyLong(), anyLong());
+			verify(objectMapper, never()).getTokenForId(anyString(), any(UUID.class));
+		} finally {
+			FileUtils.deleteDirectory(savepointDirectory);
+		}
+	}
+
+	public void testFailedRangeFailsScan() throws Exception {
+		File savepointDirectory = Files.createTempDir();
+		try {
+			final List<Map.Entry<Long, Long>> ranges = TableScanner.makeRanges(4);
+			ObjectMapper objectMapper = mockObjectMapper();
+			when(objectMapper.scanTableWithStartToken(anyString(), anyLong(), anyLong(), anyLong())).thenAnswer(new Answer<List<Map<String, Object>>>() {
+				@Override
+				public List<Map<String, Object>> answer(InvocationOnMock invocation) throws Throwable {
+					if(ranges.get(1).getKey().equals(invocation.getArguments()[1])) {
+						throw new RhombusException("read failed");
+					}
+					return Lists.newArrayList();
+				}
+			});
+			CObjectTokenVisitorFactory visitorFactory = mockVisitorFactory();
+			when(visitorFactory.getInstance(anyString())).thenReturn(mock(CObjectTokenVisitor.class));
+			TableScanner scanner = new TableScanner(objectMapper, "testtype", 1, visitorFactory, savepointDirectory.getPath());
+			scanner.setSplitsPerPartition(4);
+			scanner.setStatementRetries(2);
+			try {
+				scanner.scan();
+				fail("Expected the failed range to fail the scan");
+			} catch(RuntimeException e) {
+				assertTrue(e.getCause() instanceof RhombusException);
+			}
+
+			// The failed range and the ones after it are left to resume from
+			verify(objectMapper, times(3)).scanTableWithStartToken(anyString(), anyLong(), anyLong(), anyLong());
+			ScanCheckpoint checkpoint = ScanCheckpoint.read(new File(savepointDirectory, TableScanner.CHECKPOINT_FILENAME));
+			assertNull(checkpoint.getStartToken(0));
+			for(int i = 1; i < 4; i++) {
+				assertEquals(ranges.get(i).getKey(), checkpoint.getStartToken(i));
+			}
+		} finally {
+			FileUtils.deleteDirectory(savepointDirectory);
+		}
+	}
+
+	public void testEstimateSize() {
+		Map<String, Object> object = Maps.newHashMap();
+		object.put("id", UUIDs.timeBased());
+		object.put("name", "twelve chars");
+		object.put("count", 3L);
+		object.put("tags", Lists.newArrayList("a", "bc"));
+		assertEquals(16 + 12 + 8 + 3, TableScanner.estimateSize(object) - TableScanner.estimateSize(object.keySet()));
+	}
+
 	private ObjectMapper mockObjectMapper() {
 		return mock(ObjectMapper.class);
 	}
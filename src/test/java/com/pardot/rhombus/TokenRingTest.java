@@ -0,0 +1,93 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.CQLExecutor;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.UUID;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class TokenRingTest extends TestCase {
+
+	private static final UUID HOST_A = UUID.randomUUID();
+	private static final UUID HOST_B = UUID.randomUUID();
+
+	public void testSplitsCoverRing() {
+		for(int numSplits : new int[]{1, 2, 7, 64}) {
+			List<Map.Entry<Long, Long>> splits = makeRing().split(TokenRing.targetSplitSize(numSplits));
+			assertTrue(splits.size() >= Math.max(numSplits, 4));
+			Collections.sort(splits, new Comparator<Map.Entry<Long, Long>>() {
+				@Override
+				public int compare(Map.Entry<Long, Long> a, Map.Entry<Long, Long> b) {
+					return a.getKey().compareTo(b.getKey());
+				}
+			});
+			assertEquals(Long.valueOf(Long.MIN_VALUE), splits.get(0).getKey());
+			for(int i = 1; i < splits.size(); i++) {
+				assertEquals(Long.valueOf(splits.get(i - 1).getValue() + 1), splits.get(i).getKey());
+			}
+			assertEquals(Long.valueOf(Long.MAX_VALUE), splits.get(splits.size() - 1).getValue());
+		}
+	}
+
+	public void testSplitsStayInsideOwnedRanges() {
+		TokenRing ring = makeRing();
+		for(Map.Entry<Long, Long> split : ring.split(TokenRing.targetSplitSize(64))) {
+			// No token may fall inside a split without ending it
+			SortedMap<Long, UUID> inside = ring.getTokenOwners().subMap(split.getKey(), split.getValue());
+			assertTrue(split + " spans " + inside, inside.isEmpty());
+			// The last split of a range also takes the remainder of dividing it, less than a token per split
+			assertTrue(split.getValue() - split.getKey() + 1 <= TokenRing.targetSplitSize(64).longValue() + 64);
+		}
+	}
+
+	public void testSplitsAlternateOwners() {
+		List<Map.Entry<Long, Long>> splits = makeRing().split(TokenRing.targetSplitSize(1));
+		TokenRing ring = makeRing();
+		for(int i = 1; i < splits.size(); i++) {
+			assertFalse(owner(ring, splits.get(i - 1)).equals(owner(ring, splits.get(i))));
+		}
+	}
+
+	public void testReadRejectsOtherPartitioners() {
+		Row local = mock(Row.class);
+		when(local.getString("partitioner")).thenReturn("org.apache.cassandra.dht.RandomPartitioner");
+		ResultSet resultSet = mock(ResultSet.class);
+		when(resultSet.one()).thenReturn(local);
+		CQLExecutor cqlExecutor = mock(CQLExecutor.class);
+		when(cqlExecutor.executeSync(any(CQLStatement.class))).thenReturn(resultSet);
+		try {
+			TokenRing.read(cqlExecutor);
+			fail("Expected a random partitioned ring to be rejected");
+		} catch(RhombusException e) {
+			//Expected
+		}
+	}
+
+	/**
+	 * Four ranges alternating between two hosts, with the range past the last token wrapping to host A
+	 */
+	private TokenRing makeRing() {
+		SortedMap<Long, UUID> tokenOwners = Maps.newTreeMap();
+		tokenOwners.put(Long.MIN_VALUE / 2, HOST_A);
+		tokenOwners.put(-1L, HOST_B);
+		tokenOwners.put(Long.MAX_VALUE / 4, HOST_A);
+		tokenOwners.put(Long.MAX_VALUE / 2, HOST_B);
+		return new TokenRing(tokenOwners);
+	}
+
+	private UUID owner(TokenRing ring, Map.Entry<Long, Long> split) {
+		SortedMap<Long, UUID> atOrAfter = ring.getTokenOwners().tailMap(split.getValue());
+		return atOrAfter.isEmpty() ? ring.getTokenOwners().get(ring.getTokenOwners().firstKey()) : atOrAfter.get(atOrAfter.firstKey());
+	}
+}
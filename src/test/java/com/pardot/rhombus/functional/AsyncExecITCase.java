@@ -1,7 +1,11 @@
 package com.pardot.rhombus.functional;
 
 
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.pardot.rhombus.ConnectionManager;
+import com.pardot.rhombus.Criteria;
 import com.pardot.rhombus.ObjectMapper;
 import com.pardot.rhombus.cobject.CDefinition;
 import com.pardot.rhombus.cobject.CKeyspaceDefinition;
@@ -15,6 +19,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
+import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -60,6 +65,58 @@ public class AsyncExecITCase extends RhombusFunctionalTest{
 		cm.teardown();
 	}
 
+	@Test
+	public void testObjectMapperAsyncMethods() throws Exception {
+		ConnectionManager cm = getConnectionManager();
+
+		CKeyspaceDefinition definition = JsonUtil.objectFromJsonResource(CKeyspaceDefinition.class, this.getClass().getClassLoader(), "ShardedKeyspace.js");
+		cm.buildKeyspace(definition, true);
+		cm.setDefaultKeyspace(definition);
+		ObjectMapper om = cm.getObjectMapper();
+
+		UUID accountId = UUIDs.random();
+		UUID userId = UUIDs.random();
+		List<Map<String, Object>> objects = Lists.newArrayList();
+		for(int i = 0; i < 10; i++) {
+			Map<String, Object> value = Maps.newHashMap();
+			value.put("account_id", accountId);
+			value.put("user_id", userId);
+			value.put("field1", "value" + i);
+			objects.add(value);
+		}
+		Map<String, List<Map<String, Object>>> batch = Maps.newHashMap();
+		batch.put("object1", objects);
+		Map<String, List<UUID>> batchIds = om.insertBatchMixedAsync(batch).get(10, TimeUnit.SECONDS);
+		assertEquals(10, batchIds.get("object1").size());
+
+		Map<String, Object> value = Maps.newHashMap();
+		value.put("account_id", accountId);
+		value.put("user_id", userId);
+		value.put("field1", "single");
+		UUID id = (UUID)om.insertAsync("object1", value).get(10, TimeUnit.SECONDS);
+		assertEquals("single", om.getByKeyAsync("object1", id).get(10, TimeUnit.SECONDS).get("field1"));
+
+		Map<String, Object> updates = Maps.newHashMap();
+		updates.put("field1", "updated");
+		assertEquals(id, om.updateAsync("object1", id, updates).get(10, TimeUnit.SECONDS));
+		assertEquals("updated", om.getByKey("object1", id).get("field1"));
+
+		Criteria criteria = new Criteria();
+		SortedMap<String, Object> indexKeys = Maps.newTreeMap();
+		indexKeys.put("account_id", accountId);
+		indexKeys.put("user_id", userId);
+		criteria.setIndexKeys(indexKeys);
+		criteria.setLimit(5L);
+		List<Map<String, Object>> results = om.listAsync("object1", criteria).get(10, TimeUnit.SECONDS);
+		assertEquals(om.list("object1", criteria), results);
+		assertEquals(id, results.get(0).get("id"));
+
+		criteria.setLimit(0L);
+		assertEquals(11L, (long)om.countAsync("object1", criteria).get(10, TimeUnit.SECONDS));
+
+		cm.teardown();
+	}
+
 	private void insertObjectSetAsync(int numThreads, ExecutorService executorService, final ObjectMapper om, final List<Map<String, Object>> values, final CDefinition objectAuditDef) {
 		final CountDownLatch latch = new CountDownLatch(numThreads);
 		for(int i = 0 ; i < numThreads ; i++) {
@@ -16,6 +16,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 import static org.junit.Assert.assertEquals;
@@ -162,6 +163,40 @@ public class ObjectMapperITCase extends RhombusFunctionalTest {
 		cm.teardown();
 	}
 
+	@Test
+	public void testGetByKeys() throws Exception {
+		//Build the connection manager
+		ConnectionManager cm = getConnectionManager();
+
+		//Build our keyspace definition object
+		CKeyspaceDefinition definition = JsonUtil.objectFromJsonResource(CKeyspaceDefinition.class, this.getClass().getClassLoader(), "CKeyspaceTestData.js");
+		assertNotNull(definition);
+
+		//Rebuild the keyspace and get the object mapper
+		cm.buildKeyspace(definition, true);
+		cm.setDefaultKeyspace(definition);
+		ObjectMapper om = cm.getObjectMapper(definition.getName());
+		om.setGetByKeysConcurrency(2);
+
+		List<String> keys = Lists.newArrayList();
+		for(int i = 0; i < 5; i++) {
+			Map<String, Object> testObject = Maps.newHashMap();
+			testObject.put("data1", "data1-" + i);
+			keys.add((String)om.insert("customkey", testObject, "key" + i));
+		}
+		keys.add("missing");
+
+		Map<String, Map<String, Object>> results = om.getByKeys("customkey", keys);
+		assertEquals(keys, Lists.newArrayList(results.keySet()));
+		for(int i = 0; i < 5; i++) {
+			assertEquals("data1-" + i, results.get("key" + i).get("data1"));
+		}
+		assertTrue(results.containsKey("missing"));
+		assertNull(results.get("missing"));
+
+		cm.teardown();
+	}
+
 	@Test
 	public void testDelete() throws Exception {
 		//Build the connection manager
@@ -1103,6 +1138,22 @@ public class ObjectMapperITCase extends RhombusFunctionalTest {
 		System.out.println("Visiting all objects took " + syncTime + "ms");
 		assertEquals(20000, visitor.getCount());
 
+		//Visit them again over several token ranges at once
+		final AtomicInteger concurrentCount = new AtomicInteger();
+		om.setVisitObjectsConcurrency(4);
+		om.visitObjects("object1", new CObjectVisitor() {
+			@Override
+			public void visit(Map<String, Object> object) {
+				concurrentCount.incrementAndGet();
+			}
+
+			@Override
+			public boolean shouldInclude(Map<String, Object> object) {
+				return true;
+			}
+		});
+		assertEquals(20000, concurrentCount.get());
+
 		cm.teardown();
 	}
 
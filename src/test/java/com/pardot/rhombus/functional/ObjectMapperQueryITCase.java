@@ -4,8 +4,10 @@ package com.pardot.rhombus.functional;
 import com.datastax.driver.core.utils.UUIDs;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.pardot.rhombus.ConnectionManager;
 import com.pardot.rhombus.Criteria;
+import com.pardot.rhombus.ObjectCursor;
 import com.pardot.rhombus.ObjectMapper;
 import com.pardot.rhombus.RhombusException;
 import com.pardot.rhombus.cobject.CKeyspaceDefinition;
@@ -342,6 +344,100 @@ public class ObjectMapperQueryITCase extends RhombusFunctionalTest {
 		cm.teardown();
 	}
 
+	@Test
+	public void testIterateAcrossShardsInPages() throws Exception {
+		//Build the connection manager
+		ConnectionManager cm = getConnectionManager();
+		cm.setLogCql(true);
+
+		//Build our keyspace definition object
+		CKeyspaceDefinition definition = JsonUtil.objectFromJsonResource(CKeyspaceDefinition.class, this.getClass().getClassLoader(), "ShardedKeyspace.js");
+
+		//Rebuild the keyspace and get the object mapper
+		cm.buildKeyspace(definition, true);
+		cm.setDefaultKeyspace(definition);
+		ObjectMapper om = cm.getObjectMapper();
+		om.setLogCql(true);
+		om.setCursorPageSize(4L);
+
+		long insertNum = 18l;
+		insertNObjects(om, insertNum, null);
+
+		Criteria criteria = new Criteria();
+		SortedMap<String, Object> indexKeys = Maps.newTreeMap();
+		indexKeys.put("account_id", accountId);
+		indexKeys.put("user_id", userId);
+		criteria.setIndexKeys(indexKeys);
+
+		// No limit, read everything a few rows at a time
+		ObjectCursor cursor = om.iterate(objectType, criteria);
+		Set<Object> ids = Sets.newHashSet();
+		while(cursor.hasNext()) {
+			ids.add(cursor.next().get("id"));
+		}
+		assertEquals(insertNum, ids.size());
+
+		// Stop early at the criteria limit
+		criteria.setLimit(5L);
+		cursor = om.iterate(objectType, criteria);
+		int count = 0;
+		while(cursor.hasNext()) {
+			assertNotNull(cursor.next());
+			count++;
+		}
+		cursor.close();
+		assertEquals(5, count);
+
+		cm.teardown();
+	}
+
+	@Test
+	public void testListMultiValueIndexKeys() throws Exception {
+		//Build the connection manager
+		ConnectionManager cm = getConnectionManager();
+		cm.setLogCql(true);
+
+		//Build our keyspace definition object
+		CKeyspaceDefinition definition = JsonUtil.objectFromJsonResource(CKeyspaceDefinition.class, this.getClass().getClassLoader(), "ShardedKeyspace.js");
+
+		//Rebuild the keyspace and get the object mapper
+		cm.buildKeyspace(definition, true);
+		cm.setDefaultKeyspace(definition);
+		ObjectMapper om = cm.getObjectMapper();
+		om.setLogCql(true);
+
+		// Interleave objects for two users
+		UUID otherUserId = UUIDs.random();
+		List<UUID> ids = Lists.newArrayList();
+		for(int i = 0; i < 10; i++) {
+			Map<String, Object> value = Maps.newHashMap();
+			value.put("account_id", accountId);
+			value.put("user_id", (i % 2 == 0) ? userId : otherUserId);
+			ids.add((UUID)om.insert(objectType, value));
+		}
+
+		Criteria criteria = new Criteria();
+		SortedMap<String, Object> indexKeys = Maps.newTreeMap();
+		indexKeys.put("account_id", accountId);
+		criteria.setIndexKeys(indexKeys);
+		SortedMap<String, List<Object>> multiValueIndexKeys = Maps.newTreeMap();
+		multiValueIndexKeys.put("user_id", Lists.<Object>newArrayList(userId, otherUserId));
+		criteria.setMultiValueIndexKeys(multiValueIndexKeys);
+		criteria.setLimit(5L);
+
+		// Newest first across both users
+		List<Map<String, Object>> results = om.list(objectType, criteria);
+		assertEquals(5, results.size());
+		for(int i = 0; i < 5; i++) {
+			assertEquals(ids.get(9 - i), results.get(i).get("id"));
+		}
+
+		criteria.setLimit(0L);
+		assertEquals(10L, om.count(objectType, criteria));
+
+		cm.teardown();
+	}
+
 	private boolean resultsContainId(List<Map<String, Object>> results, UUID id) {
 		for(Map<String, Object> object : results) {
 			if(id.equals(object.get("id"))) {
@@ -6,21 +6,20 @@ import com.google.common.collect.Maps;
 import com.pardot.rhombus.ConnectionManager;
 import com.pardot.rhombus.ObjectMapper;
 import com.pardot.rhombus.RhombusException;
+import com.pardot.rhombus.ScanCheckpoint;
 import com.pardot.rhombus.TableScanner;
+import com.pardot.rhombus.TokenRing;
 import com.pardot.rhombus.cobject.CKeyspaceDefinition;
 import com.pardot.rhombus.cobject.CObjectTokenVisitor;
 import com.pardot.rhombus.cobject.CObjectTokenVisitorFactory;
 import com.pardot.rhombus.cobject.CQLGenerationException;
 import com.pardot.rhombus.util.JsonUtil;
 import org.apache.cassandra.io.util.FileUtils;
-import org.apache.commons.io.input.ReversedLinesFileReader;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.PrintWriter;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
@@ -118,7 +117,7 @@ public class TableScannerITCase extends RhombusFunctionalTest {
 
 		assertEquals(valueCount, totalCount);
 
-		this.verifySavepoints(numPartitions, savepointDirectoryName, objectType, om, ranges);
+		this.verifyCheckpoint(savepointDirectoryName, ranges);
 
 		cm.teardown();
 	}
@@ -171,16 +170,18 @@ public class TableScannerITCase extends RhombusFunctionalTest {
 		Long halfwayToken = rangeLength.divide(BigInteger.valueOf(2)).add(rangeStart).longValue();
 		rangeHalfwayPoints[numPartitions - 1] = (UUID)om.scanTableWithStartToken(objectType, halfwayToken, TableScanner.maxToken, 1L).get(0).get("id");
 
-		// Write halfway points to the savepoint directory
+		// Write halfway points to a checkpoint in the savepoint directory
 		savepointDirectory = new File(savepointDirectoryName);
 		savepointDirectory.mkdir();
 
+		ScanCheckpoint checkpoint = new ScanCheckpoint(TableScanner.makeRanges(numPartitions));
 		for (int i = 0; i < numPartitions; i++) {
-			String filename = TableScanner.getSavepointFilename(i);
-			PrintWriter writer = new PrintWriter(new FileOutputStream(savepointDirectory.getName() + "/" + filename, false));
-			writer.write(rangeHalfwayPoints[i].toString() + "\n");
-			writer.close();
+			// Tokens are worked out on the client, so they must match the ones Cassandra computes
+			Long halfwayPointToken = TokenRing.getToken(rangeHalfwayPoints[i]);
+			assertEquals(om.getTokenForId(objectType, rangeHalfwayPoints[i]), halfwayPointToken);
+			checkpoint.recordProgress(i, halfwayPointToken);
 		}
+		checkpoint.write(new File(savepointDirectory, TableScanner.CHECKPOINT_FILENAME));
 
 		// Create and run scanner
 		VisitorFactoryTester visitorFactory = new VisitorFactoryTester();
@@ -196,57 +197,24 @@ public class TableScannerITCase extends RhombusFunctionalTest {
 		// The total number of visits we have will fluctuate depending on where the ids land among the token ranges, but we should be close to half
 		assertTrue(Math.abs(actualCount - (valueCount/2)) < (valueCount/(numPartitions * 2)));
 
-		this.verifySavepoints(numPartitions, savepointDirectoryName, objectType, om, ranges);
+		this.verifyCheckpoint(savepointDirectoryName, ranges);
 
 		cm.teardown();
 	}
 
-	private void verifySavepoints(Integer numPartitions, String savepointDirectoryName, String objectType, ObjectMapper om, List<Map.Entry<Long, Long>> ranges) throws Exception {
+	private void verifyCheckpoint(String savepointDirectoryName, List<Map.Entry<Long, Long>> ranges) throws Exception {
 		// Open up the savepoint directory
 		File savepointDirectory = new File(savepointDirectoryName);
 		assertTrue(savepointDirectory.exists());
 		assertTrue(savepointDirectory.isDirectory());
 
-		File[] fileArray = savepointDirectory.listFiles();
-		assertNotNull(fileArray);
-
-		// Make sure we have all the savepoint files we expect
-		Map<String, File> files = Maps.newHashMap();
-		for (File savepoint : fileArray) {
-			files.put(savepoint.getName(), savepoint);
-		}
-
-		boolean foundAtLeastOneLine = false;
-		UUID highestUuid = null;
-		for (int i = 0; i < numPartitions; i++) {
-			String filename = TableScanner.getSavepointFilename(i);
-			assertTrue(files.containsKey(filename));
-
-			File file = files.get(filename);
-			ReversedLinesFileReader reader = new ReversedLinesFileReader(file);
-			String line = reader.readLine();
-			// A null line is actually ok, that just means there were no results in that partition's token range this time around
-			if (line != null) {
-				foundAtLeastOneLine = true;
-				UUID savedUuid = UUID.fromString(line);
-				assertNotNull(savedUuid);
-				List<Map<String, Object>> values = om.scanTableWithStartId(objectType, savedUuid.toString(), TableScanner.maxToken, 1L);
-
-				// This means there is no next id from this uuid so our normal check doesn't work.
-				// This also means this is the highest uuid in the total range (might not be in the last partition if the last partition didn't end up with any objects)
-				if (values.size() == 0) {
-					// Make sure this only happens once
-					assertNull(highestUuid);
-					highestUuid = savedUuid;
-				} else {
-					// Otherwise there is a next uuid from the saved point, so compare that to the next uuid from the end of the partition's range and make sure they match
-					UUID nextSavedUuid = (UUID) values.get(0).get("id");
-					UUID nextExpectedUuid = (UUID) om.scanTableWithStartToken(objectType, ranges.get(i).getValue(), TableScanner.maxToken, 1L).get(0).get("id");
-					assertEquals(nextExpectedUuid, nextSavedUuid);
-				}
-			}
+		// The checkpoint is for the ranges scanned, and every one of them finished
+		ScanCheckpoint checkpoint = ScanCheckpoint.read(new File(savepointDirectory, TableScanner.CHECKPOINT_FILENAME));
+		assertNotNull(checkpoint);
+		assertTrue(checkpoint.matches(ranges));
+		for (int i = 0; i < ranges.size(); i++) {
+			assertNull(checkpoint.getStartToken(i));
 		}
-		assertTrue(foundAtLeastOneLine);
 	}
 
 	@Test
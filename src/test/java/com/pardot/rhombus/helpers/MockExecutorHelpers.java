@@ -0,0 +1,121 @@
+package com.pardot.rhombus.helpers;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
+import com.pardot.rhombus.cobject.CObjectOrdering;
+import com.pardot.rhombus.cobject.CQLExecutor;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import com.pardot.rhombus.cobject.statement.UnboundableCQLStatementIterator;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Mocked executors, results and per shard statements for exercising the executors and iterators that read shards
+ * without a cluster
+ */
+public class MockExecutorHelpers {
+
+	/**
+	 * Answers the statements sent to a mocked executor
+	 */
+	public interface StatementHandler {
+		ResultSetFuture execute(CQLStatement statement) throws Exception;
+	}
+
+	/**
+	 * @return Iterator over the shards of table tbl, with the first value of the template as the shard id
+	 */
+	public static UnboundableCQLStatementIterator makeStatementIterator(String template, long firstShard, long lastShard, long limit, Object... values) {
+		CQLStatement statement = CQLStatement.make(template, "tbl", values);
+		return new UnboundableCQLStatementIterator(Range.closed(firstShard, lastShard), limit, CObjectOrdering.ASCENDING, statement, "tbl");
+	}
+
+	/**
+	 * @return Executor that answers executeAsync with the handler and waits on results the way CQLExecutor does
+	 */
+	public static CQLExecutor mockExecutor(final StatementHandler handler) {
+		CQLExecutor executor = mock(CQLExecutor.class);
+		when(executor.executeAsync(any(CQLStatement.class))).thenAnswer(new Answer<ResultSetFuture>() {
+			@Override
+			public ResultSetFuture answer(InvocationOnMock invocation) throws Throwable {
+				return handler.execute((CQLStatement)invocation.getArguments()[0]);
+			}
+		});
+		when(executor.awaitResult(any(ResultSetFuture.class))).thenCallRealMethod();
+		return executor;
+	}
+
+	/**
+	 * @return Future that is already done with the result set, and runs listeners as soon as they are added
+	 */
+	public static ResultSetFuture makeFuture(ResultSet resultSet) throws Exception {
+		ResultSetFuture future = makeDoneFuture();
+		when(future.get()).thenReturn(resultSet);
+		when(future.getUninterruptibly()).thenReturn(resultSet);
+		return future;
+	}
+
+	/**
+	 * @return Future that is already done with the failure, and runs listeners as soon as they are added
+	 */
+	public static ResultSetFuture makeFailedFuture(Throwable failure) throws Exception {
+		ResultSetFuture future = makeDoneFuture();
+		when(future.get()).thenThrow(new ExecutionException(failure));
+		return future;
+	}
+
+	private static ResultSetFuture makeDoneFuture() {
+		ResultSetFuture future = mock(ResultSetFuture.class);
+		when(future.isDone()).thenReturn(true);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				((Executor)invocation.getArguments()[1]).execute((Runnable)invocation.getArguments()[0]);
+				return null;
+			}
+		}).when(future).addListener(any(Runnable.class), any(Executor.class));
+		return future;
+	}
+
+	public static ResultSet makeResultSet(List<Row> rows) {
+		ResultSet resultSet = mock(ResultSet.class);
+		when(resultSet.isExhausted()).thenReturn(rows.isEmpty());
+		when(resultSet.iterator()).thenReturn(rows.iterator());
+		return resultSet;
+	}
+
+	/**
+	 * @return Result set of a count statement
+	 */
+	public static ResultSet makeCountResultSet(long count) {
+		Row row = mock(Row.class);
+		when(row.getLong(0)).thenReturn(count);
+		ResultSet resultSet = mock(ResultSet.class);
+		when(resultSet.one()).thenReturn(row);
+		return resultSet;
+	}
+
+	/**
+	 * @return Rows with ids in increasing order
+	 */
+	public static List<Row> makeRows(int count) {
+		List<Row> rows = Lists.newArrayList();
+		for(int i = 0; i < count; i++) {
+			Row row = mock(Row.class);
+			when(row.getUUID("id")).thenReturn(UUIDs.timeBased());
+			rows.add(row);
+		}
+		return rows;
+	}
+}